@@ -0,0 +1,203 @@
+package packageTrie;
+
+/**
+ * Метрика Дамерау-Левенштейна (с транспозицией соседних символов, как {@link DamerauLevensteinMetric}),
+ * посчитанная бит-параллельно по Майерсу и Хюрё.
+ *
+ * Столбец таблицы расстояний для образца длиной до 64 символов хранится как разности соседних
+ * клеток в двух словах long, и на каждый символ текста весь столбец пересчитывается десятком
+ * битовых операций вместо цикла по клеткам полосы. Образец - более короткая строка
+ * (для префиксного расстояния - префикс). Для образцов длиннее 64 символов считает обычная
+ * {@link DamerauLevensteinMetric}.
+ * @author roman khalkechev
+ */
+public class BitParallelDamerauLevensteinMetric extends Metric {
+	//самый длинный образец, который помещается в слово
+	static final int MAX_PATTERN_LENGTH = 64;
+	//размер таблицы масок: степень двойки, больше MAX_PATTERN_LENGTH
+	private static final int SLOTS = 128;
+
+	//таблица масок однопоточного экземпляра или таблица каждого потока
+	private final Masks ownMasks;
+	private final ThreadLocal<Masks> threadMasks;
+
+	public BitParallelDamerauLevensteinMetric() {
+		ownMasks = new Masks();
+		threadMasks = null;
+	}
+
+	private BitParallelDamerauLevensteinMetric(ThreadLocal<Masks> threadMasks) {
+		ownMasks = null;
+		this.threadMasks = threadMasks;
+	}
+
+	/**
+	 * Метрика, которую можно вызывать из нескольких потоков одновременно: у каждого потока
+	 * своя таблица масок, и вызовы после первого в потоке ничего не выделяют.
+	 *
+	 * @return метрика
+	 */
+	public static BitParallelDamerauLevensteinMetric threadSafe() {
+		return new BitParallelDamerauLevensteinMetric(new ThreadLocal<Masks>() {
+			@Override
+			protected Masks initialValue() {
+				return new Masks();
+			}
+		});
+	}
+
+	/**
+	 * Маски символов образца: бит i установлен, если i-й символ образца равен ключу (открытая адресация).
+	 */
+	static final class Masks {
+		final char[] keys = new char[SLOTS];
+		final long[] masks = new long[SLOTS];
+		//занятые ячейки таблицы, чтобы очищать только их
+		final int[] used = new int[MAX_PATTERN_LENGTH];
+		int usedCount;
+		//для образцов длиннее 64 символов; создается при первом таком образце
+		DamerauLevensteinMetric fallback;
+
+		void build(CharSequence pattern) {
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				int slot = c & (SLOTS - 1);
+				while (masks[slot] != 0 && keys[slot] != c) slot = (slot + 1) & (SLOTS - 1);
+				if (masks[slot] == 0) {
+					keys[slot] = c;
+					used[usedCount++] = slot;
+				}
+				masks[slot] |= 1L << i;
+			}
+		}
+
+		long mask(char c) {
+			int slot = c & (SLOTS - 1);
+			while (masks[slot] != 0) {
+				if (keys[slot] == c) return masks[slot];
+				slot = (slot + 1) & (SLOTS - 1);
+			}
+			return 0;
+		}
+
+		void clear() {
+			for (int i = 0; i < usedCount; i++)
+				masks[used[i]] = 0;
+			usedCount = 0;
+		}
+
+		DamerauLevensteinMetric fallback() {
+			if (fallback == null) fallback = new DamerauLevensteinMetric();
+			return fallback;
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Для строк до 64 символов расстояние вычисляется за время O(max(first.length(), second.length())).
+	 */
+	@Override
+	public int getDistance(CharSequence first, CharSequence second, int max) {
+		int firstLength = first.length();
+		int secondLength = second.length();
+
+		//если одно из слов пустое - расстояние равно размеру второго слова
+		if (firstLength == 0) return secondLength;
+		else if (secondLength == 0) return firstLength;
+
+		//образец - более короткое слово
+		if (firstLength > secondLength) {
+			CharSequence tmp = first;
+			first = second;
+			second = tmp;
+			firstLength = secondLength;
+			secondLength = second.length();
+		}
+
+		if (max < 0) max = secondLength;
+		if (secondLength - firstLength > max) return max + 1;
+		Masks masks = masks();
+		if (firstLength > MAX_PATTERN_LENGTH) return masks.fallback().getDistance(first, second, max);
+
+		masks.build(first);
+		long top = 1L << (firstLength - 1);
+		long vp = firstLength == MAX_PATTERN_LENGTH ? -1L : (1L << firstLength) - 1;
+		long vn = 0;
+		long d0 = 0;
+		long previousMask = 0;
+		int distance = firstLength;
+		for (int j = 0; j < secondLength; j++) {
+			long mask = masks.mask(second.charAt(j));
+			//транспозиция: символ совпал с предыдущей строкой образца, а предыдущий символ текста - с этой
+			long transposition = (((~d0) & mask) << 1) & previousMask;
+			d0 = (((mask & vp) + vp) ^ vp) | mask | vn | transposition;
+			long hp = vn | ~(d0 | vp);
+			long hn = d0 & vp;
+			if ((hp & top) != 0) distance++;
+			else if ((hn & top) != 0) distance--;
+			//первая строка таблицы - j, поэтому снизу вдвигается единица
+			hp = (hp << 1) | 1;
+			hn = hn << 1;
+			vp = hn | ~(d0 | hp);
+			vn = d0 & hp;
+			previousMask = mask;
+
+			//каждый оставшийся символ текста уменьшает расстояние не больше чем на 1
+			if (distance - (secondLength - j - 1) > max) {
+				masks.clear();
+				return max + 1;
+			}
+		}
+		masks.clear();
+		return distance;
+	}
+
+	/**
+	 * {@inheritDoc} Для префиксов до 64 символов расстояние вычисляется за время O(min(string.length(), prefix.length() + max)).
+	 */
+	@Override
+	public int getPrefixDistance(CharSequence string, CharSequence prefix, int max) {
+		int prefixLength = prefix.length();
+		if (max < 0) max = prefixLength;
+		int stringLength = Math.min(string.length(), prefix.length() + max);
+
+		if (prefixLength == 0) return 0;
+		else if (stringLength == 0) return prefixLength;
+
+		if (stringLength < prefixLength - max) return max + 1;
+		Masks masks = masks();
+		if (prefixLength > MAX_PATTERN_LENGTH) return masks.fallback().getPrefixDistance(string, prefix, max);
+
+		masks.build(prefix);
+		long top = 1L << (prefixLength - 1);
+		long vp = prefixLength == MAX_PATTERN_LENGTH ? -1L : (1L << prefixLength) - 1;
+		long vn = 0;
+		long d0 = 0;
+		long previousMask = 0;
+		int current = prefixLength;
+		int distance = Integer.MAX_VALUE;
+		for (int i = 1; i <= stringLength; i++) {
+			long mask = masks.mask(string.charAt(i - 1));
+			long transposition = (((~d0) & mask) << 1) & previousMask;
+			d0 = (((mask & vp) + vp) ^ vp) | mask | vn | transposition;
+			long hp = vn | ~(d0 | vp);
+			long hn = d0 & vp;
+			if ((hp & top) != 0) current++;
+			else if ((hn & top) != 0) current--;
+			hp = (hp << 1) | 1;
+			hn = hn << 1;
+			vp = hn | ~(d0 | hp);
+			vn = d0 & hp;
+			previousMask = mask;
+
+			// Минимальное расстояние от заданного префикса ко всем префиксам строки, отличающимся от
+			// заданного не более чем на max
+			if (i >= prefixLength - max && current < distance) distance = current;
+		}
+		masks.clear();
+		return distance;
+	}
+
+	private Masks masks() {
+		return ownMasks != null ? ownMasks : threadMasks.get();
+	}
+}
@@ -0,0 +1,580 @@
+package packageTrie;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+/**
+ * Компактное Trie на плоских массивах примитивов.
+ *
+ * Узлы пронумерованы в порядке обхода в ширину, поэтому дети любого узла лежат подряд:
+ * дети узла i - это узлы с номерами от firstChild[i] до firstChild[i + 1] - 1, а их метки
+ * (символы на входящих ребрах) отсортированы по возрастанию. Ключ узла не хранится, а
+ * восстанавливается по цепочке родителей.
+ *
+ * Запросы складываются в таблицу (queries, ranks), отсортированную по ключу; узлы ссылаются
+ * на запросы номерами. Структура строится лениво - при первом обращении после insert/delete.
+ * @author roman khalkechev
+ */
+public class CompactTrie {
+	//количество подсказок в top каждого узла
+	private static final int TOP_SIZE = 10;
+
+	//запросы, добавленные или удаленные после последней сборки
+	private final Map<String, Integer> pending = new HashMap<String, Integer>();
+	private boolean dirty = false;
+
+	//таблица запросов, отсортированная по ключу, и их ранки
+	private String[] queries = new String[0];
+	private int[] ranks = new int[0];
+
+	//количество узлов (корень - узел 0)
+	private int nodeCount;
+	//символ на ребре, ведущем в узел
+	private char[] labels;
+	//номер родительского узла
+	private int[] parents;
+	//номер первого ребенка; длина массива nodeCount + 1
+	private int[] firstChild;
+	//номер запроса, заканчивающегося в узле, или -1
+	private int[] entries;
+	//top узла: topEntries[topOffset[i] .. topOffset[i] + topLength[i] - 1]
+	private int[] topOffset;
+	private int[] topLength;
+	private int[] topEntries;
+	//известные опечатки из второго поля словаря или null
+	private TypoIndex typos;
+
+	public CompactTrie() {
+		build();
+	}
+
+	/**
+	 * Добавление нового запроса в Trie. Если запрос уже есть, сохраняется наибольший ранк.
+	 *
+	 * @param rank
+	 *            популярность запроса
+	 * @param key
+	 *            запрос
+	 */
+	public void insert(int rank, String key) {
+		Integer old = null;
+		if (pending.containsKey(key)) { old = pending.get(key); }
+		else {
+			int entry = findEntry(key);
+			if (entry >= 0) { old = ranks[entry]; }
+		}
+		if (old == null || old < rank) {
+			pending.put(key, rank);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Удаление запроса из Trie.
+	 *
+	 * @param key
+	 *            запрос
+	 */
+	public void delete(String key) {
+		pending.put(key, null);
+		dirty = true;
+	}
+
+	/**
+	 * Поиск узла с заданным ключем в Trie.
+	 *
+	 * @param key
+	 *            запрос
+	 *
+	 * @return номер узла или -1, если такого нет
+	 */
+	public int searchNode(String key) {
+		ensureBuilt();
+		int node = 0;
+		for (int i = 0; i < key.length() && node >= 0; i++) {
+			node = traverse(node, key.charAt(i));
+		}
+		return node;
+	}
+	//поиск узла по ключу, набранному в неправильной раскладке, без промежуточной строки
+	private int searchNode(CharSequence key, KeyboardLayout layout) {
+		ensureBuilt();
+		int node = 0;
+		for (int i = 0; i < key.length() && node >= 0; i++) {
+			char c = layout.translate(key.charAt(i));
+			if (c == 0) { return -1; }
+			node = traverse(node, c);
+		}
+		return node;
+	}
+
+
+	/**
+	 * Поиск всех узлов в Trie с ключем с заданным префиксом.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return список ключей из узлов
+	 */
+	public List<String> search(String prefix) {
+		int node = searchNode(prefix);
+		if (node < 0) { return Collections.emptyList(); }
+		List<String> matches = new ArrayList<String>();
+		preorderTraverse(node, new StringBuilder(getKey(node)), matches);
+		return matches;
+	}
+
+	/**
+	 * Функция подсказок. Возвращает подсказки по префиксу: сначала ищет точное совпадение,
+	 * потом пробует сменить раскладку клавиатуры, потом известные опечатки из словаря,
+	 * потом ищет префиксы с опечаткой.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix) {
+		int node = searchNode(prefix);
+		for (KeyboardLayout layout : KeyboardLayout.registered()) {
+			if (node >= 0) { break; }
+			node = searchNode(prefix, layout);
+		}
+		if (node < 0) { node = searchTypo(prefix); }
+		if (node < 0) {
+			List<String> nearTop = near(prefix, prefix.length() <= 5 ? 1 : 2);
+			return nearTop == null ? Collections.<String>emptyList() : nearTop;
+		}
+		List<String> hintTop = new ArrayList<String>(topLength[node]);
+		addTop(node, TOP_SIZE, hintTop);
+		return hintTop;
+	}
+
+	/**
+	 * Возвращает наиболее вероятные подсказки для префикса, в котором вероятно сделана опечатка:
+	 * TOP_SIZE подсказок, как {@link #near(String, int, int)}.
+	 *
+	 * @param prefix
+	 *              заданный префикс
+	 * @param max
+	 *           максимальное расстояние
+	 *
+	 * @return список подсказок или null, если близких узлов нет
+	 */
+	public List<String> near(String prefix, int max) {
+		return near(prefix, max, TOP_SIZE);
+	}
+
+	/**
+	 * Возвращает наиболее вероятные подсказки для префикса, в котором вероятно сделана опечатка.
+	 * Близкие узлы и слияние их подсказок по оценке "ранк, умноженный на штраф за каждую опечатку" -
+	 * как в {@link Trie#near(String, int, int)}, со штрафом {@link Trie#DEFAULT_TYPO_PENALTY}.
+	 *
+	 * @param prefix
+	 *              заданный префикс
+	 * @param max
+	 *           максимальное расстояние
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок или null, если близких узлов нет или префикс длиннее
+	 *         {@link Trie#MAX_NEAR_PREFIX_LENGTH}
+	 */
+	public List<String> near(String prefix, int max, int k) {
+		if (prefix.length() > Trie.MAX_NEAR_PREFIX_LENGTH) { return null; }
+		ensureBuilt();
+		//обход в глубину со строками таблицы расстояний
+		List<NearCandidate> candidates = new ArrayList<NearCandidate>();
+		DamerauLevensteinRows rows = DamerauLevensteinRows.forThread(prefix, max);
+		if (rows.distance() <= max) { candidates.add(new NearCandidate(0, 0, rows.distance())); }
+		collectNear(0, rows, Math.min(rows.distance(), max + 1), candidates);
+		if (candidates.isEmpty()) { return null; }
+
+		//слияние top близких узлов; если top исчерпан, а в поддереве есть еще запросы - обход поддерева
+		PriorityQueue<NearCandidate> heap = new PriorityQueue<NearCandidate>(candidates.size(), new Comparator<NearCandidate>() {
+			public int compare(NearCandidate first, NearCandidate second) {
+				if (first.score != second.score) { return first.score > second.score ? -1 : 1; }
+				//запросы отсортированы, поэтому при равной оценке сравниваются номера
+				return first.entry < second.entry ? -1 : (first.entry == second.entry ? 0 : 1);
+			}
+		});
+		for (NearCandidate candidate : candidates) {
+			if (candidate.setEntry(bestEntry(candidate.node))) { heap.add(candidate); }
+		}
+
+		List<String> results = new ArrayList<String>(k);
+		int[] emitted = new int[k];
+		while (results.size() < k && !heap.isEmpty()) {
+			NearCandidate candidate = heap.poll();
+			if (candidate.node < 0 || candidate.index >= 0) {
+				//отдельный запрос или очередной элемент top
+				if (!contains(emitted, results.size(), candidate.entry)) {
+					emitted[results.size()] = candidate.entry;
+					results.add(queries[candidate.entry]);
+				}
+				if (candidate.node < 0) { continue; }
+				int length = topLength[candidate.node];
+				if (candidate.index + 1 < length) {
+					candidate.index++;
+					candidate.setEntry(topEntries[topOffset[candidate.node] + candidate.index]);
+					heap.add(candidate);
+					continue;
+				}
+				//top исчерпан; если он был полным, в поддереве могут быть еще запросы
+				if (length < TOP_SIZE) { continue; }
+			}
+			//раскрытие поддерева: собственный запрос узла и поддеревья детей
+			int node = candidate.node;
+			if (entries[node] >= 0) {
+				NearCandidate own = new NearCandidate(-1, -1, candidate.distance);
+				own.setEntry(entries[node]);
+				heap.add(own);
+			}
+			for (int child = firstChild[node]; child < firstChild[node + 1]; child++) {
+				NearCandidate subtree = new NearCandidate(child, -1, candidate.distance);
+				if (subtree.setEntry(bestEntry(child))) { heap.add(subtree); }
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Создание Trie по данным из файла.
+	 *
+	 * @param fileName
+	 *                имя файла
+	 *
+	 */
+	public void createTrie(String fileName) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8));
+		List<DictionaryRow> typoRows = new ArrayList<DictionaryRow>();
+		String s;
+		try {
+			while ((s = in.readLine()) != null) {
+				String[] stringArray = s.split("\t");
+				//если второе поле пустое, берем первое, иначе - исправленный запрос из второго
+				boolean isCorrected = !stringArray[1].trim().isEmpty();
+				String query = isCorrected ? stringArray[1] : stringArray[0];
+				int rank = Integer.parseInt(stringArray[2]);
+				insert(rank, query);
+				if (isCorrected) { typoRows.add(new DictionaryRow(stringArray[0], stringArray[1], rank)); }
+			}
+		} finally {
+			in.close();
+		}
+		if (!typoRows.isEmpty()) { typos = TypoIndex.build(typos, typoRows); }
+		ensureBuilt();
+	}
+
+	/**
+	 * Меняет раскладку клавиатуры для слова.
+	 *
+	 * @param prefix
+	 *              строка
+	 *
+	 * @return строка в другой раскладке
+	 */
+	public String keyboardChange(String prefix) {
+		return KeyboardLayout.EN_RU.translate(prefix);
+	}
+
+	/**
+	 * Восстанавливает ключ узла по цепочке родителей.
+	 *
+	 * @param node
+	 *            номер узла
+	 *
+	 * @return ключ
+	 */
+	public String getKey(int node) {
+		ensureBuilt();
+		StringBuilder key = new StringBuilder();
+		appendKey(node, key);
+		return key.toString();
+	}
+
+	/**
+	 * Возвращает количество узлов.
+	 *
+	 * @return количество узлов
+	 */
+	public int getNodeCount() {
+		ensureBuilt();
+		return nodeCount;
+	}
+
+	/**
+	 * Оценка занимаемой памяти в байтах: массивы узлов, top и таблица запросов
+	 * (заголовки объектов не считаются).
+	 *
+	 * @return размер в байтах
+	 */
+	public long sizeInBytes() {
+		ensureBuilt();
+		long size = 2L * labels.length + 4L * (parents.length + firstChild.length + entries.length
+				+ topOffset.length + topLength.length + topEntries.length + ranks.length);
+		for (String query : queries) {
+			size += 2L * query.length();
+		}
+		return size;
+	}
+
+	//бинарный поиск ребенка по метке ребра
+	private int traverse(int node, char c) {
+		int low = firstChild[node];
+		int high = firstChild[node + 1] - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char label = labels[middle];
+			if (label < c) { low = middle + 1; }
+			else if (label > c) { high = middle - 1; }
+			else { return middle; }
+		}
+		return -1;
+	}
+
+	private void appendKey(int node, StringBuilder key) {
+		int start = key.length();
+		for (; node > 0; node = parents[node]) {
+			key.append(labels[node]);
+		}
+		//символы собраны от узла к корню - развернем только добавленную часть
+		for (int i = start, j = key.length() - 1; i < j; i++, j--) {
+			char c = key.charAt(i);
+			key.setCharAt(i, key.charAt(j));
+			key.setCharAt(j, c);
+		}
+	}
+
+	private void preorderTraverse(int node, StringBuilder key, List<String> results) {
+		if (node != 0) { results.add(key.toString()); }
+		for (int child = firstChild[node]; child < firstChild[node + 1]; child++) {
+			key.append(labels[child]);
+			preorderTraverse(child, key, results);
+			key.setLength(key.length() - 1);
+		}
+	}
+
+	//обход в глубину для near, как Trie.collectNear
+	private void collectNear(int node, DamerauLevensteinRows rows, int ancestorDistance, List<NearCandidate> candidates) {
+		for (int child = firstChild[node]; child < firstChild[node + 1]; child++) {
+			rows.push(labels[child]);
+			int distance = rows.distance();
+			//потомок близкого узла нужен, только если он еще ближе к префиксу
+			if (distance < ancestorDistance) { candidates.add(new NearCandidate(child, 0, distance)); }
+			if (rows.canDescend()) {
+				collectNear(child, rows, Math.min(distance, ancestorDistance), candidates);
+			}
+			rows.pop();
+		}
+	}
+
+	//узел исправленного префикса для известной опечатки, как Trie.searchTypo, или -1
+	private int searchTypo(String prefix) {
+		if (typos == null) { return -1; }
+		int best = -1;
+		for (TypoIndex.Correction correction : typos.lookup(prefix)) {
+			//исправление, удаленное из Trie, не годится
+			int query = searchNode(correction.query);
+			if (query < 0 || entries[query] < 0) { continue; }
+			int node = searchNode(correction.prefix);
+			if (best < 0 || better(bestEntry(node), bestEntry(best))) { best = node; }
+		}
+		return best;
+	}
+
+	private int bestEntry(int node) {
+		return topLength[node] == 0 ? -1 : topEntries[topOffset[node]];
+	}
+
+	private static boolean contains(int[] entries, int size, int entry) {
+		for (int i = 0; i < size; i++) {
+			if (entries[i] == entry) { return true; }
+		}
+		return false;
+	}
+
+	/**
+	 * Элемент слияния в near: очередной элемент top узла (index >= 0),
+	 * поддерево узла целиком (index == -1) или отдельный запрос (node == -1).
+	 */
+	private final class NearCandidate {
+		final int node;
+		int index;
+		final int distance;
+		int entry;
+		double score;
+
+		NearCandidate(int node, int index, int distance) {
+			this.node = node;
+			this.index = index;
+			this.distance = distance;
+		}
+
+		boolean setEntry(int entry) {
+			if (entry < 0) { return false; }
+			this.entry = entry;
+			this.score = ranks[entry] * Math.pow(Trie.DEFAULT_TYPO_PENALTY, distance);
+			return true;
+		}
+	}
+
+	private void addTop(int node, int count, List<String> results) {
+		int end = topOffset[node] + Math.min(count, topLength[node]);
+		for (int i = topOffset[node]; i < end; i++) {
+			results.add(queries[topEntries[i]]);
+		}
+	}
+
+	//номер запроса в отсортированной таблице или -1
+	private int findEntry(String key) {
+		int entry = Arrays.binarySearch(queries, key);
+		return entry < 0 ? -1 : entry;
+	}
+
+	private void ensureBuilt() {
+		if (dirty) { build(); }
+	}
+
+	/**
+	 * Сборка массивов: слияние таблицы запросов с изменениями, обход в ширину
+	 * по отсортированным ключам и вычисление top снизу вверх.
+	 */
+	private void build() {
+		mergePending();
+		int n = queries.length;
+
+		int capacity = Math.max(16, n);
+		labels = new char[capacity];
+		parents = new int[capacity];
+		firstChild = new int[capacity + 1];
+		entries = new int[capacity];
+		//для каждого узла в очереди: диапазон ключей [from, to) с общим префиксом длины depth
+		int[] from = new int[capacity];
+		int[] to = new int[capacity];
+		int[] depth = new int[capacity];
+
+		nodeCount = 1;
+		from[0] = 0;
+		to[0] = n;
+		for (int node = 0; node < nodeCount; node++) {
+			int d = depth[node];
+			int i = from[node];
+			entries[node] = -1;
+			//ключ длины d, если есть, идет первым в диапазоне
+			if (i < to[node] && queries[i].length() == d) {
+				entries[node] = i++;
+			}
+			firstChild[node] = nodeCount;
+			while (i < to[node]) {
+				char c = queries[i].charAt(d);
+				int j = i + 1;
+				while (j < to[node] && queries[j].charAt(d) == c) { j++; }
+				if (nodeCount == labels.length) {
+					int newCapacity = labels.length * 2;
+					labels = Arrays.copyOf(labels, newCapacity);
+					parents = Arrays.copyOf(parents, newCapacity);
+					firstChild = Arrays.copyOf(firstChild, newCapacity + 1);
+					entries = Arrays.copyOf(entries, newCapacity);
+					from = Arrays.copyOf(from, newCapacity);
+					to = Arrays.copyOf(to, newCapacity);
+					depth = Arrays.copyOf(depth, newCapacity);
+				}
+				labels[nodeCount] = c;
+				parents[nodeCount] = node;
+				from[nodeCount] = i;
+				to[nodeCount] = j;
+				depth[nodeCount] = d + 1;
+				nodeCount++;
+				i = j;
+			}
+		}
+		firstChild[nodeCount] = nodeCount;
+		labels = Arrays.copyOf(labels, nodeCount);
+		parents = Arrays.copyOf(parents, nodeCount);
+		firstChild = Arrays.copyOf(firstChild, nodeCount + 1);
+		entries = Arrays.copyOf(entries, nodeCount);
+
+		buildTop();
+	}
+
+	//top узла - слияние его запроса и top детей; дети имеют большие номера, поэтому идем с конца
+	private void buildTop() {
+		topOffset = new int[nodeCount];
+		topLength = new int[nodeCount];
+		int[] top = new int[Math.max(16, nodeCount)];
+		int size = 0;
+		int[] cursor = new int[16];
+
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			int childFrom = firstChild[node];
+			int children = firstChild[node + 1] - childFrom;
+			if (cursor.length < children) { cursor = new int[children]; }
+			for (int c = 0; c < children; c++) { cursor[c] = 0; }
+			if (size + TOP_SIZE > top.length) { top = Arrays.copyOf(top, top.length * 2); }
+
+			topOffset[node] = size;
+			boolean ownTaken = entries[node] < 0;
+			while (size - topOffset[node] < TOP_SIZE) {
+				int bestEntry = ownTaken ? -1 : entries[node];
+				int bestChild = -1;
+				for (int c = 0; c < children; c++) {
+					int child = childFrom + c;
+					if (cursor[c] < topLength[child]) {
+						int entry = top[topOffset[child] + cursor[c]];
+						if (bestEntry < 0 || better(entry, bestEntry)) {
+							bestEntry = entry;
+							bestChild = c;
+						}
+					}
+				}
+				if (bestEntry < 0) { break; }
+				if (bestChild < 0) { ownTaken = true; }
+				else { cursor[bestChild]++; }
+				top[size++] = bestEntry;
+			}
+			topLength[node] = size - topOffset[node];
+		}
+		topEntries = Arrays.copyOf(top, size);
+	}
+
+	//порядок в top: по убыванию ранка, при равных ранках - по ключу
+	private boolean better(int first, int second) {
+		return ranks[first] > ranks[second] || (ranks[first] == ranks[second] && first < second);
+	}
+
+	private void mergePending() {
+		if (pending.isEmpty()) {
+			dirty = false;
+			return;
+		}
+		Map<String, Integer> merged = new HashMap<String, Integer>(pending);
+		for (int i = 0; i < queries.length; i++) {
+			if (!merged.containsKey(queries[i])) { merged.put(queries[i], ranks[i]); }
+		}
+		List<String> keys = new ArrayList<String>(merged.size());
+		for (Map.Entry<String, Integer> entry : merged.entrySet()) {
+			if (entry.getValue() != null) { keys.add(entry.getKey()); }
+		}
+		Collections.sort(keys);
+		queries = keys.toArray(new String[keys.size()]);
+		ranks = new int[queries.length];
+		for (int i = 0; i < queries.length; i++) {
+			ranks[i] = merged.get(queries[i]);
+		}
+		pending.clear();
+		dirty = false;
+	}
+}
@@ -0,0 +1,245 @@
+package packageTrie;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Trie для одновременного чтения из многих потоков с обновлением словаря на лету.
+ *
+ * Читатели берут текущую версию из атомарной ссылки и ищут подсказки без блокировок.
+ * Писатели копят изменения в {@link Batch}; при фиксации строится новая версия, которая
+ * копирует только узлы на путях измененных запросов, и публикуется одной заменой ссылки.
+ * Опубликованная версия больше никогда не меняется, поэтому читатель всегда видит
+ * согласованные узлы и top.
+ * @author roman khalkechev
+ */
+public class ConcurrentTrie {
+	private final AtomicReference<Trie> current;
+	//писатели фиксируют пакеты по очереди
+	private final Object writeLock = new Object();
+	//кеши подсказок, которые надо чистить при фиксации
+	private final List<HintCache> caches = new CopyOnWriteArrayList<HintCache>();
+
+	/**
+	 * @param trie
+	 *            начальная версия; после передачи ее нельзя менять напрямую
+	 */
+	public ConcurrentTrie(Trie trie) {
+		trie.ensureTopBuilt();
+		current = new AtomicReference<Trie>(trie);
+	}
+
+	/**
+	 * Функция подсказок по текущей версии.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix) {
+		return current.get().hint(prefix);
+	}
+
+	/**
+	 * Функция подсказок по текущей версии: k лучших подсказок.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix, int k) {
+		return current.get().hint(prefix, k);
+	}
+
+	/**
+	 * Функция подсказок по текущей версии: страница подсказок.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param offset
+	 *              номер первой подсказки
+	 * @param limit
+	 *             количество подсказок
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix, int offset, int limit) {
+		return current.get().hint(prefix, offset, limit);
+	}
+
+	/**
+	 * Функция подсказок для пачки префиксов: все префиксы ищутся в одной версии.
+	 *
+	 * @param prefixes
+	 *                префиксы
+	 *
+	 * @return списки подсказок в порядке префиксов
+	 */
+	public List<List<String>> hintAll(List<String> prefixes) {
+		return current.get().hintAll(prefixes);
+	}
+
+	/**
+	 * Сессия подсказок по мере набора над текущей версией. Изменения,
+	 * сделанные после создания сессии, в ней не видны.
+	 *
+	 * @return сессия
+	 */
+	public HintSession newSession() {
+		return current.get().newSession();
+	}
+
+	/**
+	 * Возвращает текущую версию. Ее можно читать сколько угодно долго,
+	 * но нельзя менять.
+	 *
+	 * @return текущая версия
+	 */
+	public Trie snapshot() {
+		return current.get();
+	}
+
+	//подключение кеша: после каждой фиксации из него удаляются затронутые префиксы
+	void addCache(HintCache cache) {
+		caches.add(cache);
+	}
+
+	/**
+	 * Создает пустой пакет изменений.
+	 *
+	 * @return пакет изменений
+	 */
+	public Batch newBatch() {
+		return new Batch();
+	}
+
+	/**
+	 * Пакет изменений словаря. Изменения применяются в порядке добавления
+	 * и становятся видны читателям все сразу после {@link #commit()}.
+	 */
+	public final class Batch {
+		private final List<Change> changes = new ArrayList<Change>();
+		//строки словаря с исправлением для индекса опечаток новой версии, в том числе удаленные
+		private final List<DictionaryRow> typoRows = new ArrayList<DictionaryRow>();
+
+		private Batch() {
+		}
+
+		/**
+		 * Добавление запроса.
+		 *
+		 * @param rank
+		 *            популярность запроса
+		 * @param key
+		 *            запрос
+		 *
+		 * @return этот же пакет
+		 */
+		public Batch insert(int rank, String key) {
+			changes.add(new Change(Operation.INSERT, key, rank));
+			return this;
+		}
+
+		/**
+		 * Удаление запроса.
+		 *
+		 * @param key
+		 *            запрос
+		 *
+		 * @return этот же пакет
+		 */
+		public Batch delete(String key) {
+			changes.add(new Change(Operation.DELETE, key, 0));
+			return this;
+		}
+
+		/**
+		 * Изменение ранка запроса.
+		 *
+		 * @param key
+		 *            запрос
+		 * @param rank
+		 *            новый ранк
+		 *
+		 * @return этот же пакет
+		 */
+		public Batch updateRank(String key, int rank) {
+			changes.add(new Change(Operation.UPDATE_RANK, key, rank));
+			return this;
+		}
+
+		/**
+		 * Добавление известных опечаток: пары из строк с исправлением попадают в индекс
+		 * опечаток новой версии, удаленные строки убирают свои пары; пара, исправленного запроса
+		 * которой в версии нет, не действует.
+		 *
+		 * @param rows
+		 *            строки словаря с исправлением
+		 *
+		 * @return этот же пакет
+		 */
+		Batch addTypos(List<DictionaryRow> rows) {
+			typoRows.addAll(rows);
+			return this;
+		}
+
+		/**
+		 * Построение новой версии и ее публикация. Пакет после фиксации пуст.
+		 *
+		 * @return опубликованная версия
+		 */
+		public Trie commit() {
+			synchronized (writeLock) {
+				Trie next = new Trie(current.get());
+				for (Change change : changes) {
+					switch (change.operation) {
+					case INSERT:
+						next.insert(change.rank, change.key);
+						break;
+					case DELETE:
+						next.delete(change.key);
+						break;
+					case UPDATE_RANK:
+						next.updateRank(change.key, change.rank);
+						break;
+					}
+				}
+				next.addTypos(typoRows);
+				//top пересчитываются только в скопированных узлах
+				next.ensureTopBuilt();
+				current.set(next);
+				if (next.getMetrics() != null) { next.getMetrics().setSource(next); }
+				if (!caches.isEmpty()) {
+					List<String> keys = new ArrayList<String>(changes.size());
+					for (Change change : changes) { keys.add(change.key); }
+					for (HintCache cache : caches) { cache.invalidate(keys); }
+				}
+				changes.clear();
+				typoRows.clear();
+				return next;
+			}
+		}
+	}
+
+	private enum Operation {
+		INSERT, DELETE, UPDATE_RANK
+	}
+
+	//одно изменение в пакете
+	private static final class Change {
+		final Operation operation;
+		final String key;
+		final int rank;
+
+		Change(Operation operation, String key, int rank) {
+			this.operation = operation;
+			this.key = key;
+			this.rank = rank;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package packageTrie;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нагрузочная проверка ConcurrentTrie: несколько читателей и писатель работают одновременно.
+ *
+ * Читатели проверяют, что в каждой выдаче нет повторов, все подсказки начинаются с префикса
+ * и идут по убыванию ранка в той версии, из которой взяты. Писатель каждым пакетом заменяет
+ * пару запросов "zz N a", "zz N b" на следующую; читатель должен видеть ровно одну пару целиком.
+ * @author roman khalkechev
+ */
+public class ConcurrentTrieTry {
+	private static final int READERS = 4;
+	private static final int BATCHES = 2000;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final Trie trie = new Trie();
+		final List<String> keys = new ArrayList<String>();
+		Random random = new Random(1);
+		if (args.length > 0) {
+			trie.createTrie(args[0], true);
+		}
+		else {
+			for (int i = 0; i < 50000; i++) {
+				StringBuilder key = new StringBuilder();
+				int length = 2 + random.nextInt(10);
+				for (int j = 0; j < length; j++) { key.append((char) ('а' + random.nextInt(12))); }
+				trie.insert(1 + random.nextInt(100000), key.toString());
+			}
+		}
+		for (String key : trie.search("")) {
+			if (trie.searchNode(key).getEntry() >= 0) { keys.add(key); }
+		}
+		trie.insert(Integer.MAX_VALUE, "zz 0 a");
+		trie.insert(Integer.MAX_VALUE, "zz 0 b");
+
+		final ConcurrentTrie concurrentTrie = new ConcurrentTrie(trie);
+		final AtomicBoolean isRunning = new AtomicBoolean(true);
+		final AtomicLong reads = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int r = 0; r < READERS; r++) {
+			final Random readerRandom = new Random(r + 2);
+			Thread reader = new Thread(new Runnable() {
+				public void run() {
+					while (isRunning.get()) {
+						String key = keys.get(readerRandom.nextInt(keys.size()));
+						String prefix = key.substring(0, 1 + readerRandom.nextInt(key.length()));
+						Trie version = concurrentTrie.snapshot();
+						if (!isConsistent(version, prefix, version.hint(prefix))) { errors.incrementAndGet(); }
+						if (!isSinglePair(concurrentTrie.hint("zz "))) { errors.incrementAndGet(); }
+						reads.addAndGet(2);
+					}
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 1; i <= BATCHES; i++) {
+			ConcurrentTrie.Batch batch = concurrentTrie.newBatch();
+			batch.delete("zz " + (i - 1) + " a").delete("zz " + (i - 1) + " b");
+			batch.insert(Integer.MAX_VALUE, "zz " + i + " a").insert(Integer.MAX_VALUE, "zz " + i + " b");
+			for (int j = 0; j < 10; j++) {
+				batch.updateRank(keys.get(random.nextInt(keys.size())), 1 + random.nextInt(100000));
+			}
+			batch.commit();
+		}
+		long writeNanos = System.nanoTime() - start;
+		isRunning.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+
+		System.out.println("Пакетов: " + BATCHES + ", в среднем " + (writeNanos / BATCHES / 1000) + " мкс на пакет");
+		System.out.println("Чтений: " + reads.get() + ", ошибок: " + errors.get());
+		if (errors.get() > 0) { System.exit(1); }
+	}
+
+	//без повторов, с префиксом, по убыванию ранка
+	private static boolean isConsistent(Trie version, String prefix, List<String> hints) {
+		Set<String> seen = new HashSet<String>();
+		int lastRank = Integer.MAX_VALUE;
+		for (String hint : hints) {
+			if (!seen.add(hint) || !hint.startsWith(prefix)) { return false; }
+			int rank = version.searchNode(hint).getRank();
+			if (rank > lastRank) { return false; }
+			lastRank = rank;
+		}
+		return true;
+	}
+
+	//ровно одна пара "zz N a", "zz N b"
+	private static boolean isSinglePair(List<String> hints) {
+		if (hints.size() != 2) { return false; }
+		String first = hints.get(0);
+		String second = hints.get(1);
+		return first.endsWith(" a") && second.endsWith(" b")
+				&& first.substring(0, first.length() - 2).equals(second.substring(0, second.length() - 2));
+	}
+}
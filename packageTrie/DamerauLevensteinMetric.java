@@ -2,6 +2,11 @@ package packageTrie;
 
 /**
  * Метрика Дамерау-Левенштейна.
+ *
+ * Строки таблицы расстояний лежат в рабочей области {@link Rows}. Экземпляр из конструктора
+ * держит одну область и годится только для одного потока; экземпляр из {@link #threadSafe()}
+ * берет область текущего потока, поэтому его можно делить между потоками без блокировок,
+ * а вызовы после первого в потоке ничего не выделяют.
  * @author roman khalkechev
  */
 public class DamerauLevensteinMetric extends Metric {
@@ -11,9 +16,51 @@ public class DamerauLevensteinMetric extends Metric {
 	}
 
 	public DamerauLevensteinMetric(int maxLength) {
-		currentRow = new int[maxLength + 1];
-		previousRow = new int[maxLength + 1];
-		transpositionRow = new int[maxLength + 1];
+		rows = new Rows(maxLength);
+		threadRows = null;
+	}
+
+	private DamerauLevensteinMetric(ThreadLocal<Rows> threadRows) {
+		rows = null;
+		this.threadRows = threadRows;
+	}
+
+	/**
+	 * Метрика, которую можно вызывать из нескольких потоков одновременно: у каждого потока
+	 * свои строки таблицы.
+	 *
+	 * @return метрика
+	 */
+	public static DamerauLevensteinMetric threadSafe() {
+		return new DamerauLevensteinMetric(new ThreadLocal<Rows>() {
+			@Override
+			protected Rows initialValue() {
+				return new Rows(DEFAULT_LENGTH);
+			}
+		});
+	}
+
+	/**
+	 * Три строки таблицы расстояний: текущая, предыдущая и строка для транспозиций.
+	 */
+	static final class Rows {
+		int[] currentRow;
+		int[] previousRow;
+		int[] transpositionRow;
+
+		Rows(int maxLength) {
+			currentRow = new int[maxLength + 1];
+			previousRow = new int[maxLength + 1];
+			transpositionRow = new int[maxLength + 1];
+		}
+
+		void ensureLength(int length) {
+			if (length >= currentRow.length) {
+				currentRow = new int[length + 1];
+				previousRow = new int[length + 1];
+				transpositionRow = new int[length + 1];
+			}
+		}
 	}
 
 	/**
@@ -43,11 +90,11 @@ public class DamerauLevensteinMetric extends Metric {
 		if (max < 0) max = secondLength;
 		if (secondLength - firstLength > max) return max + 1;
 
-		if (firstLength > currentRow.length) {
-			currentRow = new int[firstLength + 1];
-			previousRow = new int[firstLength + 1];
-			transpositionRow = new int[firstLength + 1];
-		}
+		Rows rows = rows();
+		rows.ensureLength(firstLength);
+		int[] currentRow = rows.currentRow;
+		int[] previousRow = rows.previousRow;
+		int[] transpositionRow = rows.transpositionRow;
 
 		for (int i = 0; i <= firstLength; i++)
 			previousRow[i] = i;
@@ -60,6 +107,9 @@ public class DamerauLevensteinMetric extends Metric {
 			// Вычисляем только диагональную полосу шириной 2 * (max + 1)
 			int from = Math.max(i - max - 1, 1);
 			int to = Math.min(i + max + 1, firstLength);
+			// Клетки сразу за полосой остались от прежних строк - считаем их заведомо больше max
+			if (from > 1) currentRow[from - 1] = max + 1;
+			if (to < firstLength) currentRow[to + 1] = max + 1;
 
 			char lastFirstCh = 0;
 			for (int j = from; j <= to; j++) {
@@ -104,11 +154,11 @@ public class DamerauLevensteinMetric extends Metric {
 
 		if (stringLength < prefixLength - max) return max + 1;
 
-		if (prefixLength > currentRow.length) {
-			currentRow = new int[prefixLength + 1];
-			previousRow = new int[prefixLength + 1];
-			transpositionRow = new int[prefixLength + 1];
-		}
+		Rows rows = rows();
+		rows.ensureLength(prefixLength);
+		int[] currentRow = rows.currentRow;
+		int[] previousRow = rows.previousRow;
+		int[] transpositionRow = rows.transpositionRow;
 
 		for (int i = 0; i <= prefixLength; i++)
 			previousRow[i] = i;
@@ -123,6 +173,9 @@ public class DamerauLevensteinMetric extends Metric {
 			// Вычисляем только диагональную полосу шириной 2 * (max + 1)
 			int from = Math.max(i - max - 1, 1);
 			int to = Math.min(i + max + 1, prefixLength);
+			// Клетки сразу за полосой остались от прежних строк - считаем их заведомо больше max
+			if (from > 1) currentRow[from - 1] = max + 1;
+			if (to < prefixLength) currentRow[to + 1] = max + 1;
 
 			char lastPrefixCh = 0;
 			for (int j = from; j <= to; j++) {
@@ -155,8 +208,12 @@ public class DamerauLevensteinMetric extends Metric {
 		return distance;
 	}
 
+	private Rows rows() {
+		return rows != null ? rows : threadRows.get();
+	}
+
 	private static final int DEFAULT_LENGTH = 255;
-	private int[] currentRow;
-	private int[] previousRow;
-	private int[] transpositionRow;
+	//строки однопоточного экземпляра или строки каждого потока
+	private final Rows rows;
+	private final ThreadLocal<Rows> threadRows;
 }
@@ -0,0 +1,171 @@
+package packageTrie;
+import java.util.Arrays;
+
+/**
+ * Строки таблицы расстояния Дамерау-Левенштейна между префиксом и путем в Trie.
+ *
+ * Строка с номером depth хранит расстояния от ключа пути длины depth до всех префиксов
+ * заданного префикса. При спуске по ребру с символом c считается одна новая строка по двум
+ * предыдущим (вторая нужна для транспозиций), при подъеме строка просто отбрасывается.
+ * Считается только диагональная полоса шириной 2 * max + 1, остальное заведомо больше max,
+ * поэтому шаг стоит O(max), а не O(prefix.length()). Хранится тоже только полоса: клетка j
+ * строки depth лежит в rows[depth][j - depth + max + 1], а по краям полосы - по клетке со
+ * значением "больше max". Так строка занимает O(max) памяти при любой длине префикса.
+ * @author roman khalkechev
+ */
+class DamerauLevensteinRows {
+	//префиксы длиннее получают свои строки, чтобы поток не держал большой буфер всю жизнь
+	private static final int MAX_CACHED_LENGTH = Trie.MAX_NEAR_PREFIX_LENGTH;
+	//строки каждого потока для near: после первого вызова в потоке поиск ничего не выделяет
+	private static final ThreadLocal<DamerauLevensteinRows> THREAD_ROWS = new ThreadLocal<DamerauLevensteinRows>() {
+		@Override
+		protected DamerauLevensteinRows initialValue() {
+			return new DamerauLevensteinRows("", 0);
+		}
+	};
+
+	private char[] prefix;
+	private int prefixLength;
+	private int max;
+	//значение "больше max" для клеток вне полосы
+	private int infinity;
+	//полосы строк; ширина не меньше 2 * max + 3
+	private int[][] rows;
+	private char[] path;
+	private int[] rowMin;
+	private int depth;
+	//счетчик посчитанных строк для метрик
+	private int pushCount;
+
+	DamerauLevensteinRows(String prefix, int max) {
+		this.prefix = new char[prefix.length()];
+		rows = new int[prefix.length() + max + 2][2 * max + 3];
+		path = new char[rows.length];
+		rowMin = new int[rows.length];
+		reset(prefix, max);
+	}
+
+	/**
+	 * Строки текущего потока, подготовленные для нового префикса. Пользоваться ими можно
+	 * только до следующего вызова в том же потоке. Для префикса длиннее
+	 * {@link Trie#MAX_NEAR_PREFIX_LENGTH} строки создаются заново и не сохраняются в потоке.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param max
+	 *           максимальное расстояние
+	 *
+	 * @return строки с одной нулевой строкой
+	 */
+	static DamerauLevensteinRows forThread(String prefix, int max) {
+		if (prefix.length() > MAX_CACHED_LENGTH) { return new DamerauLevensteinRows(prefix, max); }
+		DamerauLevensteinRows rows = THREAD_ROWS.get();
+		rows.reset(prefix, max);
+		return rows;
+	}
+
+	//начало нового поиска: массивы растут, только если префикс длиннее прежних
+	private void reset(String prefix, int max) {
+		int length = prefix.length();
+		if (length > this.prefix.length) { this.prefix = new char[length]; }
+		prefix.getChars(0, length, this.prefix, 0);
+		this.prefixLength = length;
+		this.max = max;
+		this.infinity = max + 1;
+		int capacity = length + max + 2;
+		if (rows.length < capacity || rows[0].length < 2 * max + 3) {
+			rows = new int[Math.max(capacity, rows.length)][Math.max(2 * max + 3, rows[0].length)];
+			path = new char[rows.length];
+			rowMin = new int[rows.length];
+		}
+		depth = 0;
+		pushCount = 0;
+		Arrays.fill(rows[0], 0, 2 * max + 3, infinity);
+		for (int j = 0; j <= Math.min(max, length); j++) {
+			rows[0][j + max + 1] = j;
+		}
+		rowMin[0] = 0;
+	}
+
+	/**
+	 * Спуск по ребру: строка для пути, удлиненного на символ c.
+	 *
+	 * @param c
+	 *         символ ребра
+	 *
+	 * @return минимум новой строки; если он больше max, дальше по этому пути спускаться бессмысленно
+	 */
+	int push(char c) {
+		int d = ++depth;
+		pushCount++;
+		if (d == rows.length) {
+			rows = Arrays.copyOf(rows, d * 2);
+			for (int i = d; i < rows.length; i++) { rows[i] = new int[rows[0].length]; }
+			path = Arrays.copyOf(path, d * 2);
+			rowMin = Arrays.copyOf(rowMin, d * 2);
+		}
+		path[d] = c;
+		int[] row = rows[d];
+		int[] previous = rows[d - 1];
+		int m = prefixLength;
+
+		//клетка j - в row[j + shift]; тогда клетки (d - 1, j) и (d - 1, j - 1) - в previous[j + shift + 1]
+		//и previous[j + shift], а клетка (d - 2, j - 2) - в rows[d - 2][j + shift]
+		int shift = max + 1 - d;
+		int from = Math.max(1, d - max);
+		int to = Math.min(m, d + max);
+		row[0] = infinity;
+		row[2 * max + 2] = infinity;
+		int min = infinity;
+		if (d <= max) {
+			row[shift] = d;
+			min = d;
+		}
+		for (int j = from; j <= to; j++) {
+			int k = j + shift;
+			int cost = prefix[j - 1] == c ? 0 : 1;
+			int value = Math.min(Math.min(row[k - 1] + 1, previous[k + 1] + 1), previous[k] + cost);
+			//транспозиция двух соседних символов
+			if (d > 1 && j > 1 && c == prefix[j - 2] && path[d - 1] == prefix[j - 1]) {
+				value = Math.min(value, rows[d - 2][k] + 1);
+			}
+			if (value > infinity) { value = infinity; }
+			row[k] = value;
+			if (value < min) { min = value; }
+		}
+		rowMin[d] = min;
+		return min;
+	}
+
+	/**
+	 * Подъем на одно ребро вверх.
+	 */
+	void pop() {
+		depth--;
+	}
+
+	//сколько строк посчитано с создания, то есть сколько узлов обошел поиск
+	int getPushCount() {
+		return pushCount;
+	}
+
+	/**
+	 * Расстояние между ключом текущего пути и всем префиксом.
+	 *
+	 * @return расстояние от 0 до max или max + 1, если оно больше max
+	 */
+	int distance() {
+		//клетка вне полосы не считалась
+		if (Math.abs(depth - prefixLength) > max) { return infinity; }
+		return rows[depth][prefixLength - depth + max + 1];
+	}
+
+	/**
+	 * Имеет ли смысл спускаться ниже: минимум строки не больше max и путь не длиннее prefix + max.
+	 *
+	 * @return true, если можно спускаться
+	 */
+	boolean canDescend() {
+		return rowMin[depth] <= max && depth < prefixLength + max;
+	}
+}
@@ -0,0 +1,333 @@
+package packageTrie;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Индекс удалений для поиска с опечатками (симметричное удаление, как в SymSpell).
+ *
+ * Для каждого ключа узла Trie длиной не больше depth заранее строятся все строки, получаемые
+ * удалением не более maxDeletes символов, и каждая такая строка отображается в номера ключей,
+ * из которых она получена. Если расстояние между двумя строками не больше n, то из обеих можно
+ * получить общую строку, удалив не больше n символов из каждой: замена и транспозиция стоят
+ * по одному удалению с каждой стороны, вставка - одно удаление с одной. Поэтому для префикса
+ * достаточно перебрать его собственные удаления, найти их в таблице и проверить найденные ключи
+ * метрикой. Номера ключей разложены по количеству удаленных символов, чтобы при поиске
+ * с max меньше maxDeletes не перебирать ключи, из которых удалено больше max.
+ * Индекс хранит ключи, а не сами узлы: узел находится в текущей версии Trie по ключу,
+ * так что удаленные запросы просто отсеиваются.
+ * @author roman khalkechev
+ */
+class DeletionIndex {
+	//общая для всех потоков: у каждого потока своя таблица масок
+	private static final Metric METRIC = BitParallelDamerauLevensteinMetric.threadSafe();
+
+	private final int maxDeletes;
+	private final int depth;
+	//ключи проиндексированных узлов по номерам
+	private String[] keys = new String[16];
+	private int keyCount;
+	//строка с удалениями -> по количеству удаленных символов {количество, номера ключей...}
+	private final Map<String, int[][]> variants = new HashMap<String, int[][]>();
+
+	/**
+	 * @param maxDeletes
+	 *                  наибольшее количество удаленных символов
+	 * @param depth
+	 *             наибольшая длина индексируемого ключа
+	 */
+	DeletionIndex(int maxDeletes, int depth) {
+		if (maxDeletes < 0 || depth < 0) { throw new IllegalArgumentException("maxDeletes и depth должны быть неотрицательны"); }
+		this.maxDeletes = maxDeletes;
+		this.depth = depth;
+	}
+
+	/**
+	 * Построение индекса по всем узлам Trie не глубже depth.
+	 *
+	 * @param trie
+	 *            Trie
+	 *
+	 * @return индекс
+	 */
+	static DeletionIndex build(Trie trie, int maxDeletes, int depth) {
+		DeletionIndex index = new DeletionIndex(maxDeletes, depth);
+		index.addSubtree(trie.getRoot(), new StringBuilder());
+		return index;
+	}
+
+	/**
+	 * Добавление в индекс всех префиксов ключа, которых в нем еще нет.
+	 * Вызывается после вставки запроса в Trie.
+	 *
+	 * @param key
+	 *            запрос
+	 */
+	void add(String key) {
+		for (int length = Math.min(depth, key.length()); length >= 0; length--) {
+			String prefix = key.substring(0, length);
+			//префиксы добавляются вместе, поэтому если есть этот - есть и все более короткие
+			if (isIndexed(prefix)) { return; }
+			addKey(prefix);
+		}
+	}
+
+	/**
+	 * Можно ли искать префикс через индекс: все ключи на расстоянии до max от него
+	 * не длиннее depth, и max удалений проиндексировано.
+	 *
+	 * @return true, если индекс дает полный набор близких ключей
+	 */
+	boolean covers(int prefixLength, int max) {
+		return max <= maxDeletes && prefixLength + max <= depth;
+	}
+
+	/**
+	 * Ключи узлов, отстоящие от префикса не более чем на max.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param max
+	 *           максимальное расстояние, не больше maxDeletes
+	 * @param metrics
+	 *               метрики для количества посчитанных расстояний или null
+	 *
+	 * @return найденные ключи с расстояниями, без ключей, покрытых более близким предком
+	 */
+	List<Match> lookup(final String prefix, final int max, TrieMetrics metrics) {
+		final IdSet checked = new IdSet();
+		final List<Match> matches = new ArrayList<Match>();
+		//строки с удалениями собираются в одном буфере; одна и та же строка может получиться
+		//разными удалениями, лишняя проба таблицы дешевле множества строк
+		forEachVariant(prefix.toCharArray(), prefix.length(), 0, max, new VariantVisitor() {
+			void visit(char[] buffer, int length) {
+				int[][] byDeletes = variants.get(new String(buffer, 0, length));
+				if (byDeletes == null) { return; }
+				//из ключа тоже удалено не больше max символов
+				for (int deletes = 0; deletes <= max; deletes++) {
+					int[] ids = byDeletes[deletes];
+					if (ids == null) { continue; }
+					for (int i = 1; i <= ids[0]; i++) {
+						if (!checked.add(ids[i])) { continue; }
+						String key = keys[ids[i]];
+						int distance = METRIC.getDistance(prefix, key, max);
+						if (distance <= max) { matches.add(new Match(key, distance)); }
+					}
+				}
+			}
+		});
+		if (metrics != null) { metrics.recordDistanceCalls(checked.size()); }
+		return dropCovered(matches);
+	}
+
+	/**
+	 * Отбрасывает ключи, у которых среди найденных есть префикс не дальше от искомого:
+	 * подсказки такого узла уже есть в поддереве предка и с не худшей оценкой.
+	 * После сортировки предок идет раньше потомков, поэтому хватает стека текущей цепочки.
+	 */
+	private static List<Match> dropCovered(List<Match> matches) {
+		Collections.sort(matches, new Comparator<Match>() {
+			public int compare(Match first, Match second) {
+				return first.key.compareTo(second.key);
+			}
+		});
+		List<Match> result = new ArrayList<Match>(matches.size());
+		List<Match> chain = new ArrayList<Match>();
+		for (Match match : matches) {
+			while (!chain.isEmpty() && !match.key.startsWith(chain.get(chain.size() - 1).key)) {
+				chain.remove(chain.size() - 1);
+			}
+			if (!chain.isEmpty() && chain.get(chain.size() - 1).distance <= match.distance) { continue; }
+			chain.add(match);
+			result.add(match);
+		}
+		return result;
+	}
+
+	int getMaxDeletes() {
+		return maxDeletes;
+	}
+
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Количество проиндексированных ключей.
+	 *
+	 * @return количество ключей
+	 */
+	int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * Количество различных строк с удалениями.
+	 *
+	 * @return размер таблицы
+	 */
+	int getVariantCount() {
+		return variants.size();
+	}
+
+	/**
+	 * Оценка занимаемой памяти: строки таблицы и ключей, массивы номеров и записи HashMap.
+	 *
+	 * @return размер в байтах
+	 */
+	long sizeInBytes() {
+		long size = 16L + 4L * keys.length;
+		for (int i = 0; i < keyCount; i++) { size += stringBytes(keys[i]); }
+		for (Map.Entry<String, int[][]> variant : variants.entrySet()) {
+			//запись HashMap, ячейка таблицы, строка и массивы номеров
+			size += 32 + 4 + stringBytes(variant.getKey()) + 16 + 4L * variant.getValue().length;
+			for (int[] ids : variant.getValue()) {
+				if (ids != null) { size += 16 + 4L * ids.length; }
+			}
+		}
+		return size;
+	}
+
+	private static long stringBytes(String s) {
+		return 24 + 16 + 2L * s.length();
+	}
+
+	//обход Trie в глубину до depth
+	private void addSubtree(TrieNode node, StringBuilder key) {
+		addKey(key.toString());
+		if (key.length() == depth) { return; }
+		Iterator<Map.Entry<Character, TrieNode>> edges = node.getEdges();
+		if (edges == null) { return; }
+		while (edges.hasNext()) {
+			Map.Entry<Character, TrieNode> edge = edges.next();
+			key.append(edge.getKey().charValue());
+			addSubtree(edge.getValue(), key);
+			key.setLength(key.length() - 1);
+		}
+	}
+
+	private boolean isIndexed(String key) {
+		int[][] byDeletes = variants.get(key);
+		if (byDeletes == null || byDeletes[0] == null) { return false; }
+		int[] ids = byDeletes[0];
+		for (int i = 1; i <= ids[0]; i++) {
+			if (keys[ids[i]].equals(key)) { return true; }
+		}
+		return false;
+	}
+
+	private void addKey(String key) {
+		if (keyCount == keys.length) { keys = Arrays.copyOf(keys, keyCount * 2); }
+		int id = keyCount++;
+		keys[id] = key;
+		final Set<String> keyVariants = new HashSet<String>();
+		forEachVariant(key.toCharArray(), key.length(), 0, maxDeletes, new VariantVisitor() {
+			void visit(char[] buffer, int length) {
+				keyVariants.add(new String(buffer, 0, length));
+			}
+		});
+		for (String variant : keyVariants) {
+			int[][] byDeletes = variants.get(variant);
+			if (byDeletes == null) {
+				byDeletes = new int[maxDeletes + 1][];
+				variants.put(variant, byDeletes);
+			}
+			int deletes = key.length() - variant.length();
+			int[] ids = byDeletes[deletes];
+			if (ids == null) {
+				ids = new int[2];
+			}
+			else if (ids[0] + 1 == ids.length) {
+				ids = Arrays.copyOf(ids, ids.length * 2);
+			}
+			ids[++ids[0]] = id;
+			byDeletes[deletes] = ids;
+		}
+	}
+
+	/**
+	 * Получатель строк с удалениями: строка - первые length символов буфера,
+	 * буфер меняется после возврата.
+	 */
+	private abstract static class VariantVisitor {
+		abstract void visit(char[] buffer, int length);
+	}
+
+	//все строки, получаемые из buffer[0, length) удалением не более deletes символов с позиции from
+	//и дальше; удаление - сдвиг хвоста в том же буфере, после возврата буфер восстанавливается
+	private static void forEachVariant(char[] buffer, int length, int from, int deletes, VariantVisitor visitor) {
+		visitor.visit(buffer, length);
+		if (deletes == 0) { return; }
+		for (int i = from; i < length; i++) {
+			char c = buffer[i];
+			System.arraycopy(buffer, i + 1, buffer, i, length - i - 1);
+			forEachVariant(buffer, length - 1, i, deletes - 1, visitor);
+			System.arraycopy(buffer, i, buffer, i + 1, length - i - 1);
+			buffer[i] = c;
+		}
+	}
+
+	/**
+	 * Множество номеров ключей с открытой адресацией: проверенные за один поиск ключи
+	 * без упаковки номеров в Integer.
+	 */
+	private static final class IdSet {
+		//номер + 1, 0 - свободная ячейка
+		private int[] table = new int[16];
+		private int size;
+
+		boolean add(int id) {
+			if (2 * (size + 1) > table.length) { grow(); }
+			int mask = table.length - 1;
+			for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+				if (table[i] == id + 1) { return false; }
+				if (table[i] == 0) {
+					table[i] = id + 1;
+					size++;
+					return true;
+				}
+			}
+		}
+
+		int size() {
+			return size;
+		}
+
+		private void grow() {
+			int[] old = table;
+			table = new int[old.length * 2];
+			int mask = table.length - 1;
+			for (int value : old) {
+				if (value == 0) { continue; }
+				int i = hash(value - 1) & mask;
+				while (table[i] != 0) { i = (i + 1) & mask; }
+				table[i] = value;
+			}
+		}
+
+		private static int hash(int id) {
+			int h = id * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	/**
+	 * Найденный ключ узла и его расстояние до префикса.
+	 */
+	static final class Match {
+		final String key;
+		final int distance;
+
+		Match(String key, int distance) {
+			this.key = key;
+			this.distance = distance;
+		}
+	}
+}
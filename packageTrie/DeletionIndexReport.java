@@ -0,0 +1,146 @@
+package packageTrie;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Сравнение поиска с опечатками обходом в глубину и через индекс удалений на одном словаре:
+ * память индекса, время построения и задержка near на префиксах с одной-двумя опечатками.
+ * @author roman khalkechev
+ */
+public class DeletionIndexReport {
+	private static final int PREFIXES = 20000;
+	//префиксы длиннее собираются в одну строку отчета
+	private static final int MAX_LENGTH = 7;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Использование: DeletionIndexReport <файл словаря> [наибольшая длина префикса в индексе]");
+			return;
+		}
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+		Trie trie = new Trie();
+		trie.createTrie(args[0], true);
+
+		//префиксы запросов длины 2..5 с опечатками: замена, удаление, вставка или перестановка
+		List<String> keys = trie.search("");
+		Random random = new Random(1);
+		String[] prefixes = new String[PREFIXES];
+		for (int i = 0; i < PREFIXES; i++) {
+			String key = keys.get(random.nextInt(keys.size()));
+			StringBuilder prefix = new StringBuilder(key.substring(0, Math.min(key.length(), 2 + random.nextInt(4))));
+			int typos = prefix.length() <= 5 ? 1 : 2;
+			for (int t = 0; t < typos; t++) { addTypo(prefix, random); }
+			prefixes[i] = prefix.toString();
+		}
+
+		//прогрев и замер без индекса
+		run(trie, prefixes);
+		long[] dfsNanos = run(trie, prefixes);
+		List<List<String>> expected = collect(trie, prefixes);
+
+		long before = usedMemory();
+		long start = System.nanoTime();
+		trie.buildDeletionIndex(2, depth);
+		long buildNanos = System.nanoTime() - start;
+		long indexBytes = usedMemory() - before;
+		DeletionIndex index = trie.getDeletionIndex();
+
+		run(trie, prefixes);
+		long[] indexNanos = run(trie, prefixes);
+		List<List<String>> actual = collect(trie, prefixes);
+		int mismatches = 0;
+		for (int i = 0; i < PREFIXES; i++) {
+			if (!expected.get(i).equals(actual.get(i))) { mismatches++; }
+		}
+
+		System.out.println("Узлов до глубины " + depth + ": " + index.getKeyCount() + ", строк с удалениями: " + index.getVariantCount());
+		System.out.println("Память индекса: " + megabytes(indexBytes) + " МБ по куче, " + megabytes(index.sizeInBytes()) + " МБ по оценке");
+		System.out.println("Построение индекса: " + (buildNanos / 1000000) + " мс");
+		int[] counts = new int[MAX_LENGTH + 1];
+		for (String prefix : prefixes) { counts[Math.min(prefix.length(), MAX_LENGTH)]++; }
+		System.out.println("Длина префикса\tпрефиксов\tобход, мкс\tиндекс, мкс");
+		for (int length = 1; length <= MAX_LENGTH; length++) {
+			if (counts[length] == 0) { continue; }
+			System.out.println((length == MAX_LENGTH ? length + "+" : "" + length) + "\t" + counts[length] + "\t"
+					+ micros(dfsNanos[length], counts[length]) + "\t" + micros(indexNanos[length], counts[length]));
+		}
+		System.out.println("Всего\t" + PREFIXES + "\t" + micros(sum(dfsNanos), PREFIXES) + "\t" + micros(sum(indexNanos), PREFIXES));
+		System.out.println("Расхождений в подсказках: " + mismatches);
+	}
+
+	private static void addTypo(StringBuilder prefix, Random random) {
+		int position = random.nextInt(prefix.length() + 1);
+		char c = prefix.length() == 0 ? 'а' : prefix.charAt(random.nextInt(prefix.length()));
+		switch (random.nextInt(4)) {
+		case 0:
+			if (position < prefix.length()) { prefix.setCharAt(position, (char) (c + 1)); }
+			break;
+		case 1:
+			if (position < prefix.length() && prefix.length() > 1) { prefix.deleteCharAt(position); }
+			break;
+		case 2:
+			prefix.insert(position, c);
+			break;
+		default:
+			if (position + 1 < prefix.length()) {
+				char first = prefix.charAt(position);
+				prefix.setCharAt(position, prefix.charAt(position + 1));
+				prefix.setCharAt(position + 1, first);
+			}
+		}
+	}
+
+	//время near, просуммированное по длинам префиксов
+	private static long[] run(Trie trie, String[] prefixes) {
+		long[] nanos = new long[MAX_LENGTH + 1];
+		int found = 0;
+		for (String prefix : prefixes) {
+			long start = System.nanoTime();
+			List<String> hints = trie.near(prefix, prefix.length() <= 5 ? 1 : 2, Trie.DEFAULT_HINT_COUNT);
+			nanos[Math.min(prefix.length(), MAX_LENGTH)] += System.nanoTime() - start;
+			if (hints != null) { found += hints.size(); }
+		}
+		//не даем JIT выбросить цикл
+		if (found < 0) { System.out.println(found); }
+		return nanos;
+	}
+
+	private static long sum(long[] values) {
+		long sum = 0;
+		for (long value : values) { sum += value; }
+		return sum;
+	}
+
+	private static String micros(long nanos, int count) {
+		return String.format("%.1f", nanos / 1000.0 / count);
+	}
+
+	private static List<List<String>> collect(Trie trie, String[] prefixes) {
+		List<List<String>> results = new ArrayList<List<String>>(prefixes.length);
+		for (String prefix : prefixes) {
+			List<String> hints = trie.near(prefix, prefix.length() <= 5 ? 1 : 2, Trie.DEFAULT_HINT_COUNT);
+			results.add(hints == null ? new ArrayList<String>() : hints);
+		}
+		return results;
+	}
+
+	//занятая память кучи после нескольких сборок мусора
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static String megabytes(long bytes) {
+		return String.format("%.2f", bytes / (1024.0 * 1024.0));
+	}
+}
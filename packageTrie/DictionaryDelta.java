@@ -0,0 +1,169 @@
+package packageTrie;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Изменения словаря: строки в формате словаря, которые поменялись с прошлой загрузки.
+ *
+ * Строка с частотой задает новый ранк запроса (исправленного, если второе поле не пустое):
+ * запроса не было - он добавляется, был - его ранк заменяется, в том числе на меньший.
+ * Строка с {@link DictionaryRow#DELETED_MARK} вместо частоты удаляет запрос. Если запрос
+ * встречается в файле несколько раз, действует последняя строка. Ранк в строке изменений -
+ * итоговый ранк запроса, то есть наибольший по всем строкам полного словаря с этим запросом.
+ * Строки с исправлением пополняют и индекс известных опечаток Trie. Метка удаления в строке
+ * с исправлением удаляет только пару (опечатка, исправление), а исправленный запрос остается:
+ * чтобы удалить и его, нужна отдельная строка без исправления.
+ *
+ * Применение к Trie в памяти стоит O(строк изменений * (глубина + topSize)): top исправляются
+ * только на путях измененных запросов. Снимок - плоские массивы без места для вставок, поэтому
+ * он переписывается одним последовательным проходом, но без разбора словаря и без Trie в куче.
+ * Результат тот же, что у полной загрузки нового словаря: те же запросы с теми же ранками
+ * и те же подсказки.
+ *
+ * Аргументы main: файл снимка, файл изменений [файл нового снимка].
+ * @author roman khalkechev
+ */
+public class DictionaryDelta {
+	private final List<DictionaryRow> rows;
+
+	private DictionaryDelta(List<DictionaryRow> rows) {
+		this.rows = rows;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Использование: DictionaryDelta <файл снимка> <файл изменений> [файл нового снимка]");
+			return;
+		}
+		long start = System.nanoTime();
+		DictionaryDelta delta = read(args[1]);
+		Path target = Paths.get(args.length > 2 ? args[2] : args[0]);
+		delta.applyTo(Paths.get(args[0]), target);
+		System.out.println(String.format("Изменений %d, снимок %s: %.1f с", delta.size(), target, (System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * Чтение файла изменений.
+	 *
+	 * @param fileName
+	 *                имя файла
+	 *
+	 * @return изменения
+	 */
+	public static DictionaryDelta read(String fileName) throws IOException {
+		List<DictionaryRow> rows = new ArrayList<DictionaryRow>();
+		BufferedReader in = DictionaryRow.openReader(fileName);
+		try {
+			String s;
+			int lines = 0;
+			while ((s = in.readLine()) != null) {
+				lines++;
+				DictionaryRow row;
+				try {
+					row = DictionaryRow.parseDelta(s);
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Строка " + lines + ": " + e.getMessage(), e);
+				}
+				if (row != null) { rows.add(row); }
+			}
+		} finally {
+			in.close();
+		}
+		return new DictionaryDelta(rows);
+	}
+
+	/**
+	 * Возвращает количество строк изменений.
+	 *
+	 * @return количество строк
+	 */
+	public int size() {
+		return rows.size();
+	}
+
+	/**
+	 * Применение изменений к Trie на месте.
+	 *
+	 * @param trie
+	 *            Trie, которым не пользуются другие потоки
+	 */
+	public void applyTo(Trie trie) {
+		for (DictionaryRow row : rows) {
+			if (isTypoDeletion(row)) { continue; }
+			if (row.isDeleted()) { trie.delete(row.getQuery()); }
+			else if (!trie.updateRank(row.getQuery(), row.getRank())) { trie.insert(row.getRank(), row.getQuery()); }
+		}
+		trie.addTypos(typoRows());
+	}
+
+	/**
+	 * Применение изменений одним пакетом: новая версия копирует только узлы на путях измененных
+	 * запросов и публикуется целиком, читатели видят либо старый словарь, либо новый.
+	 *
+	 * @param trie
+	 *            Trie для одновременного чтения
+	 *
+	 * @return опубликованная версия
+	 */
+	public Trie applyTo(ConcurrentTrie trie) {
+		ConcurrentTrie.Batch batch = trie.newBatch();
+		for (DictionaryRow row : rows) {
+			if (isTypoDeletion(row)) { continue; }
+			if (row.isDeleted()) { batch.delete(row.getQuery()); }
+			//insert оставляет наибольший ранк, updateRank затем ставит ровно заданный
+			else { batch.insert(row.getRank(), row.getQuery()).updateRank(row.getQuery(), row.getRank()); }
+		}
+		return batch.addTypos(typoRows()).commit();
+	}
+
+	/**
+	 * Применение изменений к снимку: новый снимок пишется потоком из старого, см.
+	 * {@link SnapshotBuilder#update(Path, DictionaryDelta, Path)}.
+	 *
+	 * @param snapshot
+	 *                файл снимка
+	 * @param target
+	 *              файл нового снимка (может совпадать со старым)
+	 */
+	public void applyTo(Path snapshot, Path target) throws IOException {
+		new SnapshotBuilder().update(snapshot, this, target);
+	}
+
+	/**
+	 * Строки с исправлением: добавленные и удаленные пары индекса опечаток.
+	 *
+	 * @return строки с исправлением
+	 */
+	List<DictionaryRow> typoRows() {
+		List<DictionaryRow> typoRows = new ArrayList<DictionaryRow>();
+		for (DictionaryRow row : rows) {
+			if (row.getCorrection() != null) { typoRows.add(row); }
+		}
+		return typoRows;
+	}
+
+	/**
+	 * Итог изменений по запросам в порядке возрастания: новый ранк или null для удаленного запроса.
+	 *
+	 * @return изменения по запросам
+	 */
+	SortedMap<String, Integer> byQuery() {
+		TreeMap<String, Integer> changes = new TreeMap<String, Integer>();
+		for (DictionaryRow row : rows) {
+			if (!isTypoDeletion(row)) { changes.put(row.getQuery(), row.isDeleted() ? null : Integer.valueOf(row.getRank())); }
+		}
+		return Collections.unmodifiableSortedMap(changes);
+	}
+
+	//удаленная строка с исправлением удаляет только пару индекса опечаток, запрос не трогает
+	private static boolean isTypoDeletion(DictionaryRow row) {
+		return row.isDeleted() && row.getCorrection() != null;
+	}
+}
@@ -0,0 +1,167 @@
+package packageTrie;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Генератор синтетического словаря в формате "запрос, исправление, частота" через табуляцию.
+ *
+ * Запросы из одного-трех слов, кириллических или латинских; частоты распределены по Ципфу:
+ * i-й по популярности запрос встречается примерно в i раз реже первого. Часть строк - запросы
+ * с опечаткой и исправлением во втором поле. Для одного и того же seed словарь всегда одинаковый.
+ * @author roman khalkechev
+ */
+public class DictionaryGenerator {
+	//буквы, которые есть на русской раскладке
+	private static final String CYRILLIC = "йцукенгшщзхъфывапролджэячсмитьбю";
+	private static final String LATIN = "abcdefghijklmnopqrstuvwxyz";
+	//частота самого популярного запроса
+	private static final double TOP_FREQUENCY = 1000000;
+
+	private final Random random;
+	//доля латинских запросов и строк с опечатками
+	private final double latinShare;
+	private final double typoShare;
+
+	public DictionaryGenerator(long seed) {
+		this(seed, 0.3, 0.1);
+	}
+
+	public DictionaryGenerator(long seed, double latinShare, double typoShare) {
+		this.random = new Random(seed);
+		this.latinShare = latinShare;
+		this.typoShare = typoShare;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Использование: DictionaryGenerator <файл> <количество строк> [seed]");
+			return;
+		}
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+		new DictionaryGenerator(seed).write(Paths.get(args[0]), Integer.parseInt(args[1]));
+	}
+
+	/**
+	 * Запись словаря в файл.
+	 *
+	 * @param path
+	 *            файл
+	 * @param rows
+	 *            количество строк
+	 */
+	public void write(Path path, int rows) throws IOException {
+		BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+		try {
+			for (String row : rows(rows)) {
+				out.write(row);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Строки словаря.
+	 *
+	 * @param rows
+	 *            количество строк
+	 *
+	 * @return строки без перевода строки
+	 */
+	public List<String> rows(int rows) {
+		List<String> result = new ArrayList<String>(rows);
+		List<String> correct = new ArrayList<String>();
+		Set<String> seen = new HashSet<String>();
+		for (int i = 0; i < rows; i++) {
+			//частота по Ципфу от места строки: чем позже строка, тем реже запрос
+			long frequency = Math.max(1, Math.round(TOP_FREQUENCY / (i + 1)));
+			if (!correct.isEmpty() && random.nextDouble() < typoShare) {
+				String query = correct.get(random.nextInt(correct.size()));
+				result.add(typo(query) + "\t" + query + "\t" + frequency);
+				continue;
+			}
+			String query = query();
+			while (!seen.add(query)) { query = query(); }
+			correct.add(query);
+			result.add(query + "\t\t" + frequency);
+		}
+		return result;
+	}
+
+	/**
+	 * Случайный запрос из одного-трех слов.
+	 *
+	 * @return запрос
+	 */
+	public String query() {
+		String alphabet = random.nextDouble() < latinShare ? LATIN : CYRILLIC;
+		StringBuilder query = new StringBuilder();
+		int words = 1 + random.nextInt(3);
+		for (int w = 0; w < words; w++) {
+			if (w > 0) { query.append(' '); }
+			int length = 2 + random.nextInt(7);
+			for (int i = 0; i < length; i++) {
+				//первые буквы алфавита чаще, чтобы у запросов были общие префиксы
+				int letter = (int) (alphabet.length() * Math.pow(random.nextDouble(), 2));
+				query.append(alphabet.charAt(letter));
+			}
+		}
+		return query.toString();
+	}
+
+	/**
+	 * Одна случайная опечатка: замена, пропуск, лишняя буква или перестановка соседних.
+	 *
+	 * @param query
+	 *             запрос
+	 *
+	 * @return запрос с опечаткой
+	 */
+	public String typo(String query) {
+		StringBuilder typo = new StringBuilder(query);
+		int position = random.nextInt(query.length());
+		char c = query.charAt(random.nextInt(query.length()));
+		switch (random.nextInt(4)) {
+		case 0:
+			typo.setCharAt(position, c == typo.charAt(position) ? (char) (c + 1) : c);
+			break;
+		case 1:
+			if (query.length() > 1) { typo.deleteCharAt(position); }
+			break;
+		case 2:
+			typo.insert(position, c);
+			break;
+		default:
+			if (position + 1 < query.length()) {
+				typo.setCharAt(position, query.charAt(position + 1));
+				typo.setCharAt(position + 1, query.charAt(position));
+			}
+			else {
+				typo.setCharAt(position, (char) (c + 1));
+			}
+		}
+		return typo.toString();
+	}
+
+	/**
+	 * Набор строки в неправильной раскладке: кириллица заменяется латинскими клавишами.
+	 *
+	 * @param query
+	 *             запрос
+	 *
+	 * @return строка или null, если в ней есть символы без пары на клавиатуре
+	 */
+	public static String toQwerty(String query) {
+		return KeyboardLayout.RU_EN.translate(query);
+	}
+}
@@ -0,0 +1,157 @@
+package packageTrie;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Строка словаря: запрос, запрос с исправленной опечаткой (или null) и частота.
+ * Поля разделены табуляцией, строка разбирается за один проход.
+ * В файлах изменений ({@link DictionaryDelta}) вместо частоты может стоять {@link #DELETED_MARK}:
+ * такая строка означает, что запрос удален из словаря, а строка с исправлением - что удалена
+ * только пара (опечатка, исправление).
+ * @author roman khalkechev
+ */
+public class DictionaryRow {
+	/** Метка удаленной строки в поле частоты файла изменений. */
+	public static final String DELETED_MARK = "-";
+
+	private final String original;
+	private final String correction;
+	private final int rank;
+	private final boolean isDeleted;
+
+	public DictionaryRow(String original, String correction, int rank) {
+		this(original, correction, rank, false);
+	}
+
+	private DictionaryRow(String original, String correction, int rank, boolean isDeleted) {
+		this.original = original;
+		this.correction = correction;
+		this.rank = rank;
+		this.isDeleted = isDeleted;
+	}
+
+	/**
+	 * Разбор строки словаря.
+	 *
+	 * @param line
+	 *            строка
+	 *
+	 * @return строка словаря или null, если строка пустая
+	 * @throws IllegalArgumentException
+	 *             если в строке не три поля или частота не число
+	 */
+	public static DictionaryRow parse(String line) {
+		return parse(line, false);
+	}
+
+	/**
+	 * Разбор строки файла изменений: как {@link #parse(String)}, но вместо частоты
+	 * может стоять {@link #DELETED_MARK}.
+	 *
+	 * @param line
+	 *            строка
+	 *
+	 * @return строка словаря или null, если строка пустая
+	 * @throws IllegalArgumentException
+	 *             если в строке не три поля или частота не число и не метка удаления
+	 */
+	public static DictionaryRow parseDelta(String line) {
+		return parse(line, true);
+	}
+
+	private static DictionaryRow parse(String line, boolean isDelta) {
+		if (line.isEmpty()) { return null; }
+		int firstTab = line.indexOf('\t');
+		int secondTab = firstTab < 0 ? -1 : line.indexOf('\t', firstTab + 1);
+		if (secondTab < 0) { throw new IllegalArgumentException("Wrong format: " + line); }
+
+		String original = line.substring(0, firstTab);
+		String correction = null;
+		//второе поле, если оно не пустое и не из одних пробелов - исправленный запрос
+		for (int i = firstTab + 1; i < secondTab; i++) {
+			if (!Character.isWhitespace(line.charAt(i))) {
+				correction = line.substring(firstTab + 1, secondTab);
+				break;
+			}
+		}
+		if (isDelta && line.substring(secondTab + 1).trim().equals(DELETED_MARK)) {
+			return new DictionaryRow(original, correction, 0, true);
+		}
+		return new DictionaryRow(original, correction, parseRank(line, secondTab + 1));
+	}
+
+	//частота - целое число до конца строки, пробелы по краям (и '\r') пропускаются
+	private static int parseRank(String line, int from) {
+		int to = line.length();
+		while (from < to && Character.isWhitespace(line.charAt(from))) { from++; }
+		while (to > from && Character.isWhitespace(line.charAt(to - 1))) { to--; }
+		if (from == to) { throw new IllegalArgumentException("Wrong format: " + line); }
+		return Integer.parseInt(line.substring(from, to));
+	}
+
+	/**
+	 * Открывает файл словаря в кодировке UTF-8. Некорректные последовательности байт
+	 * считаются ошибкой, а не заменяются молча.
+	 *
+	 * @param fileName
+	 *                имя файла
+	 *
+	 * @return буферизованный поток строк
+	 */
+	public static BufferedReader openReader(String fileName) throws IOException {
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		return new BufferedReader(new InputStreamReader(new FileInputStream(fileName), decoder), 1 << 16);
+	}
+
+	/**
+	 * Возвращает запрос, который нужно добавить в Trie: исправленный, если он есть, иначе исходный.
+	 *
+	 * @return запрос
+	 */
+	public String getQuery() {
+		return correction != null ? correction : original;
+	}
+
+	/**
+	 * Возвращает запрос в том виде, в каком он записан в первом поле.
+	 *
+	 * @return запрос
+	 */
+	public String getOriginal() {
+		return original;
+	}
+
+	/**
+	 * Возвращает исправленный запрос или null, если запрос правильный.
+	 *
+	 * @return исправленный запрос
+	 */
+	public String getCorrection() {
+		return correction;
+	}
+
+	/**
+	 * Возвращает частоту запроса.
+	 *
+	 * @return частота
+	 */
+	public int getRank() {
+		return rank;
+	}
+
+	/**
+	 * Отмечена ли строка как удаленная (только в файлах изменений).
+	 *
+	 * @return true для удаленной строки
+	 */
+	public boolean isDeleted() {
+		return isDeleted;
+	}
+}
@@ -0,0 +1,625 @@
+package packageTrie;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Trie на двойном массиве (double-array trie).
+ *
+ * Узел - номер ячейки. Переход из узла s по символу c ведет в ячейку t = base[s] + code(c),
+ * если check[t] == s; иначе ребра нет. Так переход стоит два чтения из массива вместо
+ * поиска в TreeMap, а весь Trie - несколько массивов int без объекта на узел. Символы
+ * перенумерованы по алфавиту словаря (коды с 1), чтобы base выбирались плотнее.
+ *
+ * Массивы не меняются по одному ребру: вставки и удаления копятся, как в {@link CompactTrie},
+ * и Trie пересобирается целиком при первом запросе после изменений. Подсказки те же, что
+ * у {@link Trie}: top поддерева, смена раскладки, поиск с опечатками и слияние близких узлов.
+ * @author roman khalkechev
+ */
+public class DoubleArrayTrie implements SuggestionIndex {
+	private final int topSize;
+	private double typoPenalty = Trie.DEFAULT_TYPO_PENALTY;
+	private double loadLinesPerSecond;
+	//известные опечатки из второго поля словаря или null; от сборок не зависят
+	private TypoIndex typos;
+
+	//запросы, добавленные или удаленные после последней сборки (null - удален)
+	private final Map<String, Integer> pending = new HashMap<String, Integer>();
+	private boolean dirty = false;
+
+	//запросы в порядке ключей: номер записи совпадает с позицией ключа
+	private QueryTable queries = new QueryTable();
+	//код символа (0 - символа в словаре нет) и символ по коду
+	private char[] codes = new char[Character.MAX_VALUE + 1];
+	private char[] alphabet = new char[1];
+
+	//количество узлов вместе с корнем; корень - ячейка 0
+	private int nodeCount;
+	private int[] base;
+	//родитель ячейки или -1, если ячейка свободна
+	private int[] check;
+	//номер запроса, заканчивающегося в узле, или -1
+	private int[] entries;
+	//дети узла по возрастанию символа: первый ребенок и следующий брат, -1 - нет
+	private int[] firstChild;
+	private int[] nextSibling;
+	//top узла: topEntries[topOffset[s] .. topOffset[s] + topLength[s] - 1]
+	private int[] topOffset;
+	private int[] topLength;
+	private int[] topEntries;
+
+	public DoubleArrayTrie() {
+		this(Trie.DEFAULT_TOP_SIZE);
+	}
+
+	/**
+	 * @param topSize
+	 *               сколько лучших запросов хранить в каждом узле
+	 */
+	public DoubleArrayTrie(int topSize) {
+		if (topSize < 1) { throw new IllegalArgumentException("topSize должен быть положительным"); }
+		this.topSize = topSize;
+		build();
+	}
+
+	/**
+	 * Добавление запроса. Если запрос уже есть, остается наибольший ранк.
+	 *
+	 * @param rank
+	 *            популярность запроса
+	 * @param key
+	 *            запрос
+	 */
+	public void insert(int rank, String key) {
+		Integer old = null;
+		if (pending.containsKey(key)) { old = pending.get(key); }
+		else {
+			int entry = findEntry(key);
+			if (entry >= 0) { old = queries.getRank(entry); }
+		}
+		if (old == null || old < rank) {
+			pending.put(key, rank);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Удаление запроса.
+	 *
+	 * @param key
+	 *            запрос
+	 */
+	public void delete(String key) {
+		pending.put(key, null);
+		dirty = true;
+	}
+
+	/**
+	 * Создание Trie по данным из файла того же формата, что и для {@link Trie#createTrie(String)}.
+	 *
+	 * @param fileName
+	 *                имя файла
+	 */
+	public void createTrie(String fileName) throws IOException {
+		long start = System.nanoTime();
+		BufferedReader in = DictionaryRow.openReader(fileName);
+		String s;
+		int lines = 0;
+		List<DictionaryRow> typoRows = new ArrayList<DictionaryRow>();
+		try {
+			while ((s = in.readLine()) != null) {
+				DictionaryRow row = Trie.parseRow(s, lines + 1);
+				if (row != null) {
+					insert(row.getRank(), row.getQuery());
+					if (row.getCorrection() != null) { typoRows.add(row); }
+				}
+				lines++;
+			}
+		} finally {
+			in.close();
+		}
+		addTypos(typoRows);
+		ensureBuilt();
+		long nanos = System.nanoTime() - start;
+		loadLinesPerSecond = nanos > 0 ? lines * 1e9 / nanos : 0;
+	}
+
+	/**
+	 * Функция подсказок: точное совпадение, потом смена раскладки, потом поиск с опечатками.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix) {
+		return hint(prefix, Trie.DEFAULT_HINT_COUNT);
+	}
+
+	/**
+	 * Функция подсказок: k лучших подсказок по префиксу.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix, int k) {
+		if (k < 0) { throw new IllegalArgumentException("k должно быть неотрицательно"); }
+		ensureBuilt();
+		int node = searchNode(prefix, null);
+		for (KeyboardLayout layout : KeyboardLayout.registered()) {
+			if (node >= 0) { break; }
+			node = searchNode(prefix, layout);
+		}
+		if (node < 0) { node = searchTypo(prefix); }
+		if (node < 0) {
+			List<String> nearTop = near(prefix, prefix.length() <= 5 ? 1 : 2, k);
+			return nearTop == null ? Collections.<String>emptyList() : nearTop;
+		}
+		return topPage(node, k);
+	}
+
+	/**
+	 * Подсказки для префикса с опечатками: то же, что {@link Trie#near(String, int, int)}.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param max
+	 *           максимальное расстояние
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок или null, если близких узлов нет или префикс длиннее
+	 *         {@link Trie#MAX_NEAR_PREFIX_LENGTH}
+	 */
+	public List<String> near(String prefix, int max, int k) {
+		if (prefix.length() > Trie.MAX_NEAR_PREFIX_LENGTH) { return null; }
+		ensureBuilt();
+		List<NearCandidate> candidates = new ArrayList<NearCandidate>();
+		DamerauLevensteinRows rows = DamerauLevensteinRows.forThread(prefix, max);
+		if (rows.distance() <= max) { candidates.add(new NearCandidate(0, 0, rows.distance())); }
+		collectNear(0, rows, Math.min(rows.distance(), max + 1), candidates);
+		return mergeNear(candidates, k);
+	}
+
+	/**
+	 * Назначение штрафа за опечатку, как {@link Trie#setTypoPenalty(double)}.
+	 *
+	 * @param typoPenalty
+	 *                    штраф от 0 до 1
+	 */
+	public void setTypoPenalty(double typoPenalty) {
+		if (typoPenalty <= 0 || typoPenalty > 1) { throw new IllegalArgumentException("typoPenalty должен быть в (0, 1]"); }
+		this.typoPenalty = typoPenalty;
+	}
+
+	public QueryTable getQueries() {
+		ensureBuilt();
+		return queries;
+	}
+
+	/**
+	 * Возвращает количество узлов вместе с корнем.
+	 *
+	 * @return количество узлов
+	 */
+	public int getNodeCount() {
+		ensureBuilt();
+		return nodeCount;
+	}
+
+	/**
+	 * Доля занятых ячеек двойного массива.
+	 *
+	 * @return доля от 0 до 1
+	 */
+	public double getDensity() {
+		ensureBuilt();
+		return (double) nodeCount / check.length;
+	}
+
+	/**
+	 * Скорость последней загрузки из файла вместе со сборкой массивов.
+	 *
+	 * @return количество строк в секунду
+	 */
+	public double getLoadLinesPerSecond() {
+		return loadLinesPerSecond;
+	}
+
+	/**
+	 * Оценка занимаемой памяти в байтах: массивы ячеек, top, таблица символов
+	 * и таблица запросов (по 16 байт на заголовок массива).
+	 *
+	 * @return размер в байтах
+	 */
+	public long sizeInBytes() {
+		ensureBuilt();
+		long size = 7 * 16 + 4L * (base.length + check.length + entries.length + firstChild.length
+				+ nextSibling.length + topOffset.length + topLength.length);
+		size += 16 + 4L * topEntries.length + 2 * 16 + 2L * (codes.length + alphabet.length);
+		return size + queries.sizeInBytes();
+	}
+
+	/**
+	 * Узел с заданным ключом.
+	 *
+	 * @param key
+	 *            ключ
+	 * @param layout
+	 *              раскладка, в которой набран ключ, или null
+	 *
+	 * @return номер узла или -1, если такого нет
+	 */
+	int searchNode(CharSequence key, KeyboardLayout layout) {
+		int node = 0;
+		for (int i = 0; i < key.length() && node >= 0; i++) {
+			char c = layout == null ? key.charAt(i) : layout.translate(key.charAt(i));
+			if (c == 0) { return -1; }
+			node = traverse(node, c);
+		}
+		return node;
+	}
+
+	//переход по символу: два чтения из массивов
+	private int traverse(int node, char c) {
+		int code = codes[c];
+		if (code == 0) { return -1; }
+		int next = base[node] + code;
+		return next < check.length && check[next] == node ? next : -1;
+	}
+
+	//символ на ребре, ведущем в узел
+	private char label(int node) {
+		return alphabet[node - base[check[node]]];
+	}
+
+	/**
+	 * Добавление пар "запрос с опечаткой - исправленный запрос" в индекс опечаток, как {@link Trie}.
+	 *
+	 * @param rows
+	 *            строки словаря; строки без исправления пропускаются
+	 */
+	void addTypos(List<DictionaryRow> rows) {
+		if (!rows.isEmpty()) { typos = TypoIndex.build(typos, rows); }
+	}
+
+	//узел исправленного префикса для известной опечатки, как Trie.searchTypo, или -1
+	private int searchTypo(String prefix) {
+		if (typos == null) { return -1; }
+		int best = -1;
+		for (TypoIndex.Correction correction : typos.lookup(prefix)) {
+			//исправление, удаленное из словаря, не годится
+			if (findEntry(correction.query) < 0) { continue; }
+			int node = searchNode(correction.prefix, null);
+			if (best < 0 || queries.better(topEntries[topOffset[node]], topEntries[topOffset[best]])) { best = node; }
+		}
+		return best;
+	}
+
+	//номер запроса в последней сборке или -1
+	private int findEntry(String key) {
+		int node = searchNode(key, null);
+		return node < 0 ? -1 : entries[node];
+	}
+
+	//k лучших запросов поддерева: из top или обходом "лучший первым", если top не хватает
+	private List<String> topPage(int node, int k) {
+		int length = topLength[node];
+		if (k <= length || length < topSize) {
+			List<String> page = new ArrayList<String>(Math.min(k, length));
+			for (int i = 0; i < Math.min(k, length); i++) { page.add(queries.getQuery(topEntries[topOffset[node] + i])); }
+			return page;
+		}
+		List<NearCandidate> subtree = new ArrayList<NearCandidate>(1);
+		subtree.add(new NearCandidate(node, 0, 0));
+		return mergeNear(subtree, k);
+	}
+
+	//обход в глубину для near, как Trie.collectNear
+	private void collectNear(int node, DamerauLevensteinRows rows, int ancestorDistance, List<NearCandidate> candidates) {
+		for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+			rows.push(label(child));
+			int distance = rows.distance();
+			if (distance < ancestorDistance) {
+				candidates.add(new NearCandidate(child, 0, distance));
+			}
+			if (rows.canDescend()) {
+				collectNear(child, rows, Math.min(distance, ancestorDistance), candidates);
+			}
+			rows.pop();
+		}
+	}
+
+	private List<String> mergeNear(List<NearCandidate> candidates, int k) {
+		if (candidates.isEmpty()) { return null; }
+
+		PriorityQueue<NearCandidate> heap = new PriorityQueue<NearCandidate>(candidates.size(), new Comparator<NearCandidate>() {
+			public int compare(NearCandidate first, NearCandidate second) {
+				if (first.score != second.score) { return first.score > second.score ? -1 : 1; }
+				return queries.compare(first.entry, second.entry);
+			}
+		});
+		for (NearCandidate candidate : candidates) {
+			if (candidate.setEntry(bestEntry(candidate.node))) { heap.add(candidate); }
+		}
+
+		List<String> results = new ArrayList<String>(k);
+		int[] emitted = new int[k];
+		while (results.size() < k && !heap.isEmpty()) {
+			NearCandidate candidate = heap.poll();
+			if (candidate.node < 0 || candidate.index >= 0) {
+				if (!contains(emitted, results.size(), candidate.entry)) {
+					emitted[results.size()] = candidate.entry;
+					results.add(queries.getQuery(candidate.entry));
+				}
+				if (candidate.node < 0) { continue; }
+				int length = topLength[candidate.node];
+				if (candidate.index + 1 < length) {
+					candidate.index++;
+					candidate.setEntry(topEntries[topOffset[candidate.node] + candidate.index]);
+					heap.add(candidate);
+					continue;
+				}
+				//top исчерпан; если он был полным, в поддереве могут быть еще запросы
+				if (length < topSize) { continue; }
+			}
+			//раскрытие поддерева: собственный запрос узла и поддеревья детей
+			int node = candidate.node;
+			if (entries[node] >= 0) {
+				NearCandidate own = new NearCandidate(-1, -1, candidate.distance);
+				own.setEntry(entries[node]);
+				heap.add(own);
+			}
+			for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+				NearCandidate subtree = new NearCandidate(child, -1, candidate.distance);
+				if (subtree.setEntry(bestEntry(child))) { heap.add(subtree); }
+			}
+		}
+		return results;
+	}
+
+	private int bestEntry(int node) {
+		return topLength[node] == 0 ? -1 : topEntries[topOffset[node]];
+	}
+
+	/**
+	 * Элемент слияния: очередной элемент top узла (index >= 0),
+	 * поддерево узла целиком (index == -1) или отдельный запрос (node == -1).
+	 */
+	private final class NearCandidate {
+		final int node;
+		int index;
+		final int distance;
+		int entry;
+		double score;
+
+		NearCandidate(int node, int index, int distance) {
+			this.node = node;
+			this.index = index;
+			this.distance = distance;
+		}
+
+		boolean setEntry(int entry) {
+			if (entry < 0) { return false; }
+			this.entry = entry;
+			this.score = queries.getRank(entry) * Math.pow(typoPenalty, distance);
+			return true;
+		}
+	}
+
+	private static boolean contains(int[] entries, int size, int entry) {
+		for (int i = 0; i < size; i++) {
+			if (entries[i] == entry) { return true; }
+		}
+		return false;
+	}
+
+	private void ensureBuilt() {
+		if (dirty) { build(); }
+	}
+
+	/**
+	 * Сборка: слияние запросов с изменениями, нумерация символов, обход в ширину
+	 * по отсортированным ключам с выбором base для детей каждого узла и top снизу вверх.
+	 */
+	private void build() {
+		String[] keys = mergePending();
+		buildAlphabet(keys);
+
+		int capacity = Math.max(16, 2 * keys.length);
+		base = new int[capacity];
+		check = new int[capacity];
+		Arrays.fill(check, -1);
+		check[0] = 0;
+		//очередь обхода в ширину: узел и диапазон ключей [from, to) с общим префиксом длины depth
+		int[] order = new int[16];
+		int[] from = new int[16];
+		int[] to = new int[16];
+		int[] depth = new int[16];
+		order[0] = 0;
+		to[0] = keys.length;
+		int queued = 1;
+		entries = new int[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		int[] children = new int[alphabet.length];
+		int[] childFrom = new int[alphabet.length];
+		firstChild[0] = -1;
+		nextSibling[0] = -1;
+		//первая ячейка, перед которой свободных нет
+		int nextFree = 1;
+		int used = 1;
+
+		for (int q = 0; q < queued; q++) {
+			int node = order[q];
+			int d = depth[q];
+			int i = from[q];
+			entries[node] = -1;
+			//ключ длины d, если есть, идет первым в диапазоне
+			if (i < to[q] && keys[i].length() == d) { entries[node] = i++; }
+			int count = 0;
+			while (i < to[q]) {
+				char c = keys[i].charAt(d);
+				childFrom[count] = i;
+				children[count++] = codes[c];
+				while (i < to[q] && keys[i].charAt(d) == c) { i++; }
+			}
+			if (count == 0) { continue; }
+
+			//base подбирается так, чтобы первый ребенок попал в свободную ячейку, а остальные ячейки были свободны
+			ensureCapacity(nextFree);
+			while (check[nextFree] >= 0) { ensureCapacity(++nextFree); }
+			int position = nextFree;
+			int occupied = 0;
+			int b;
+			while (true) {
+				b = position - children[0];
+				if (b >= 1) {
+					ensureCapacity(b + children[count - 1]);
+					int c = 1;
+					while (c < count && check[b + children[c]] < 0) { c++; }
+					if (c == count) { break; }
+				}
+				ensureCapacity(++position);
+				while (check[position] >= 0) {
+					occupied++;
+					ensureCapacity(++position);
+				}
+			}
+			//почти заполненный отрезок перед найденной ячейкой больше не просматривается
+			if (occupied >= 0.95 * (position - nextFree + 1)) { nextFree = position; }
+			base[node] = b;
+			if (queued + count > order.length) {
+				int newLength = Math.max(order.length * 2, queued + count);
+				order = Arrays.copyOf(order, newLength);
+				from = Arrays.copyOf(from, newLength);
+				to = Arrays.copyOf(to, newLength);
+				depth = Arrays.copyOf(depth, newLength);
+			}
+			for (int c = 0; c < count; c++) {
+				int child = b + children[c];
+				check[child] = node;
+				firstChild[child] = -1;
+				nextSibling[child] = -1;
+				if (c == 0) { firstChild[node] = child; }
+				else { nextSibling[b + children[c - 1]] = child; }
+				used = Math.max(used, child + 1);
+				order[queued] = child;
+				from[queued] = childFrom[c];
+				to[queued] = c + 1 < count ? childFrom[c + 1] : to[q];
+				depth[queued] = d + 1;
+				queued++;
+			}
+		}
+		nodeCount = queued;
+		base = Arrays.copyOf(base, used);
+		check = Arrays.copyOf(check, used);
+		entries = Arrays.copyOf(entries, used);
+		firstChild = Arrays.copyOf(firstChild, used);
+		nextSibling = Arrays.copyOf(nextSibling, used);
+
+		buildTop(order, queued);
+	}
+
+	//расширение массивов ячеек так, чтобы в них была ячейка index
+	private void ensureCapacity(int index) {
+		if (index < check.length) { return; }
+		int length = check.length;
+		int newLength = Math.max(length * 2, index + 1);
+		base = Arrays.copyOf(base, newLength);
+		check = Arrays.copyOf(check, newLength);
+		Arrays.fill(check, length, newLength, -1);
+		entries = Arrays.copyOf(entries, newLength);
+		firstChild = Arrays.copyOf(firstChild, newLength);
+		nextSibling = Arrays.copyOf(nextSibling, newLength);
+	}
+
+	//символы словаря получают коды 1, 2, ... по возрастанию, чтобы дети шли в порядке символов
+	private void buildAlphabet(String[] keys) {
+		Arrays.fill(codes, (char) 0);
+		for (String key : keys) {
+			for (int i = 0; i < key.length(); i++) { codes[key.charAt(i)] = 1; }
+		}
+		int size = 1;
+		for (int c = 0; c < codes.length; c++) {
+			if (codes[c] != 0) { codes[c] = (char) size++; }
+		}
+		alphabet = new char[size];
+		for (int c = 0; c < codes.length; c++) {
+			if (codes[c] != 0) { alphabet[codes[c]] = (char) c; }
+		}
+	}
+
+	//top узла - слияние его запроса и top детей; дети стоят в очереди позже родителя, поэтому идем с конца
+	private void buildTop(int[] order, int count) {
+		topOffset = new int[check.length];
+		topLength = new int[check.length];
+		int[] top = new int[Math.max(16, count)];
+		int size = 0;
+		int[] cursor = new int[alphabet.length];
+		int[] childList = new int[alphabet.length];
+
+		for (int q = count - 1; q >= 0; q--) {
+			int node = order[q];
+			int children = 0;
+			for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+				cursor[children] = 0;
+				childList[children++] = child;
+			}
+			if (size + topSize > top.length) { top = Arrays.copyOf(top, Math.max(top.length * 2, size + topSize)); }
+
+			topOffset[node] = size;
+			boolean isOwnTaken = entries[node] < 0;
+			while (size - topOffset[node] < topSize) {
+				int bestEntry = isOwnTaken ? -1 : entries[node];
+				int bestChild = -1;
+				for (int c = 0; c < children; c++) {
+					int child = childList[c];
+					if (cursor[c] < topLength[child]) {
+						int entry = top[topOffset[child] + cursor[c]];
+						if (bestEntry < 0 || queries.better(entry, bestEntry)) {
+							bestEntry = entry;
+							bestChild = c;
+						}
+					}
+				}
+				if (bestEntry < 0) { break; }
+				if (bestChild < 0) { isOwnTaken = true; }
+				else { cursor[bestChild]++; }
+				top[size++] = bestEntry;
+			}
+			topLength[node] = size - topOffset[node];
+		}
+		topEntries = Arrays.copyOf(top, size);
+	}
+
+	//таблица запросов с изменениями; возвращает отсортированные ключи, номера записей - их позиции
+	private String[] mergePending() {
+		Map<String, Integer> merged = new HashMap<String, Integer>(pending);
+		for (int entry = 0; entry < queries.size(); entry++) {
+			String query = queries.getQuery(entry);
+			if (!merged.containsKey(query)) { merged.put(query, queries.getRank(entry)); }
+		}
+		List<String> keys = new ArrayList<String>(merged.size());
+		for (Map.Entry<String, Integer> entry : merged.entrySet()) {
+			if (entry.getValue() != null) { keys.add(entry.getKey()); }
+		}
+		Collections.sort(keys);
+		queries = new QueryTable();
+		for (String key : keys) { queries.add(key, merged.get(key)); }
+		pending.clear();
+		dirty = false;
+		return keys.toArray(new String[keys.size()]);
+	}
+}
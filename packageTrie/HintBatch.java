@@ -0,0 +1,145 @@
+package packageTrie;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Подсказки для пачки префиксов.
+ *
+ * Префиксы упорядочиваются по первым трем символам, поэтому соседние часто продолжают друг
+ * друга ("п", "пр", "при"): спуск по Trie начинается не от корня, а от узла общего с предыдущим
+ * префиксом начала. Полная сортировка строк стоила бы столько же, сколько сами подсказки,
+ * поэтому сортируются числа: три символа и номер префикса в одном long.
+ * Отсортированный список делится на куски по первому символу, и куски обрабатываются
+ * параллельно в пуле fork-join. Результаты раскладываются в порядке исходного списка.
+ * @author roman khalkechev
+ */
+class HintBatch {
+	//меньшие куски не делятся между потоками
+	private static final int THRESHOLD = 256;
+	//номер префикса занимает младшие 16 бит ключа сортировки, поэтому пачка сортируется кусками
+	private static final int SLICE = 1 << 16;
+
+	private final Trie trie;
+	private final String[] prefixes;
+	private final int limit;
+	//номера префиксов в порядке сортировки
+	private final int[] order;
+	//потоки пишут в разные элементы; размер списка не меняется
+	private final List<List<String>> results;
+
+	HintBatch(Trie trie, List<String> prefixes, int limit) {
+		this.trie = trie;
+		this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+		this.limit = limit;
+		this.order = new int[this.prefixes.length];
+		this.results = new ArrayList<List<String>>(Collections.<List<String>>nCopies(this.prefixes.length, null));
+	}
+
+	/**
+	 * Подсказки для всех префиксов.
+	 *
+	 * @param pool
+	 *            пул для параллельной обработки
+	 *
+	 * @return списки подсказок в порядке префиксов
+	 */
+	List<List<String>> run(ForkJoinPool pool) {
+		long[] keys = new long[Math.min(SLICE, order.length)];
+		for (int base = 0; base < order.length; base += SLICE) {
+			int length = Math.min(SLICE, order.length - base);
+			for (int i = 0; i < length; i++) { keys[i] = sortKey(prefixes[base + i], i); }
+			Arrays.sort(keys, 0, length);
+			for (int i = 0; i < length; i++) { order[base + i] = base + (int) (keys[i] & (SLICE - 1)); }
+		}
+		Range all = new Range(0, order.length);
+		if (order.length <= THRESHOLD) { all.compute(); }
+		else if (ForkJoinTask.inForkJoinPool()) { all.invoke(); }
+		else { pool.invoke(all); }
+		return results;
+	}
+
+	//подсказки для префиксов order[from..to) подряд, с общим спуском
+	private void hintRange(int from, int to) {
+		TrieNode[] path = new TrieNode[16];
+		path[0] = trie.getRoot();
+		//сколько символов предыдущего префикса нашлось в Trie
+		int matched = 0;
+		String previous = "";
+		for (int i = from; i < to; i++) {
+			String prefix = prefixes[order[i]];
+			if (i > from && prefix.equals(previous)) {
+				results.set(order[i], new ArrayList<String>(results.get(order[i - 1])));
+				continue;
+			}
+			if (path.length <= prefix.length()) { path = Arrays.copyOf(path, prefix.length() + 1); }
+			int depth = 0;
+			while (depth < matched && depth < prefix.length() && prefix.charAt(depth) == previous.charAt(depth)) { depth++; }
+			while (depth < prefix.length()) {
+				TrieNode child = path[depth].traverse(prefix.charAt(depth));
+				if (child == null) { break; }
+				path[++depth] = child;
+			}
+			matched = depth;
+			previous = prefix;
+			//не нашли целиком - раскладка и опечатки как в обычном hint
+			results.set(order[i], depth == prefix.length() ? trie.topPage(path[depth], 0, limit) : trie.hint(prefix, 0, limit));
+		}
+	}
+
+	//первые три символа (недостающие - нули) и номер; знаковый бит инвертирован, чтобы порядок long совпал с порядком символов
+	private static long sortKey(String prefix, int index) {
+		long key = 0;
+		for (int i = 0; i < 3; i++) {
+			key = (key << 16) | (i < prefix.length() ? prefix.charAt(i) : 0);
+		}
+		return ((key << 16) | index) ^ Long.MIN_VALUE;
+	}
+
+	//первый символ префикса или -1 для пустого
+	private int firstChar(int i) {
+		String prefix = prefixes[order[i]];
+		return prefix.isEmpty() ? -1 : prefix.charAt(0);
+	}
+
+	//кусок отсортированного списка; делится пополам по границе первого символа
+	private final class Range extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		Range(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int middle = split();
+			if (middle < 0) {
+				hintRange(from, to);
+				return;
+			}
+			invokeAll(new Range(from, middle), new Range(middle, to));
+		}
+
+		//граница группы рядом с серединой или -1, если делить не нужно или негде
+		private int split() {
+			if (to - from <= THRESHOLD) { return -1; }
+			int middle = (from + to) >>> 1;
+			for (int i = middle; i < to; i++) {
+				if (firstChar(i) != firstChar(i - 1)) { return i; }
+			}
+			for (int i = middle - 1; i > from; i--) {
+				if (firstChar(i) != firstChar(i - 1)) { return i; }
+			}
+			//все префиксы начинаются с одного символа - делим посередине
+			return middle;
+		}
+	}
+}
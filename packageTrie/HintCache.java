@@ -0,0 +1,503 @@
+package packageTrie;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Кеш подсказок ограниченного размера перед {@link ConcurrentTrie#hint(String, int)}.
+ *
+ * Запросы к подсказкам сильно перекошены: несколько тысяч префиксов дают большую часть
+ * обращений, поэтому их подсказки выгодно хранить готовыми. Кешируются и префиксы, которых
+ * нет в Trie: для них подсказки ищутся сменой раскладки и поиском с опечатками, и это
+ * самые дорогие запросы.
+ *
+ * Кеш разбит на сегменты со своей блокировкой. Вытеснение - LRU или W-TinyLFU: новый префикс
+ * попадает в маленькое окно LRU, а в основную часть проходит, только если по частотному
+ * эскизу он встречается чаще, чем тот, кого пришлось бы вытеснить; так редкие префиксы
+ * не выдавливают популярные.
+ *
+ * При фиксации пакета изменений {@link ConcurrentTrie} удаляет из кеша все префиксы, подсказки
+ * которых могли измениться: префиксы измененных запросов, префиксы, которые после смены раскладки
+ * становятся префиксами измененного запроса, и префиксы, которые могли найти его поиском с опечатками.
+ * Последние проверяются попарно с измененными запросами вне блокировки сегмента; если пар в сегменте
+ * больше {@link #MAX_INVALIDATION_CHECKS}, все такие префиксы сегмента удаляются без проверки.
+ * @author roman khalkechev
+ */
+public class HintCache {
+	/** Политика вытеснения. */
+	public enum Policy {
+		/** Вытесняется давнее всех использованный префикс. */
+		LRU,
+		/** Окно LRU и основная часть с допуском по частоте обращений. */
+		TINY_LFU
+	}
+
+	private static final int MAX_SEGMENTS = 16;
+	/** Сколько пар "префикс не из Trie - измененный запрос" проверяется в сегменте при инвалидации. */
+	public static final int MAX_INVALIDATION_CHECKS = 1 << 12;
+
+	private final ConcurrentTrie trie;
+	private final int k;
+	private final Segment[] segments;
+	//растет при каждой инвалидации; подсказки, посчитанные до нее, в кеш не кладутся
+	private volatile long generation;
+	//метрика нужна только писателю, который инвалидирует под блокировкой ConcurrentTrie
+	private final BitParallelDamerauLevensteinMetric metric = new BitParallelDamerauLevensteinMetric();
+
+	/**
+	 * Кеш подсказок по умолчанию ({@link Trie#DEFAULT_HINT_COUNT} подсказок на префикс).
+	 *
+	 * @param trie
+	 *            Trie, подсказки которого кешируются
+	 * @param capacity
+	 *                наибольшее количество префиксов в кеше
+	 * @param policy
+	 *              политика вытеснения
+	 */
+	public HintCache(ConcurrentTrie trie, int capacity, Policy policy) {
+		this(trie, capacity, policy, Trie.DEFAULT_HINT_COUNT);
+	}
+
+	/**
+	 * Кеш k лучших подсказок.
+	 *
+	 * @param trie
+	 *            Trie, подсказки которого кешируются
+	 * @param capacity
+	 *                наибольшее количество префиксов в кеше
+	 * @param policy
+	 *              политика вытеснения
+	 * @param k
+	 *         количество подсказок
+	 */
+	public HintCache(ConcurrentTrie trie, int capacity, Policy policy, int k) {
+		if (capacity <= 0) { throw new IllegalArgumentException("Размер кеша должен быть положителен"); }
+		if (k < 0) { throw new IllegalArgumentException("k должно быть неотрицательно"); }
+		this.trie = trie;
+		this.k = k;
+		int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(capacity));
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			//остаток от деления раздается первым сегментам
+			int segmentCapacity = capacity / count + (i < capacity % count ? 1 : 0);
+			segments[i] = policy == Policy.LRU ? new LruSegment(segmentCapacity) : new TinyLfuSegment(segmentCapacity);
+		}
+		trie.addCache(this);
+	}
+
+	/**
+	 * Подсказки по префиксу из кеша или из текущей версии Trie.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return список подсказок только для чтения
+	 */
+	public List<String> hint(String prefix) {
+		Segment segment = segmentFor(prefix);
+		synchronized (segment) {
+			Entry cached = segment.find(prefix);
+			if (cached != null) {
+				segment.hits++;
+				return cached.hints;
+			}
+			segment.misses++;
+		}
+
+		long start = generation;
+		Trie snapshot = trie.snapshot();
+		TrieNode node = snapshot.searchNode(prefix);
+		List<String> hints = node != null ? snapshot.topPage(node, 0, k) : snapshot.hint(prefix, k);
+		Entry entry = new Entry(prefix, Collections.unmodifiableList(hints), node != null);
+		synchronized (segment) {
+			segment.put(entry);
+		}
+		//за время поиска словарь поменялся: подсказки могли устареть
+		if (generation != start) {
+			synchronized (segment) {
+				segment.remove(prefix, false);
+			}
+		}
+		return entry.hints;
+	}
+
+	/**
+	 * Удаление всех префиксов из кеша. Счетчики не сбрасываются.
+	 */
+	public void clear() {
+		generation++;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	public long getHitCount() {
+		long count = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) { count += segment.hits; }
+		}
+		return count;
+	}
+
+	public long getMissCount() {
+		long count = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) { count += segment.misses; }
+		}
+		return count;
+	}
+
+	public long getEvictionCount() {
+		long count = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) { count += segment.evictions; }
+		}
+		return count;
+	}
+
+	public long getInvalidationCount() {
+		long count = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) { count += segment.invalidations; }
+		}
+		return count;
+	}
+
+	/**
+	 * Количество префиксов в кеше.
+	 *
+	 * @return количество префиксов
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) { size += segment.size(); }
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "HintCache{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+				+ ", evictions=" + getEvictionCount() + ", invalidations=" + getInvalidationCount() + "}";
+	}
+
+	/**
+	 * Удаление префиксов, подсказки которых могли измениться от изменения запросов keys.
+	 * Вызывается {@link ConcurrentTrie} после публикации новой версии.
+	 *
+	 * @param keys
+	 *            измененные запросы
+	 */
+	void invalidate(List<String> keys) {
+		generation++;
+		//найденные в Trie префиксы меняются, только если они - префиксы измененного запроса
+		for (String key : keys) {
+			for (int length = 0; length <= key.length(); length++) {
+				String prefix = key.substring(0, length);
+				Segment segment = segmentFor(prefix);
+				synchronized (segment) {
+					segment.remove(prefix, true);
+				}
+			}
+		}
+		//остальные проверяются по раскладкам и по расстоянию до измененных запросов
+		for (Segment segment : segments) {
+			List<String> inexact;
+			synchronized (segment) {
+				if ((long) segment.inexact.size() * keys.size() > MAX_INVALIDATION_CHECKS) {
+					//проверка стоила бы дороже, чем пересчитать подсказки заново
+					for (String prefix : new ArrayList<String>(segment.inexact)) { segment.remove(prefix, true); }
+					continue;
+				}
+				inexact = new ArrayList<String>(segment.inexact);
+			}
+			//проверяем без блокировки: префиксы, добавленные за это время, посчитаны по старой
+			//версии и удаляют себя сами, потому что generation уже увеличен
+			List<String> stale = new ArrayList<String>();
+			for (String prefix : inexact) {
+				if (affected(prefix, keys)) { stale.add(prefix); }
+			}
+			if (stale.isEmpty()) { continue; }
+			synchronized (segment) {
+				for (String prefix : stale) { segment.remove(prefix, true); }
+			}
+		}
+	}
+
+	//могли ли подсказки для отсутствующего в Trie префикса измениться от изменения keys
+	private boolean affected(String prefix, List<String> keys) {
+		int max = prefix.length() <= 5 ? 1 : 2;
+		List<TypoIndex.Correction> corrections = trie.snapshot().typoCorrections(prefix);
+		for (String key : keys) {
+			for (TypoIndex.Correction correction : corrections) {
+				if (key.startsWith(correction.prefix)) { return true; }
+			}
+			for (KeyboardLayout layout : KeyboardLayout.registered()) {
+				if (isTranslatedPrefix(prefix, key, layout)) { return true; }
+			}
+			//префиксы key короче prefix больше чем на max заведомо дальше max
+			if (key.length() >= prefix.length() - max && metric.getPrefixDistance(key, prefix, max) <= max) { return true; }
+		}
+		return false;
+	}
+
+	//является ли prefix, набранный в раскладке layout, префиксом key
+	private static boolean isTranslatedPrefix(String prefix, String key, KeyboardLayout layout) {
+		if (prefix.length() > key.length()) { return false; }
+		for (int i = 0; i < prefix.length(); i++) {
+			if (layout.translate(prefix.charAt(i)) != key.charAt(i)) { return false; }
+		}
+		return true;
+	}
+
+	private Segment segmentFor(String prefix) {
+		int hash = prefix.hashCode();
+		hash ^= hash >>> 16;
+		return segments[hash & (segments.length - 1)];
+	}
+
+	//подсказки для префикса; exact - префикс найден в Trie без смены раскладки и опечаток
+	private static final class Entry {
+		final String prefix;
+		final List<String> hints;
+		final boolean exact;
+
+		Entry(String prefix, List<String> hints, boolean exact) {
+			this.prefix = prefix;
+			this.hints = hints;
+			this.exact = exact;
+		}
+	}
+
+	/**
+	 * Сегмент кеша. Все методы вызываются под блокировкой сегмента.
+	 */
+	private abstract static class Segment {
+		long hits;
+		long misses;
+		long evictions;
+		long invalidations;
+		//префиксы, которых нет в Trie: их приходится проверять при каждой инвалидации
+		final Set<String> inexact = new HashSet<String>();
+
+		//поиск с учетом обращения для политики вытеснения
+		abstract Entry find(String prefix);
+
+		//добавление нового префикса; вытесненные передаются в evicted
+		abstract void store(Entry entry);
+
+		//удаление без учета обращения
+		abstract Entry delete(String prefix);
+
+		abstract int size();
+
+		abstract void clear();
+
+		void put(Entry entry) {
+			//два потока могли одновременно посчитать один префикс
+			remove(entry.prefix, false);
+			store(entry);
+			if (!entry.exact) { inexact.add(entry.prefix); }
+		}
+
+		//удаление префикса; invalidated - из-за изменения словаря, а не повторного вычисления
+		void remove(String prefix, boolean invalidated) {
+			Entry removed = delete(prefix);
+			if (removed == null) { return; }
+			if (!removed.exact) { inexact.remove(prefix); }
+			if (invalidated) { invalidations++; }
+		}
+
+		void evicted(Entry entry) {
+			evictions++;
+			if (!entry.exact) { inexact.remove(entry.prefix); }
+		}
+
+		static Entry removeEldest(LinkedHashMap<String, Entry> map) {
+			Iterator<Entry> eldest = map.values().iterator();
+			Entry entry = eldest.next();
+			eldest.remove();
+			return entry;
+		}
+	}
+
+	private static final class LruSegment extends Segment {
+		private final int capacity;
+		private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+		LruSegment(int capacity) {
+			this.capacity = capacity;
+		}
+
+		Entry find(String prefix) {
+			return entries.get(prefix);
+		}
+
+		void store(Entry entry) {
+			entries.put(entry.prefix, entry);
+			if (entries.size() > capacity) { evicted(removeEldest(entries)); }
+		}
+
+		Entry delete(String prefix) {
+			return entries.remove(prefix);
+		}
+
+		int size() {
+			return entries.size();
+		}
+
+		void clear() {
+			entries.clear();
+			inexact.clear();
+		}
+	}
+
+	/**
+	 * W-TinyLFU: окно LRU на 1% емкости и основная часть SLRU из испытательной (20%)
+	 * и защищенной (80%) областей. Префикс, вытесненный из окна, попадает в основную часть,
+	 * только если встречался чаще ее кандидата на вытеснение; повторное обращение
+	 * в испытательной области переводит префикс в защищенную.
+	 */
+	private static final class TinyLfuSegment extends Segment {
+		private final int windowCapacity;
+		private final int mainCapacity;
+		private final int protectedCapacity;
+		private final LinkedHashMap<String, Entry> window = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		private final FrequencySketch sketch;
+
+		TinyLfuSegment(int capacity) {
+			windowCapacity = Math.max(1, capacity / 100);
+			mainCapacity = capacity - windowCapacity;
+			protectedCapacity = mainCapacity * 4 / 5;
+			sketch = new FrequencySketch(capacity);
+		}
+
+		Entry find(String prefix) {
+			sketch.increment(prefix);
+			Entry entry = window.get(prefix);
+			if (entry == null) { entry = protectedEntries.get(prefix); }
+			if (entry == null) {
+				entry = probation.remove(prefix);
+				if (entry != null) {
+					protectedEntries.put(prefix, entry);
+					if (protectedEntries.size() > protectedCapacity) {
+						Entry demoted = removeEldest(protectedEntries);
+						probation.put(demoted.prefix, demoted);
+					}
+				}
+			}
+			return entry;
+		}
+
+		void store(Entry entry) {
+			window.put(entry.prefix, entry);
+			if (window.size() <= windowCapacity) { return; }
+			Entry candidate = removeEldest(window);
+			if (probation.size() + protectedEntries.size() < mainCapacity) {
+				probation.put(candidate.prefix, candidate);
+				return;
+			}
+			LinkedHashMap<String, Entry> victims = probation.isEmpty() ? protectedEntries : probation;
+			if (victims.isEmpty()) {
+				evicted(candidate);
+				return;
+			}
+			Entry victim = victims.values().iterator().next();
+			if (sketch.frequency(candidate.prefix) > sketch.frequency(victim.prefix)) {
+				evicted(removeEldest(victims));
+				probation.put(candidate.prefix, candidate);
+			}
+			else {
+				evicted(candidate);
+			}
+		}
+
+		Entry delete(String prefix) {
+			Entry entry = window.remove(prefix);
+			if (entry == null) { entry = probation.remove(prefix); }
+			if (entry == null) { entry = protectedEntries.remove(prefix); }
+			return entry;
+		}
+
+		int size() {
+			return window.size() + probation.size() + protectedEntries.size();
+		}
+
+		void clear() {
+			window.clear();
+			probation.clear();
+			protectedEntries.clear();
+			inexact.clear();
+		}
+	}
+
+	/**
+	 * Приближенный счетчик частот (count-min): 4 строки 4-битных счетчиков, по 16 счетчиков в long.
+	 * Когда число увеличений доходит до 10 емкостей, все счетчики делятся пополам,
+	 * чтобы старая популярность постепенно забывалась.
+	 */
+	private static final class FrequencySketch {
+		private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+		private static final int MAX_COUNT = 15;
+		//младшие 3 бита каждого 4-битного счетчика: маска для деления всех счетчиков слова пополам
+		private static final long HALF_MASK = 0x7777777777777777L;
+
+		private final long[][] counters = new long[SEEDS.length][];
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int capacity) {
+			int width = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1);
+			for (int i = 0; i < SEEDS.length; i++) { counters[i] = new long[width / 16]; }
+			mask = width - 1;
+			sampleSize = 10 * capacity;
+		}
+
+		void increment(String key) {
+			int hash = key.hashCode();
+			boolean added = false;
+			for (int i = 0; i < SEEDS.length; i++) {
+				int index = index(hash, i);
+				int shift = (index & 15) << 2;
+				long[] row = counters[i];
+				if (((row[index >>> 4] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+					row[index >>> 4] += 1L << shift;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) { reset(); }
+		}
+
+		int frequency(String key) {
+			int hash = key.hashCode();
+			int frequency = MAX_COUNT;
+			for (int i = 0; i < SEEDS.length; i++) {
+				int index = index(hash, i);
+				frequency = Math.min(frequency, (int) (counters[i][index >>> 4] >>> ((index & 15) << 2)) & MAX_COUNT);
+			}
+			return frequency;
+		}
+
+		private int index(int hash, int row) {
+			int h = hash * SEEDS[row];
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		private void reset() {
+			for (long[] row : counters) {
+				for (int i = 0; i < row.length; i++) { row[i] = (row[i] >>> 1) & HALF_MASK; }
+			}
+			additions /= 2;
+		}
+	}
+}
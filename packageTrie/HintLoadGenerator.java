@@ -0,0 +1,178 @@
+package packageTrie;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нагрузка на {@link HintServer} с той же машины: несколько клиентов в замкнутом цикле шлют
+ * GET /hint по keep-alive соединениям и пишут задержки в {@link Histogram}.
+ *
+ * Префиксы берутся из запросов словаря с перекосом по Ципфу, как в {@link TrieBenchmark}:
+ * популярные повторяются, каждый четвертый - с опечаткой. Сначала идет прогрев, потом замер
+ * заданной длительности; в конце печатаются QPS, перцентили задержки и количество ошибок.
+ * Если порт не указан, сервер с тем же словарем поднимается внутри процесса на свободном порту.
+ *
+ * Аргументы: файл словаря [клиентов] [секунд замера] [шардов] [порт готового сервера].
+ * @author roman khalkechev
+ */
+public class HintLoadGenerator {
+	private static final long SEED = 42;
+	private static final int WARMUP_SECONDS = 3;
+	private static final int PREFIXES = 1 << 16;
+
+	private final String baseUrl;
+	private final String[] prefixes;
+	private final Histogram latency = new Histogram();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * @param port
+	 *            порт сервера на localhost
+	 * @param prefixes
+	 *                префиксы, которые будут запрашиваться
+	 */
+	public HintLoadGenerator(int port, String[] prefixes) {
+		this.baseUrl = "http://localhost:" + port + "/hint?q=";
+		this.prefixes = prefixes;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.out.println("Использование: HintLoadGenerator <файл словаря> [клиентов] [секунд] [шардов] [порт]");
+			return;
+		}
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int shardCount = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		Trie trie = new Trie();
+		trie.createTrie(args[0], true);
+
+		HintServer server = null;
+		int port;
+		if (args.length > 4) {
+			port = Integer.parseInt(args[4]);
+		}
+		else {
+			server = new HintServer(new ConcurrentTrie(trie), 0, shardCount, 1);
+			server.start();
+			port = server.getPort();
+		}
+		HintLoadGenerator generator = new HintLoadGenerator(port, zipfPrefixes(trie.getQueries(), new Random(SEED)));
+		try {
+			generator.run(clients, WARMUP_SECONDS);
+			generator.reset();
+			long requests = generator.run(clients, seconds);
+			Histogram latency = generator.getLatency();
+			System.out.println(String.format("Клиентов %d, %d с: %.0f запросов/с, ошибок %d", clients, seconds,
+					(double) requests / seconds, generator.getErrorCount()));
+			System.out.println(String.format("задержка, мкс: p50 %.0f, p90 %.0f, p99 %.0f, p99.9 %.0f, max %.0f",
+					latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(90) / 1e3,
+					latency.getValueAtPercentile(99) / 1e3, latency.getValueAtPercentile(99.9) / 1e3, latency.getMax() / 1e3));
+			if (server != null) {
+				StringBuilder perShard = new StringBuilder("запросов по шардам:");
+				for (int i = 0; i < shardCount; i++) { perShard.append(' ').append(server.getServedCount(i)); }
+				System.out.println(perShard.append(", отклонено ").append(server.getRejectedCount()));
+			}
+		} finally {
+			if (server != null) { server.stop(); }
+		}
+	}
+
+	/**
+	 * Нагрузка заданным числом клиентов в течение заданного времени.
+	 *
+	 * @param clients
+	 *               количество клиентских потоков
+	 * @param seconds
+	 *               длительность
+	 *
+	 * @return количество выполненных запросов
+	 */
+	public long run(int clients, int seconds) throws InterruptedException {
+		final AtomicBoolean isRunning = new AtomicBoolean(true);
+		final AtomicLong requests = new AtomicLong();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int c = 0; c < clients; c++) {
+			final Random random = new Random(SEED + c);
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					byte[] buffer = new byte[8192];
+					long count = 0;
+					while (isRunning.get()) {
+						String prefix = prefixes[random.nextInt(prefixes.length)];
+						long start = System.nanoTime();
+						if (request(prefix, buffer)) { latency.record(System.nanoTime() - start); }
+						else { errors.incrementAndGet(); }
+						count++;
+					}
+					requests.addAndGet(count);
+				}
+			}, "hint-load-" + c);
+			threads.add(thread);
+			thread.start();
+		}
+		Thread.sleep(seconds * 1000L);
+		isRunning.set(false);
+		for (Thread thread : threads) { thread.join(); }
+		return requests.get();
+	}
+
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	public void reset() {
+		latency.reset();
+		errors.set(0);
+	}
+
+	//один запрос; тело дочитывается до конца, чтобы соединение вернулось в пул keep-alive
+	private boolean request(String prefix, byte[] buffer) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(baseUrl + URLEncoder.encode(prefix, "UTF-8")).openConnection();
+			int status = connection.getResponseCode();
+			InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				try {
+					while (in.read(buffer) >= 0) { }
+				} finally {
+					in.close();
+				}
+			}
+			return status == 200;
+		} catch (IOException e) {
+			if (connection != null) { connection.disconnect(); }
+			return false;
+		}
+	}
+
+	//префиксы запросов словаря с перекосом по Ципфу, часть - с опечаткой
+	private static String[] zipfPrefixes(QueryTable queries, Random random) {
+		DictionaryGenerator generator = new DictionaryGenerator(SEED);
+		String[] distinct = new String[PREFIXES / 4];
+		for (int i = 0; i < distinct.length; ) {
+			String query = queries.getQuery(random.nextInt(queries.size()));
+			if (query.isEmpty()) { continue; }
+			distinct[i] = query.substring(0, 1 + random.nextInt(query.length()));
+			if (random.nextInt(4) == 0) { distinct[i] = generator.typo(distinct[i]); }
+			i++;
+		}
+		String[] prefixes = new String[PREFIXES];
+		for (int i = 0; i < prefixes.length; i++) {
+			prefixes[i] = distinct[(int) Math.pow(distinct.length, random.nextDouble()) - 1];
+		}
+		return prefixes;
+	}
+}
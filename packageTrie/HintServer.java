@@ -0,0 +1,281 @@
+package packageTrie;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP-сервер подсказок над {@link ConcurrentTrie}.
+ *
+ * GET /hint?q=префикс[&k=количество] возвращает JSON-массив подсказок. Соединения принимает
+ * неблокирующий диспетчер встроенного HttpServer; он только разбирает запрос и отдает его
+ * в пул потоков шарда, который и ищет подсказки, и пишет ответ. Шард выбирается по первому
+ * символу префикса, поэтому потоки одного шарда спускаются по одним и тем же поддеревьям
+ * корня и держат их в своих кешах процессора. Индекс общий: поиск с опечатками и смена
+ * раскладки уходят в чужие поддеревья, и ответы всегда те же, что у {@link ConcurrentTrie#hint}.
+ * Если очередь шарда заполнена, сервер сразу отвечает 503; префикс длиннее
+ * {@link #MAX_PREFIX_LENGTH} отклоняется с ответом 400.
+ *
+ * Заголовки и тело ответа уходят разными пакетами, и без TCP_NODELAY каждый ответ ждет
+ * подтверждения от клиента: задержка на localhost вырастает до 40 мс. Встроенный HttpServer
+ * включает TCP_NODELAY системным свойством sun.net.httpserver.nodelay=true, общим для всей JVM;
+ * main задает его сам, а приложение, создающее сервер, задает его до первого HttpServer.
+ *
+ * Аргументы main: файл словаря [порт] [количество шардов] [потоков на шард].
+ * @author roman khalkechev
+ */
+public class HintServer {
+	private static final int MAX_HINT_COUNT = 100;
+	private static final int QUEUE_CAPACITY = 1024;
+	/** Наибольшая длина префикса в запросе. */
+	public static final int MAX_PREFIX_LENGTH = 256;
+	private static final Logger LOG = Logger.getLogger(HintServer.class.getName());
+
+	private final ConcurrentTrie trie;
+	private final HttpServer server;
+	private final ThreadPoolExecutor[] shards;
+	private final AtomicLong[] served;
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param trie
+	 *            индекс подсказок
+	 * @param port
+	 *            порт на localhost или 0, чтобы выбрать свободный
+	 * @param shardCount
+	 *                  количество шардов
+	 * @param threadsPerShard
+	 *                       потоков в пуле каждого шарда
+	 */
+	public HintServer(ConcurrentTrie trie, int port, int shardCount, int threadsPerShard) throws IOException {
+		if (shardCount < 1) { throw new IllegalArgumentException("shardCount должен быть положительным"); }
+		if (threadsPerShard < 1) { throw new IllegalArgumentException("threadsPerShard должен быть положительным"); }
+		this.trie = trie;
+		shards = new ThreadPoolExecutor[shardCount];
+		served = new AtomicLong[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			final String name = "hint-shard-" + i + "-";
+			shards[i] = new ThreadPoolExecutor(threadsPerShard, threadsPerShard, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+						private int count;
+
+						public synchronized Thread newThread(Runnable task) {
+							Thread thread = new Thread(task, name + count++);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			served[i] = new AtomicLong();
+		}
+		server = HttpServer.create(new InetSocketAddress("localhost", port), QUEUE_CAPACITY);
+		server.createContext("/hint", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				dispatch(exchange);
+			}
+		});
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Использование: HintServer <файл словаря> [порт] [шардов] [потоков на шард]");
+			return;
+		}
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		int processors = Runtime.getRuntime().availableProcessors();
+		int shardCount = args.length > 2 ? Integer.parseInt(args[2]) : processors;
+		int threadsPerShard = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+		Trie trie = new Trie();
+		trie.createTrie(args[0], true);
+		HintServer server = new HintServer(new ConcurrentTrie(trie), port, shardCount, threadsPerShard);
+		server.start();
+		System.out.println("Подсказки: http://localhost:" + server.getPort() + "/hint?q=..., шардов " + shardCount
+				+ " по " + threadsPerShard + " потоков");
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Остановка: новые соединения не принимаются, запросы в очередях шардов дорабатываются.
+	 */
+	public void stop() {
+		server.stop(0);
+		for (ThreadPoolExecutor shard : shards) { shard.shutdown(); }
+	}
+
+	/**
+	 * Порт, на котором сервер принимает соединения (нужен, если в конструктор передан 0).
+	 *
+	 * @return порт
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Сколько запросов обработал шард.
+	 *
+	 * @param shard
+	 *             номер шарда
+	 *
+	 * @return количество запросов
+	 */
+	public long getServedCount(int shard) {
+		return served[shard].get();
+	}
+
+	/**
+	 * Сколько запросов отклонено с ответом 503 из-за полной очереди шарда.
+	 *
+	 * @return количество запросов
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Шард префикса: по первому символу, пустой префикс - в шард 0.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return номер шарда
+	 */
+	int shardOf(String prefix) {
+		return prefix.isEmpty() ? 0 : Character.toLowerCase(prefix.charAt(0)) % shards.length;
+	}
+
+	//разбор запроса в потоке диспетчера и передача в пул шарда
+	private void dispatch(final HttpExchange exchange) throws IOException {
+		if (!"GET".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "метод не поддерживается");
+			return;
+		}
+		String prefix = null;
+		int k = Trie.DEFAULT_HINT_COUNT;
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				int equals = parameter.indexOf('=');
+				String name = equals < 0 ? parameter : parameter.substring(0, equals);
+				String value = equals < 0 ? "" : decode(parameter.substring(equals + 1));
+				if (name.equals("q")) { prefix = value; }
+				else if (name.equals("k")) {
+					try {
+						k = Integer.parseInt(value);
+					} catch (NumberFormatException e) {
+						k = -1;
+					}
+				}
+			}
+		}
+		if (prefix == null || k < 0 || k > MAX_HINT_COUNT) {
+			respond(exchange, 400, "нужны параметры q и k от 0 до " + MAX_HINT_COUNT);
+			return;
+		}
+		if (prefix.length() > MAX_PREFIX_LENGTH) {
+			respond(exchange, 400, "префикс длиннее " + MAX_PREFIX_LENGTH + " символов");
+			return;
+		}
+
+		final String hintPrefix = prefix;
+		final int hintCount = k;
+		final int shard = shardOf(prefix);
+		try {
+			shards[shard].execute(new Runnable() {
+				public void run() {
+					//подробности ошибки остаются в журнале, клиент получает только код
+					int status = 500;
+					String body = "внутренняя ошибка сервера";
+					try {
+						body = toJson(trie.hint(hintPrefix, hintCount));
+						status = 200;
+						served[shard].incrementAndGet();
+					} catch (RuntimeException e) {
+						LOG.log(Level.SEVERE, "ошибка подсказок для префикса длины " + hintPrefix.length(), e);
+					} catch (Error e) {
+						LOG.log(Level.SEVERE, "ошибка подсказок для префикса длины " + hintPrefix.length(), e);
+						throw e;
+					} finally {
+						try {
+							respond(exchange, status, body);
+						} catch (IOException e) {
+							//клиент закрыл соединение - отвечать некому
+						} finally {
+							exchange.close();
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			respond(exchange, 503, "очередь шарда заполнена");
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", status == 200 ? "application/json; charset=UTF-8" : "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalArgumentException e) {
+			//неправильная %-последовательность - берем как есть
+			return value;
+		}
+	}
+
+	/**
+	 * Список подсказок в виде JSON-массива строк.
+	 *
+	 * @param hints
+	 *             подсказки
+	 *
+	 * @return JSON
+	 */
+	static String toJson(List<String> hints) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < hints.size(); i++) {
+			if (i > 0) { json.append(','); }
+			json.append('"');
+			String hint = hints.get(i);
+			for (int j = 0; j < hint.length(); j++) {
+				char c = hint.charAt(j);
+				if (c == '"' || c == '\\') { json.append('\\').append(c); }
+				else if (c < 0x20) { json.append(String.format("\\u%04x", (int) c)); }
+				else { json.append(c); }
+			}
+			json.append('"');
+		}
+		return json.append(']').toString();
+	}
+}
@@ -0,0 +1,347 @@
+package packageTrie;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Подсказки по мере набора: префикс растет и укорачивается по одному символу,
+ * а состояние поиска не пересчитывается с начала префикса.
+ *
+ * Для точного совпадения и для каждой раскладки хранится путь узлов, поэтому нажатие
+ * стоит один переход по ребру. Если ни точного, ни раскладочного совпадения нет, включается
+ * режим опечаток: для каждого узла, до которого дошел бы обход в {@link Trie#near(String, int, int)},
+ * хранится строка таблицы расстояний до всех префиксов набранного префикса. Новый символ
+ * дописывает в каждую строку одну клетку, а узлы, в которые теперь можно спуститься,
+ * раскрываются; backspace просто отбрасывает последнюю клетку и узлы, раскрытые на этом нажатии.
+ * Подсказки совпадают с {@link Trie#hint(String, int)} для того же префикса.
+ *
+ * Сессия читает одну версию Trie и не годится после изменения этого Trie.
+ * @author roman khalkechev
+ */
+public class HintSession {
+	private final Trie trie;
+	private final int limit;
+	private char[] prefix = new char[16];
+	private int length;
+	private final Walk exact;
+	private final Walk[] layoutWalks;
+	//состояние поиска с опечатками или null, пока оно не понадобилось
+	private Typo typo;
+
+	HintSession(Trie trie, int limit) {
+		if (limit < 0) { throw new IllegalArgumentException("limit должен быть неотрицателен"); }
+		this.trie = trie;
+		this.limit = limit;
+		exact = new Walk(null);
+		KeyboardLayout[] layouts = KeyboardLayout.registered();
+		layoutWalks = new Walk[layouts.length];
+		for (int i = 0; i < layouts.length; i++) { layoutWalks[i] = new Walk(layouts[i]); }
+	}
+
+	/**
+	 * Добавление символа в конец префикса.
+	 *
+	 * @param c
+	 *         символ
+	 *
+	 * @return эта же сессия
+	 */
+	public HintSession append(char c) {
+		if (length == prefix.length) { prefix = Arrays.copyOf(prefix, length * 2); }
+		prefix[length++] = c;
+		exact.append(c);
+		for (Walk walk : layoutWalks) { walk.append(c); }
+		if (typo != null) {
+			if (typo.max != maxMisprint() || length > Trie.MAX_NEAR_PREFIX_LENGTH) { typo = null; }
+			else { typo.appendColumn(); }
+		}
+		return this;
+	}
+
+	/**
+	 * Удаление последнего символа префикса. Для пустого префикса ничего не делает.
+	 *
+	 * @return эта же сессия
+	 */
+	public HintSession backspace() {
+		if (length == 0) { return this; }
+		if (typo != null) { typo.removeColumn(); }
+		length--;
+		exact.backspace();
+		for (Walk walk : layoutWalks) { walk.backspace(); }
+		if (typo != null && typo.max != maxMisprint()) { typo = null; }
+		return this;
+	}
+
+	/**
+	 * Подсказки для текущего префикса.
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hints() {
+		trie.ensureTopBuilt();
+		TrieNode node = exact.node();
+		for (int i = 0; i < layoutWalks.length && node == null; i++) {
+			node = layoutWalks[i].node();
+		}
+		if (node != null) {
+			typo = null;
+			return trie.topPage(node, 0, limit);
+		}
+		//известная опечатка: состояние поиска с опечатками не сбрасывается, следующее нажатие может его продолжить
+		node = trie.searchTypo(getPrefix());
+		if (node != null) { return trie.topPage(node, 0, limit); }
+		//как в Trie.near: длинный префикс с опечатками не ищется
+		if (length > Trie.MAX_NEAR_PREFIX_LENGTH) { return Collections.<String>emptyList(); }
+		if (typo == null) { typo = new Typo(maxMisprint()); }
+		List<String> nearTop = typo.hints();
+		return nearTop == null ? Collections.<String>emptyList() : nearTop;
+	}
+
+	/**
+	 * Текущий префикс.
+	 *
+	 * @return префикс
+	 */
+	public String getPrefix() {
+		return new String(prefix, 0, length);
+	}
+
+	//как в Trie.hint: короткому префиксу (<= 5) - 1 опечатка, длинному - 2
+	private int maxMisprint() {
+		return length <= 5 ? 1 : 2;
+	}
+
+	/**
+	 * Путь по Trie для префикса, набранного в данной раскладке (null - без смены раскладки).
+	 * path[i] - узел для первых i символов; matched - сколько символов нашлось.
+	 */
+	private final class Walk {
+		private final KeyboardLayout layout;
+		private TrieNode[] path = new TrieNode[16];
+		private int matched;
+
+		Walk(KeyboardLayout layout) {
+			this.layout = layout;
+			path[0] = trie.getRoot();
+		}
+
+		//вызывается после добавления символа в префикс
+		void append(char c) {
+			if (matched != length - 1) { return; }
+			char key = layout == null ? c : layout.translate(c);
+			if (key == 0) { return; }
+			TrieNode child = path[matched].traverse(key);
+			if (child == null) { return; }
+			if (matched + 1 == path.length) { path = Arrays.copyOf(path, path.length * 2); }
+			path[++matched] = child;
+		}
+
+		//вызывается после удаления символа из префикса
+		void backspace() {
+			if (matched > length) { matched = length; }
+		}
+
+		TrieNode node() {
+			return matched == length ? path[matched] : null;
+		}
+	}
+
+	/**
+	 * Состояние поиска с опечатками. Узел с номером s - это узел Trie, до которого дошел бы
+	 * обход в глубину из near; cells[s][j] - расстояние между ключом узла и первыми j символами
+	 * префикса (вне полосы шириной 2 * max + 1 - infinity), mins[s][j] - минимум cells[s][0..j].
+	 * Родитель всегда имеет меньший номер, чем ребенок.
+	 *
+	 * Узел глубины d при префиксе длиннее d + max + 1 мертв: все его новые клетки - infinity,
+	 * раскрыт он уже был бы раньше, а дети читают его клетки только внутри своей полосы.
+	 * Поэтому нажатие обходит только узлы глубины от length - max - 1 (списки byDepth),
+	 * а мертвые узлы остаются в массивах лишь для backspace, который возвращает префикс
+	 * к длине, где они снова живы; лишние узлы отбрасываются по countAt.
+	 */
+	private final class Typo {
+		private final int max;
+		private final int infinity;
+		private int count;
+		private TrieNode[] nodes = new TrieNode[64];
+		private int[] parents = new int[64];
+		private int[] depths = new int[64];
+		private char[] labels = new char[64];
+		private int[][] cells = new int[64][];
+		private int[][] mins = new int[64][];
+		//длина префикса, при которой узел раскрыт, или -1
+		private int[] expandedAt = new int[64];
+		//расстояние до префикса и минимум по предкам, считаются в hints
+		private int[] distances = new int[64];
+		private int[] bounds = new int[64];
+		//countAt[m] - количество узлов после нажатия, давшего префикс длины m
+		private int[] countAt = new int[16];
+		//byDepth[d] - номера узлов глубины d по возрастанию, depthSizes[d] - их количество
+		private int[][] byDepth = new int[16][];
+		private int[] depthSizes = new int[16];
+		private int depthCount;
+
+		Typo(int max) {
+			this.max = max;
+			this.infinity = max + 1;
+			addState(trie.getRoot(), -1, (char) 0);
+			//префикс уже набран: строки считаются по одной клетке, как при наборе
+			expand(0);
+			for (int m = 1; m <= length; m++) { column(m); }
+		}
+
+		//новая клетка во всех живых строках для префикса длины length
+		void appendColumn() {
+			column(length);
+		}
+
+		//вызывается до удаления символа из префикса
+		void removeColumn() {
+			count = countAt[length - 1];
+			for (int d = 0; d < depthCount; d++) {
+				int size = depthSizes[d];
+				while (size > 0 && byDepth[d][size - 1] >= count) { size--; }
+				depthSizes[d] = size;
+			}
+			while (depthCount > 0 && depthSizes[depthCount - 1] == 0) { depthCount--; }
+			//раскрытые на этом нажатии узлы живы при префиксе длины length
+			for (int d = lowestDepth(length); d < depthCount; d++) {
+				for (int i = 0; i < depthSizes[d]; i++) {
+					int s = byDepth[d][i];
+					if (expandedAt[s] == length) { expandedAt[s] = -1; }
+				}
+			}
+		}
+
+		List<String> hints() {
+			int m = length;
+			//кандидатом может быть только узел, у которого клетка m в полосе
+			int lowest = Math.max(0, m - max);
+			int liveCount = 0;
+			for (int d = lowest; d < depthCount; d++) { liveCount += depthSizes[d]; }
+			TrieNode[] candidates = new TrieNode[liveCount];
+			int[] candidateDistances = new int[liveCount];
+			int candidateCount = 0;
+			//родители обходятся раньше детей: глубины идут по возрастанию
+			for (int d = lowest; d < depthCount; d++) {
+				for (int i = 0; i < depthSizes[d]; i++) {
+					int s = byDepth[d][i];
+					distances[s] = Math.abs(d - m) > max ? infinity : cells[s][m];
+					//родитель мельче lowest вне полосы, как и все его предки
+					bounds[s] = d == lowest ? infinity : Math.min(bounds[parents[s]], distances[parents[s]]);
+					//потомок близкого узла нужен, только если он еще ближе к префиксу
+					if (distances[s] < bounds[s]) {
+						candidates[candidateCount] = nodes[s];
+						candidateDistances[candidateCount++] = distances[s];
+					}
+				}
+			}
+			return trie.mergeNear(candidates, candidateDistances, candidateCount, limit);
+		}
+
+		//самая мелкая глубина узлов, которые еще нужно обходить при префиксе длины m
+		private int lowestDepth(int m) {
+			return Math.max(0, m - max - 1);
+		}
+
+		private void column(int m) {
+			for (int d = lowestDepth(m); d < depthCount; d++) {
+				for (int i = 0; i < depthSizes[d]; i++) {
+					int s = byDepth[d][i];
+					if (cells[s].length <= m) {
+						cells[s] = Arrays.copyOf(cells[s], cells[s].length * 2);
+						mins[s] = Arrays.copyOf(mins[s], mins[s].length * 2);
+					}
+					setCell(s, m);
+				}
+			}
+			expand(m);
+		}
+
+		//раскрытие узлов, в которые можно спуститься при префиксе длины m
+		private void expand(int m) {
+			//дети попадают в следующую глубину и проверяются в этом же проходе
+			for (int d = lowestDepth(m); d < depthCount; d++) {
+				for (int i = 0; i < depthSizes[d]; i++) {
+					int s = byDepth[d][i];
+					if (expandedAt[s] >= 0 || mins[s][m] > max || d >= m + max) { continue; }
+					expandedAt[s] = m;
+					Iterator<Map.Entry<Character, TrieNode>> edges = nodes[s].getEdges();
+					if (edges == null) { continue; }
+					while (edges.hasNext()) {
+						Map.Entry<Character, TrieNode> edge = edges.next();
+						int child = addState(edge.getValue(), s, edge.getKey());
+						for (int j = 0; j <= m; j++) { setCell(child, j); }
+					}
+				}
+			}
+			if (m == countAt.length) { countAt = Arrays.copyOf(countAt, m * 2); }
+			countAt[m] = count;
+		}
+
+		private int addState(TrieNode node, int parent, char label) {
+			if (count == nodes.length) {
+				int capacity = count * 2;
+				nodes = Arrays.copyOf(nodes, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				depths = Arrays.copyOf(depths, capacity);
+				labels = Arrays.copyOf(labels, capacity);
+				cells = Arrays.copyOf(cells, capacity);
+				mins = Arrays.copyOf(mins, capacity);
+				expandedAt = Arrays.copyOf(expandedAt, capacity);
+				distances = Arrays.copyOf(distances, capacity);
+				bounds = Arrays.copyOf(bounds, capacity);
+			}
+			int s = count++;
+			nodes[s] = node;
+			parents[s] = parent;
+			int depth = parent < 0 ? 0 : depths[parent] + 1;
+			depths[s] = depth;
+			labels[s] = label;
+			//строка узла, оставшаяся от удаленного backspace узла, переиспользуется
+			int capacity = Math.max(16, length + 1);
+			if (cells[s] == null || cells[s].length < capacity) {
+				cells[s] = new int[capacity];
+				mins[s] = new int[capacity];
+			}
+			expandedAt[s] = -1;
+			if (depth == byDepth.length) {
+				byDepth = Arrays.copyOf(byDepth, depth * 2);
+				depthSizes = Arrays.copyOf(depthSizes, depth * 2);
+			}
+			if (byDepth[depth] == null) { byDepth[depth] = new int[16]; }
+			else if (depthSizes[depth] == byDepth[depth].length) {
+				byDepth[depth] = Arrays.copyOf(byDepth[depth], depthSizes[depth] * 2);
+			}
+			byDepth[depth][depthSizes[depth]++] = s;
+			if (depth == depthCount) { depthCount++; }
+			return s;
+		}
+
+		//клетка (s, j) по строкам родителя и деда, как в DamerauLevensteinRows
+		private void setCell(int s, int j) {
+			int d = depths[s];
+			int value;
+			if (Math.abs(d - j) > max) {
+				value = infinity;
+			}
+			else if (d == 0 || j == 0) {
+				value = d + j;
+			}
+			else {
+				int[] previous = cells[parents[s]];
+				int cost = labels[s] == prefix[j - 1] ? 0 : 1;
+				value = Math.min(Math.min(cells[s][j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+				//транспозиция двух соседних символов
+				if (d > 1 && j > 1 && labels[s] == prefix[j - 2] && labels[parents[s]] == prefix[j - 1]) {
+					value = Math.min(value, cells[parents[parents[s]]][j - 2] + 1);
+				}
+				if (value > infinity) { value = infinity; }
+			}
+			cells[s][j] = value;
+			mins[s][j] = j == 0 ? value : Math.min(mins[s][j - 1], value);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package packageTrie;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма неотрицательных значений (задержек в наносекундах, количеств) в духе HdrHistogram.
+ *
+ * Значения до 64 считаются точно, дальше каждая степень двойки делится на 32 равные корзины,
+ * так что ошибка квантиля не больше 1/32 значения при любом порядке величин, а память постоянна.
+ * Запись - одно атомарное увеличение счетчика, без блокировок, из любого числа потоков.
+ * @author roman khalkechev
+ */
+public final class Histogram {
+	//корзин на степень двойки
+	private static final int SUB_BUCKETS = 32;
+	private static final int SUB_BUCKET_BITS = 5;
+	//значения меньше 2 * SUB_BUCKETS занимают по корзине
+	private static final int LINEAR = 2 * SUB_BUCKETS;
+	private static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Добавление значения. Отрицательные значения считаются нулем.
+	 *
+	 * @param value
+	 *             значение
+	 */
+	public void record(long value) {
+		if (value < 0) { value = 0; }
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) { current = max.get(); }
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Значение, не меньше которого percentile процентов записанных значений
+	 * (с точностью до корзины).
+	 *
+	 * @param percentile
+	 *                  процент от 0 до 100
+	 *
+	 * @return верхняя граница корзины квантиля или 0 для пустой гистограммы
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) { throw new IllegalArgumentException("Процент должен быть от 0 до 100"); }
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) { return 0; }
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) { return Math.min(upperBound(i), getMax()); }
+		}
+		return getMax();
+	}
+
+	/**
+	 * Копия текущего состояния: дальнейшие записи в исходную гистограмму на нее не влияют.
+	 *
+	 * @return копия
+	 */
+	public Histogram copy() {
+		Histogram copy = new Histogram();
+		for (int i = 0; i < BUCKETS; i++) { copy.counts.set(i, counts.get(i)); }
+		copy.count.set(count.get());
+		copy.sum.set(sum.get());
+		copy.max.set(max.get());
+		return copy;
+	}
+
+	/**
+	 * Сброс всех значений.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) { counts.set(i, 0); }
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d", getCount(), getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+	}
+
+	private static int index(long value) {
+		if (value < LINEAR) { return (int) value; }
+		//старший бит задает степень двойки, следующие SUB_BUCKET_BITS бит - корзину в ней
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	private static long upperBound(int index) {
+		if (index < LINEAR) { return index; }
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		int sub = (index - LINEAR) % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1L) << shift) - 1;
+	}
+}
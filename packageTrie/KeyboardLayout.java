@@ -0,0 +1,153 @@
+package packageTrie;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Смена раскладки клавиатуры: какой символ получился бы, если ту же клавишу нажать
+ * в другой раскладке.
+ *
+ * Таблица - массив char, индексированный исходным символом, поэтому перевод символа
+ * не создает объектов. Пробел и цифры, если раскладка их не переопределяет, переходят
+ * сами в себя, остальные символы без пары переводу не подлежат.
+ * Подсказки пробуют все зарегистрированные раскладки по порядку регистрации.
+ * @author roman khalkechev
+ */
+public final class KeyboardLayout {
+	//клавиши латинской раскладки с буквами, которые на русской раскладке заняты буквами
+	private static final String QWERTY_KEYS = "qwertyuiop[]asdfghjkl;'zxcvbnm,.";
+	private static final String RUSSIAN_KEYS = "йцукенгшщзхъфывапролджэячсмитьбю";
+	//в казахской раскладке цифровой ряд занят казахскими буквами
+	private static final String KAZAKH_DIGIT_KEYS = "234589" + "0-=";
+	private static final String KAZAKH_LETTERS = "әіңғүұ" + "қөһ";
+
+	/** Латиница, набранная вместо русских букв: "ghbdtn" - "привет". */
+	public static final KeyboardLayout EN_RU = new KeyboardLayout("en-ru", QWERTY_KEYS, RUSSIAN_KEYS);
+	/** Русские буквы, набранные вместо латиницы: "руддщ" - "hello". */
+	public static final KeyboardLayout RU_EN = EN_RU.reverse("ru-en");
+	/** Латиница, набранная вместо казахских букв. */
+	public static final KeyboardLayout EN_KZ = new KeyboardLayout("en-kz", QWERTY_KEYS + KAZAKH_DIGIT_KEYS, RUSSIAN_KEYS + KAZAKH_LETTERS);
+	/** Казахские буквы, набранные вместо латиницы. */
+	public static final KeyboardLayout KZ_EN = EN_KZ.reverse("kz-en");
+
+	//массив заменяется целиком при регистрации, поэтому читать его можно без блокировок
+	private static volatile KeyboardLayout[] layouts = {EN_RU, RU_EN, EN_KZ, KZ_EN};
+
+	private final String name;
+	//table[c] - символ в другой раскладке или 0, если пары нет
+	private final char[] table;
+
+	/**
+	 * Раскладка по парам символов: i-й символ from переходит в i-й символ to.
+	 *
+	 * @param name
+	 *            имя раскладки
+	 * @param from
+	 *            символы, набранные в неправильной раскладке
+	 * @param to
+	 *          те же клавиши в правильной раскладке
+	 */
+	public KeyboardLayout(String name, String from, String to) {
+		if (from.length() != to.length()) { throw new IllegalArgumentException("Строки раскладки разной длины"); }
+		char max = '9';
+		for (int i = 0; i < from.length(); i++) {
+			if (from.charAt(i) > max) { max = from.charAt(i); }
+		}
+		this.name = name;
+		this.table = new char[max + 1];
+		table[' '] = ' ';
+		for (char c = '0'; c <= '9'; c++) { table[c] = c; }
+		for (int i = 0; i < from.length(); i++) {
+			table[from.charAt(i)] = to.charAt(i);
+		}
+	}
+
+	private KeyboardLayout(String name, char[] table) {
+		this.name = name;
+		this.table = table;
+	}
+
+	/**
+	 * Обратная раскладка. Если несколько символов переходят в один, обратно он переходит в последний из них.
+	 *
+	 * @param name
+	 *            имя обратной раскладки
+	 *
+	 * @return обратная раскладка
+	 */
+	public KeyboardLayout reverse(String name) {
+		char max = 0;
+		for (int c = 0; c < table.length; c++) {
+			if (table[c] > max) { max = table[c]; }
+		}
+		char[] reverse = new char[max + 1];
+		for (int c = 0; c < table.length; c++) {
+			if (table[c] != 0) { reverse[table[c]] = (char) c; }
+		}
+		return new KeyboardLayout(name, reverse);
+	}
+
+	/**
+	 * Перевод символа.
+	 *
+	 * @param c
+	 *         символ
+	 *
+	 * @return символ в другой раскладке или 0, если пары нет
+	 */
+	public char translate(char c) {
+		return c < table.length ? table[c] : 0;
+	}
+
+	/**
+	 * Перевод строки.
+	 *
+	 * @param s
+	 *         строка
+	 *
+	 * @return строка в другой раскладке или null, если в ней есть символ без пары
+	 */
+	public String translate(CharSequence s) {
+		char[] result = new char[s.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = translate(s.charAt(i));
+			if (result[i] == 0) { return null; }
+		}
+		return new String(result);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Регистрация дополнительной раскладки: подсказки будут пробовать ее после уже известных.
+	 *
+	 * @param layout
+	 *              раскладка
+	 */
+	public static synchronized void register(KeyboardLayout layout) {
+		KeyboardLayout[] registered = Arrays.copyOf(layouts, layouts.length + 1);
+		registered[layouts.length] = layout;
+		layouts = registered;
+	}
+
+	/**
+	 * Зарегистрированные раскладки в порядке регистрации.
+	 *
+	 * @return список раскладок только для чтения
+	 */
+	public static List<KeyboardLayout> getLayouts() {
+		return Collections.unmodifiableList(Arrays.asList(layouts));
+	}
+
+	//зарегистрированные раскладки без копирования, для поиска подсказок
+	static KeyboardLayout[] registered() {
+		return layouts;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
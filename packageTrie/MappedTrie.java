@@ -0,0 +1,486 @@
+package packageTrie;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Trie только для чтения, отображенное в память из снимка {@link TrieSnapshot}.
+ *
+ * Все обращения идут прямо в отображенный буфер абсолютными чтениями, поэтому открытие
+ * не копирует данные в кучу, несколько JVM на одной машине делят один page cache,
+ * а искать подсказки можно из любого числа потоков. Пары известных опечаток тоже ищутся
+ * прямо в буфере ({@link TypoIndex#map}).
+ * @author roman khalkechev
+ */
+public class MappedTrie {
+	private final MappedByteBuffer buffer;
+	private final int topSize;
+	private final int nodeCount;
+	private final int entryCount;
+
+	//начала разделов в буфере
+	private final int firstChildBase;
+	private final int parentsBase;
+	private final int entriesBase;
+	private final int topOffsetBase;
+	private final int topEntriesBase;
+	private final int ranksBase;
+	private final int poolOffsetBase;
+	private final int labelsBase;
+	private final int poolBase;
+	//известные опечатки или null
+	private final TypoIndex typos;
+
+	private MappedTrie(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < TrieSnapshot.HEADER_SIZE || buffer.getInt(0) != TrieSnapshot.MAGIC) {
+			throw new IOException("Файл не является снимком Trie");
+		}
+		if (buffer.getInt(4) != TrieSnapshot.VERSION) {
+			throw new IOException("Неподдерживаемая версия снимка: " + buffer.getInt(4));
+		}
+		topSize = buffer.getInt(8);
+		nodeCount = buffer.getInt(12);
+		entryCount = buffer.getInt(16);
+		int topEntryCount = buffer.getInt(20);
+		int poolSize = buffer.getInt(24);
+		int typoCount = buffer.getInt(28);
+		int typoLength = buffer.getInt(32);
+
+		long base = TrieSnapshot.HEADER_SIZE;
+		firstChildBase = (int) base;
+		base += 4L * (nodeCount + 1);
+		parentsBase = (int) base;
+		base += 4L * nodeCount;
+		entriesBase = (int) base;
+		base += 4L * nodeCount;
+		topOffsetBase = (int) base;
+		base += 4L * (nodeCount + 1);
+		topEntriesBase = (int) base;
+		base += 4L * topEntryCount;
+		ranksBase = (int) base;
+		base += 4L * entryCount;
+		poolOffsetBase = (int) base;
+		base += 4L * (entryCount + 1);
+		int typoOffsetBase = (int) base;
+		base += 4L * (2L * typoCount + 1);
+		labelsBase = (int) base;
+		base += 2L * nodeCount;
+		int typoCharsBase = (int) base;
+		base += 2L * (typoLength + (nodeCount + typoLength) % 2);
+		poolBase = (int) base;
+		base += poolSize;
+		if (typoCount < 0 || typoLength < 0 || base != buffer.capacity()
+				|| buffer.getInt(typoOffsetBase) != 0 || buffer.getInt(typoOffsetBase + 8 * typoCount) != typoLength) {
+			throw new IOException("Снимок Trie поврежден");
+		}
+		typos = TypoIndex.map(buffer, typoOffsetBase, typoCharsBase, typoCount);
+	}
+
+	/**
+	 * Открытие снимка.
+	 *
+	 * @param path
+	 *            файл снимка
+	 *
+	 * @return Trie, отображенное в память
+	 */
+	public static MappedTrie open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) { throw new IOException("Снимок Trie больше 2 ГБ"); }
+			//отображение остается действительным и после закрытия канала
+			return new MappedTrie(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Поиск узла с заданным ключем.
+	 *
+	 * @param key
+	 *            запрос
+	 *
+	 * @return номер узла или -1, если такого нет
+	 */
+	public int searchNode(String key) {
+		int node = 0;
+		for (int i = 0; i < key.length() && node >= 0; i++) {
+			node = traverse(node, key.charAt(i));
+		}
+		return node;
+	}
+	//поиск узла по ключу, набранному в неправильной раскладке, без промежуточной строки
+	private int searchNode(CharSequence key, KeyboardLayout layout) {
+		int node = 0;
+		for (int i = 0; i < key.length() && node >= 0; i++) {
+			char c = layout.translate(key.charAt(i));
+			if (c == 0) { return -1; }
+			node = traverse(node, c);
+		}
+		return node;
+	}
+
+
+	/**
+	 * Функция подсказок. Возвращает подсказки по префиксу.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix) {
+		return hint(prefix, 0, Trie.DEFAULT_HINT_COUNT);
+	}
+
+	/**
+	 * Функция подсказок. Возвращает k лучших подсказок по префиксу.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix, int k) {
+		return hint(prefix, 0, k);
+	}
+
+	/**
+	 * Функция подсказок. Возвращает страницу подсказок по префиксу так же, как
+	 * {@link Trie#hint(String, int, int)}: точное совпадение, смена раскладки, известная опечатка
+	 * из словаря, поиск с опечаткой.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param offset
+	 *              номер первой подсказки
+	 * @param limit
+	 *             количество подсказок
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix, int offset, int limit) {
+		if (offset < 0 || limit < 0) { throw new IllegalArgumentException("offset и limit должны быть неотрицательны"); }
+		int node = searchNode(prefix);
+		for (KeyboardLayout layout : KeyboardLayout.registered()) {
+			if (node >= 0) { break; }
+			node = searchNode(prefix, layout);
+		}
+		if (node < 0) { node = searchTypo(prefix); }
+		if (node >= 0) { return topPage(node, offset, limit); }
+
+		List<String> nearTop = near(prefix, prefix.length() <= 5 ? 1 : 2, offset + limit);
+		if (nearTop == null || offset >= nearTop.size()) { return Collections.emptyList(); }
+		return new ArrayList<String>(nearTop.subList(offset, Math.min(nearTop.size(), offset + limit)));
+	}
+
+	//узел исправленного префикса для известной опечатки, как Trie.searchTypo, или -1
+	private int searchTypo(String prefix) {
+		if (typos == null) { return -1; }
+		int best = -1;
+		for (TypoIndex.Correction correction : typos.lookup(prefix)) {
+			//исправление, удаленное из словаря, не годится
+			int query = searchNode(correction.query);
+			if (query < 0 || buffer.getInt(entriesBase + 4 * query) < 0) { continue; }
+			int node = searchNode(correction.prefix);
+			if (best < 0 || better(topEntry(topOffset(node)), topEntry(topOffset(best)))) { best = node; }
+		}
+		return best;
+	}
+
+	/**
+	 * Возвращает наиболее вероятные подсказки для префикса, в котором вероятно сделана опечатка.
+	 * Подсказки близких узлов сливаются по оценке "ранк, умноженный на штраф за каждую опечатку",
+	 * как в {@link Trie#near(String, int, int)}, со штрафом {@link Trie#DEFAULT_TYPO_PENALTY}.
+	 *
+	 * @param prefix
+	 *              заданный префикс
+	 * @param max
+	 *           максимальное расстояние
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок или null, если близких префиксов нет или префикс длиннее
+	 *         {@link Trie#MAX_NEAR_PREFIX_LENGTH}
+	 */
+	public List<String> near(String prefix, int max, int k) {
+		if (prefix.length() > Trie.MAX_NEAR_PREFIX_LENGTH) { return null; }
+		//обход в глубину со строками таблицы расстояний, как в Trie.near
+		List<NearCandidate> candidates = new ArrayList<NearCandidate>();
+		DamerauLevensteinRows rows = DamerauLevensteinRows.forThread(prefix, max);
+		if (rows.distance() <= max) { addCandidate(candidates, 0, rows.distance()); }
+		collectNear(0, rows, Math.min(rows.distance(), max + 1), candidates);
+		if (candidates.isEmpty()) { return null; }
+
+		//слияние top всех близких узлов
+		PriorityQueue<NearCandidate> heap = new PriorityQueue<NearCandidate>(candidates.size(), new Comparator<NearCandidate>() {
+			public int compare(NearCandidate first, NearCandidate second) {
+				if (first.score != second.score) { return first.score > second.score ? -1 : 1; }
+				//при равной оценке - по алфавиту, как в Trie; записи пронумерованы по алфавиту
+				return first.entry < second.entry ? -1 : (first.entry == second.entry ? 0 : 1);
+			}
+		});
+		heap.addAll(candidates);
+
+		List<String> results = new ArrayList<String>(k);
+		int[] emitted = new int[k];
+		int count = 0;
+		while (count < k && !heap.isEmpty()) {
+			NearCandidate candidate = heap.poll();
+			int node = candidate.node;
+			if (node < 0 || candidate.index >= 0) {
+				//отдельный запрос или очередной элемент top
+				if (!contains(emitted, count, candidate.entry)) {
+					emitted[count++] = candidate.entry;
+					results.add(getQuery(candidate.entry));
+				}
+				if (node < 0) { continue; }
+				int topLength = topOffset(node + 1) - topOffset(node);
+				if (candidate.index + 1 < topLength) {
+					heap.add(new NearCandidate(node, candidate.index + 1, candidate.distance, topEntry(topOffset(node) + candidate.index + 1)));
+					continue;
+				}
+				//top исчерпан; если он был полным, в поддереве могут быть еще запросы
+				if (topLength < topSize) { continue; }
+			}
+			//раскрытие поддерева: собственный запрос узла и поддеревья детей
+			int entry = buffer.getInt(entriesBase + 4 * node);
+			if (entry >= 0) { heap.add(new NearCandidate(-1, -1, candidate.distance, entry)); }
+			for (int child = firstChild(node); child < firstChild(node + 1); child++) {
+				if (topOffset(child + 1) > topOffset(child)) {
+					heap.add(new NearCandidate(child, -1, candidate.distance, topEntry(topOffset(child))));
+				}
+			}
+		}
+		return results;
+	}
+
+	//обход в глубину для near, как Trie.collectNear
+	private void collectNear(int node, DamerauLevensteinRows rows, int ancestorDistance, List<NearCandidate> candidates) {
+		for (int child = firstChild(node); child < firstChild(node + 1); child++) {
+			rows.push(label(child));
+			int distance = rows.distance();
+			//потомок близкого узла нужен, только если он еще ближе к префиксу
+			if (distance < ancestorDistance) { addCandidate(candidates, child, distance); }
+			if (rows.canDescend()) {
+				collectNear(child, rows, Math.min(distance, ancestorDistance), candidates);
+			}
+			rows.pop();
+		}
+	}
+
+	//близкий узел как начало его top в слиянии; узел без запросов пропускается
+	private void addCandidate(List<NearCandidate> candidates, int node, int distance) {
+		if (topOffset(node + 1) > topOffset(node)) {
+			candidates.add(new NearCandidate(node, 0, distance, topEntry(topOffset(node))));
+		}
+	}
+
+	/**
+	 * Восстанавливает ключ узла по цепочке родителей.
+	 *
+	 * @param node
+	 *            номер узла
+	 *
+	 * @return ключ
+	 */
+	public String getKey(int node) {
+		StringBuilder key = new StringBuilder();
+		appendKey(node, key);
+		return key.toString();
+	}
+
+	/**
+	 * Возвращает количество узлов.
+	 *
+	 * @return количество узлов
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Возвращает количество запросов, которое хранится в top каждого узла.
+	 *
+	 * @return размер top
+	 */
+	public int getTopSize() {
+		return topSize;
+	}
+
+	/**
+	 * Возвращает количество запросов.
+	 *
+	 * @return количество запросов
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Известные опечатки снимка, для построения следующего снимка.
+	 *
+	 * @return индекс или null, если опечаток нет
+	 */
+	TypoIndex getTypos() {
+		return typos;
+	}
+
+	/**
+	 * Возвращает запрос по номеру записи; строка декодируется из буфера при каждом вызове.
+	 *
+	 * @param entry
+	 *             номер записи
+	 *
+	 * @return запрос
+	 */
+	public String getQuery(int entry) {
+		int from = buffer.getInt(poolOffsetBase + 4 * entry);
+		int to = buffer.getInt(poolOffsetBase + 4 * (entry + 1));
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(poolBase + from + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Возвращает ранк запроса по номеру записи.
+	 *
+	 * @param entry
+	 *             номер записи
+	 *
+	 * @return ранк
+	 */
+	public int getRank(int entry) {
+		return buffer.getInt(ranksBase + 4 * entry);
+	}
+
+	//страница top узла; дальше хранимого top - обход "лучший первым", как в Trie
+	private List<String> topPage(int node, int offset, int limit) {
+		int topFrom = topOffset(node);
+		int topLength = topOffset(node + 1) - topFrom;
+		long end = (long) offset + limit;
+		if (end <= topLength || topLength < topSize) {
+			List<String> page = new ArrayList<String>();
+			for (int i = offset; i < Math.min(end, topLength); i++) {
+				page.add(getQuery(topEntry(topFrom + i)));
+			}
+			return page;
+		}
+
+		List<String> page = new ArrayList<String>(limit);
+		//кандидат: {номер записи, номер узла или -1 для отдельного запроса}
+		PriorityQueue<int[]> candidates = new PriorityQueue<int[]>(16, new Comparator<int[]>() {
+			public int compare(int[] first, int[] second) {
+				if (first[0] == second[0]) { return 0; }
+				return better(first[0], second[0]) ? -1 : 1;
+			}
+		});
+		candidates.add(new int[] {topEntry(topFrom), node});
+		int count = 0;
+		while (!candidates.isEmpty() && count < end) {
+			int[] candidate = candidates.poll();
+			if (candidate[1] < 0) {
+				if (count++ >= offset) { page.add(getQuery(candidate[0])); }
+				continue;
+			}
+			int entry = buffer.getInt(entriesBase + 4 * candidate[1]);
+			if (entry >= 0) { candidates.add(new int[] {entry, -1}); }
+			for (int child = firstChild(candidate[1]); child < firstChild(candidate[1] + 1); child++) {
+				if (topOffset(child + 1) > topOffset(child)) {
+					candidates.add(new int[] {topEntry(topOffset(child)), child});
+				}
+			}
+		}
+		return page;
+	}
+
+	//записи в снимке пронумерованы по алфавиту, поэтому при равных ранках сравниваются номера
+	private boolean better(int first, int second) {
+		int firstRank = getRank(first);
+		int secondRank = getRank(second);
+		return firstRank > secondRank || (firstRank == secondRank && first < second);
+	}
+
+	private static boolean contains(int[] entries, int size, int entry) {
+		for (int i = 0; i < size; i++) {
+			if (entries[i] == entry) { return true; }
+		}
+		return false;
+	}
+
+	/**
+	 * Элемент слияния в near: очередной элемент top близкого узла (index >= 0),
+	 * поддерево узла целиком (index == -1) или отдельный запрос (node == -1).
+	 */
+	private final class NearCandidate {
+		final int node;
+		final int index;
+		final int distance;
+		final int entry;
+		final double score;
+
+		NearCandidate(int node, int index, int distance, int entry) {
+			this.node = node;
+			this.index = index;
+			this.distance = distance;
+			this.entry = entry;
+			this.score = getRank(entry) * Math.pow(Trie.DEFAULT_TYPO_PENALTY, distance);
+		}
+	}
+
+	//бинарный поиск ребенка по метке ребра
+	private int traverse(int node, char c) {
+		int low = firstChild(node);
+		int high = firstChild(node + 1) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char label = label(middle);
+			if (label < c) { low = middle + 1; }
+			else if (label > c) { high = middle - 1; }
+			else { return middle; }
+		}
+		return -1;
+	}
+
+	private void appendKey(int node, StringBuilder key) {
+		int start = key.length();
+		for (; node > 0; node = buffer.getInt(parentsBase + 4 * node)) {
+			key.append(label(node));
+		}
+		for (int i = start, j = key.length() - 1; i < j; i++, j--) {
+			char c = key.charAt(i);
+			key.setCharAt(i, key.charAt(j));
+			key.setCharAt(j, c);
+		}
+	}
+
+	private int firstChild(int node) {
+		return buffer.getInt(firstChildBase + 4 * node);
+	}
+
+	private int topOffset(int node) {
+		return buffer.getInt(topOffsetBase + 4 * node);
+	}
+
+	private int topEntry(int index) {
+		return buffer.getInt(topEntriesBase + 4 * index);
+	}
+
+	private char label(int node) {
+		return buffer.getChar(labelsBase + 2 * node);
+	}
+}
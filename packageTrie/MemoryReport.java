@@ -0,0 +1,71 @@
+package packageTrie;
+import java.io.IOException;
+
+/**
+ * Сравнение занимаемой памяти двух реализаций Trie на одном и том же файле.
+ * @author roman khalkechev
+ */
+public class MemoryReport {
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Использование: MemoryReport <файл словаря>");
+			return;
+		}
+		String fileName = args[0];
+
+		long before = usedMemory();
+		Trie trie = new Trie();
+		trie.createTrie(fileName);
+		long trieBytes = usedMemory() - before;
+		//не даем сборщику мусора собрать Trie до замера
+		System.out.println("Trie (TreeMap в каждом узле): " + megabytes(trieBytes) + " МБ, корень: "
+				+ trie.getRoot().getChildrenCnt() + " ребер, известных опечаток: " + trie.getTypoCount());
+		trie = null;
+
+		before = usedMemory();
+		CompactTrie compactTrie = new CompactTrie();
+		compactTrie.createTrie(fileName);
+		long compactBytes = usedMemory() - before;
+		System.out.println("CompactTrie (плоские массивы): " + megabytes(compactBytes) + " МБ, узлов: "
+				+ compactTrie.getNodeCount() + ", оценка по массивам: " + megabytes(compactTrie.sizeInBytes()) + " МБ");
+
+		if (compactBytes > 0) {
+			System.out.println("Отношение: " + String.format("%.1f", (double) trieBytes / compactBytes));
+		}
+		compactTrie = null;
+
+		before = usedMemory();
+		RadixTrie radixTrie = new RadixTrie();
+		radixTrie.createTrie(fileName);
+		long radixBytes = usedMemory() - before;
+		System.out.println("RadixTrie (сжатые пути): " + megabytes(radixBytes) + " МБ, узлов: "
+				+ radixTrie.getNodeCount() + ", оценка: " + megabytes(radixTrie.sizeInBytes()) + " МБ");
+		radixTrie = null;
+
+		before = usedMemory();
+		DoubleArrayTrie doubleArrayTrie = new DoubleArrayTrie();
+		doubleArrayTrie.createTrie(fileName);
+		long doubleArrayBytes = usedMemory() - before;
+		System.out.println("DoubleArrayTrie (base/check): " + megabytes(doubleArrayBytes) + " МБ, узлов: "
+				+ doubleArrayTrie.getNodeCount() + ", заполненность " + String.format("%.3f", doubleArrayTrie.getDensity())
+				+ ", оценка: " + megabytes(doubleArrayTrie.sizeInBytes()) + " МБ");
+	}
+
+	//занятая память кучи после нескольких сборок мусора
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static String megabytes(long bytes) {
+		return String.format("%.2f", bytes / (1024.0 * 1024.0));
+	}
+}
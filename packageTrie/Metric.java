@@ -2,6 +2,10 @@ package packageTrie;
 
 /**
  * Метрика
+ *
+ * Реализации держат рабочие буферы между вызовами, поэтому экземпляр, созданный конструктором,
+ * можно вызывать только из одного потока. Для общего экземпляра реализации дают фабрику
+ * threadSafe(): буферы у каждого потока свои, и повторные вызовы в потоке ничего не выделяют.
  * @author roman khalkechev
  */
 public abstract class Metric {
@@ -0,0 +1,118 @@
+package packageTrie;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сверка {@link BitParallelDamerauLevensteinMetric} с {@link DamerauLevensteinMetric} на случайных парах строк.
+ *
+ * Строки берутся из маленького алфавита, чтобы часто встречались совпадения и транспозиции,
+ * длиной до 80 символов, чтобы проверялся и переход на обычную метрику, а также пары
+ * "запрос - запрос с опечаткой" из {@link DictionaryGenerator}. Расстояния должны совпадать,
+ * если они не больше max; иначе обе метрики должны вернуть значение больше max.
+ *
+ * Потом те же проверки идут в нескольких потоках через общие экземпляры из threadSafe().
+ *
+ * Аргументы: [количество пар] [зерно генератора].
+ * @author roman khalkechev
+ */
+public class MetricTry {
+	private static final int THREADS = 4;
+
+	public static void main(String[] args) throws InterruptedException {
+		final int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		int errors = check(new DamerauLevensteinMetric(), new BitParallelDamerauLevensteinMetric(), pairs, seed);
+		System.out.println("Пар: " + pairs + ", расхождений: " + errors);
+
+		//общие экземпляры threadSafe() из нескольких потоков против собственной метрики каждого потока
+		final Metric shared = DamerauLevensteinMetric.threadSafe();
+		final Metric sharedBitParallel = BitParallelDamerauLevensteinMetric.threadSafe();
+		final AtomicInteger concurrentErrors = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			final long threadSeed = seed + t + 1;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					concurrentErrors.addAndGet(check(new DamerauLevensteinMetric(), shared, pairs / THREADS, threadSeed));
+					concurrentErrors.addAndGet(check(new DamerauLevensteinMetric(), sharedBitParallel, pairs / THREADS, threadSeed));
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) { thread.join(); }
+		System.out.println("Потоков: " + THREADS + ", расхождений у общих метрик: " + concurrentErrors.get());
+		if (errors > 0 || concurrentErrors.get() > 0) { System.exit(1); }
+	}
+
+	//количество пар, на которых actual расходится с expected
+	private static int check(Metric expected, Metric actual, int pairs, long seed) {
+		Random random = new Random(seed);
+		DictionaryGenerator generator = new DictionaryGenerator(seed);
+		int errors = 0;
+		for (int i = 0; i < pairs; i++) {
+			String first;
+			String second;
+			if (i % 2 == 0) {
+				String alphabet = i % 4 == 0 ? "ab" : "абвгд";
+				first = randomString(random, alphabet, random.nextInt(i % 8 == 0 ? 81 : 12));
+				second = i % 3 == 0 ? randomString(random, alphabet, random.nextInt(12)) : mutate(random, first, alphabet);
+			}
+			else {
+				first = generator.query();
+				second = generator.typo(first);
+			}
+			int max = random.nextInt(5) - 1;
+			boolean prefix = random.nextBoolean();
+			if (prefix) { second = second.substring(0, random.nextInt(second.length() + 1)); }
+
+			int expectedDistance = expected.getDistance(first, second, max, prefix);
+			int actualDistance = actual.getDistance(first, second, max, prefix);
+			boolean isEqual = (max >= 0 && expectedDistance > max) ? actualDistance > max : actualDistance == expectedDistance;
+			if (!isEqual) {
+				if (errors < 10) {
+					System.out.println((prefix ? "prefix " : "") + "'" + first + "' '" + second + "' max " + max
+							+ ": ожидалось " + expectedDistance + ", получено " + actualDistance);
+				}
+				errors++;
+			}
+		}
+		return errors;
+	}
+
+	private static String randomString(Random random, String alphabet, int length) {
+		StringBuilder result = new StringBuilder(length);
+		for (int i = 0; i < length; i++) { result.append(alphabet.charAt(random.nextInt(alphabet.length()))); }
+		return result.toString();
+	}
+
+	//от одной до трех правок: замена, вставка, удаление или перестановка соседних символов
+	private static String mutate(Random random, String source, String alphabet) {
+		StringBuilder result = new StringBuilder(source);
+		int edits = 1 + random.nextInt(3);
+		for (int e = 0; e < edits; e++) {
+			int position = result.length() == 0 ? 0 : random.nextInt(result.length());
+			char c = alphabet.charAt(random.nextInt(alphabet.length()));
+			switch (result.length() == 0 ? 1 : random.nextInt(4)) {
+			case 0:
+				result.setCharAt(position, c);
+				break;
+			case 1:
+				result.insert(position, c);
+				break;
+			case 2:
+				result.deleteCharAt(position);
+				break;
+			default:
+				if (position + 1 < result.length()) {
+					char next = result.charAt(position + 1);
+					result.setCharAt(position + 1, result.charAt(position));
+					result.setCharAt(position, next);
+				}
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,273 @@
+package packageTrie;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Параллельная загрузка словаря в пустое Trie.
+ *
+ * Строки разбираются кусками и раскладываются по первому символу запроса. Для каждого первого
+ * символа поддерево строится отдельно; номер записи запроса в таблице - это номер его первой
+ * строки среди всех различных запросов, как при последовательной вставке.
+ * @author roman khalkechev
+ */
+class ParallelLoader {
+	private final Trie trie;
+	private final ForkJoinPool pool;
+	//строки с исправлением для индекса опечаток
+	private final List<DictionaryRow> typoRows = new ArrayList<DictionaryRow>();
+
+	ParallelLoader(Trie trie, ForkJoinPool pool) {
+		this.trie = trie;
+		this.pool = pool;
+	}
+
+	/**
+	 * Загрузка файла.
+	 *
+	 * @param fileName
+	 *                имя файла
+	 *
+	 * @return количество прочитанных строк
+	 */
+	int load(String fileName) throws IOException {
+		String text = readText(fileName);
+		ParseTask[] chunks = split(text, pool.getParallelism() * 4);
+		invokeAll(chunks);
+
+		//номер строки в файле = число строк в предыдущих кусках + номер внутри куска
+		int lines = 0;
+		for (ParseTask chunk : chunks) {
+			if (chunk.error != null) {
+				throw new IOException("Строка " + (lines + chunk.lineCount + 1) + ": " + chunk.error.getMessage(), chunk.error);
+			}
+			lines += chunk.lineCount;
+		}
+
+		int offset = 0;
+		Map<Character, Partition> partitions = new TreeMap<Character, Partition>();
+		Partition rootPartition = new Partition(trie.getRoot());
+		for (ParseTask chunk : chunks) {
+			for (int i = 0; i < chunk.rows.size(); i++) {
+				DictionaryRow row = chunk.rows.get(i);
+				String query = row.getQuery();
+				Partition partition;
+				if (query.isEmpty()) {
+					partition = rootPartition;
+				}
+				else {
+					partition = partitions.get(query.charAt(0));
+					if (partition == null) {
+						partition = new Partition(new TrieNode());
+						partitions.put(query.charAt(0), partition);
+					}
+				}
+				partition.add(row, offset + chunk.lineNumbers[i]);
+				if (row.getCorrection() != null) { typoRows.add(row); }
+			}
+			offset += chunk.lineCount;
+		}
+
+		List<Partition> all = new ArrayList<Partition>(partitions.values());
+		invokeAll(all.toArray(new Partition[all.size()]));
+		rootPartition.compute();
+
+		assignEntries(all, rootPartition);
+
+		//top поддеревьев независимы - считаем их параллельно, корень последним
+		List<ForkJoinTask<?>> tops = new ArrayList<ForkJoinTask<?>>();
+		for (final Partition partition : all) {
+			tops.add(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					trie.buildTop(partition.node);
+				}
+			});
+		}
+		invokeAll(tops.toArray(new ForkJoinTask<?>[tops.size()]));
+		for (Map.Entry<Character, Partition> entry : partitions.entrySet()) {
+			trie.getRoot().setEdge(entry.getKey(), entry.getValue().node);
+		}
+		trie.mergeTop(trie.getRoot());
+		trie.setTopBuilt();
+		return lines;
+	}
+
+	/**
+	 * Строки последней загрузки, у которых есть исправленный запрос.
+	 *
+	 * @return строки словаря
+	 */
+	List<DictionaryRow> getTypoRows() {
+		return typoRows;
+	}
+
+	//номера записей по порядку первого появления запроса в файле
+	private void assignEntries(List<Partition> all, Partition rootPartition) {
+		List<Partition> withRoot = new ArrayList<Partition>(all);
+		withRoot.add(rootPartition);
+		int total = 0;
+		for (Partition partition : withRoot) {
+			total += partition.terminals.size();
+		}
+		int[] firstLines = new int[total];
+		int size = 0;
+		for (Partition partition : withRoot) {
+			System.arraycopy(partition.firstLines, 0, firstLines, size, partition.terminals.size());
+			size += partition.terminals.size();
+		}
+		Arrays.parallelSort(firstLines);
+
+		TrieNode[] nodes = new TrieNode[total];
+		String[] keys = new String[total];
+		for (Partition partition : withRoot) {
+			for (int i = 0; i < partition.terminals.size(); i++) {
+				int entry = Arrays.binarySearch(firstLines, partition.firstLines[i]);
+				nodes[entry] = partition.terminals.get(i);
+				keys[entry] = partition.keys.get(i);
+			}
+		}
+		QueryTable queries = trie.getQueries();
+		for (int entry = 0; entry < total; entry++) {
+			nodes[entry].setEntry(queries.add(keys[entry], nodes[entry].getRank()));
+		}
+	}
+
+	private void invokeAll(ForkJoinTask<?>[] tasks) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			ForkJoinTask.invokeAll(tasks);
+			return;
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			pool.execute(task);
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+	}
+
+	private static String readText(String fileName) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName)));
+		try {
+			return StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(bytes).toString();
+		} catch (CharacterCodingException e) {
+			throw new IOException("Файл " + fileName + " не в кодировке UTF-8", e);
+		}
+	}
+
+	//делит текст на куски по границам строк
+	private static ParseTask[] split(String text, int count) {
+		List<ParseTask> chunks = new ArrayList<ParseTask>();
+		int step = Math.max(1, text.length() / Math.max(1, count));
+		int from = 0;
+		while (from < text.length()) {
+			int to = text.indexOf('\n', Math.min(text.length() - 1, from + step));
+			to = to < 0 ? text.length() : to + 1;
+			chunks.add(new ParseTask(text, from, to));
+			from = to;
+		}
+		return chunks.toArray(new ParseTask[chunks.size()]);
+	}
+
+	//разбор куска текста [from, to)
+	private static final class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String text;
+		private final int from;
+		private final int to;
+		final List<DictionaryRow> rows = new ArrayList<DictionaryRow>();
+		//номер строки внутри куска для каждой непустой строки
+		int[] lineNumbers = new int[16];
+		//количество строк куска; при ошибке - номер ошибочной строки внутри куска
+		int lineCount;
+		IllegalArgumentException error;
+
+		ParseTask(String text, int from, int to) {
+			this.text = text;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int start = from;
+			try {
+				while (start < to) {
+					int end = text.indexOf('\n', start);
+					if (end < 0 || end > to) { end = to; }
+					int lineEnd = (end > start && text.charAt(end - 1) == '\r') ? end - 1 : end;
+					DictionaryRow row = DictionaryRow.parse(text.substring(start, lineEnd));
+					if (row != null) {
+						if (rows.size() == lineNumbers.length) { lineNumbers = Arrays.copyOf(lineNumbers, rows.size() * 2); }
+						lineNumbers[rows.size()] = lineCount;
+						rows.add(row);
+					}
+					lineCount++;
+					start = end + 1;
+				}
+			} catch (IllegalArgumentException e) {
+				error = e;
+			}
+		}
+	}
+
+	//поддерево для одного первого символа
+	private final class Partition extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final TrieNode node;
+		final List<DictionaryRow> rows = new ArrayList<DictionaryRow>();
+		int[] lines = new int[16];
+		//узлы различных запросов в порядке первого появления, их строки и номера первых строк
+		final List<TrieNode> terminals = new ArrayList<TrieNode>();
+		final List<String> keys = new ArrayList<String>();
+		int[] firstLines = new int[16];
+
+		Partition(TrieNode node) {
+			this.node = node;
+		}
+
+		void add(DictionaryRow row, int line) {
+			if (rows.size() == lines.length) { lines = Arrays.copyOf(lines, rows.size() * 2); }
+			lines[rows.size()] = line;
+			rows.add(row);
+		}
+
+		@Override
+		protected void compute() {
+			int from = node == trie.getRoot() ? 0 : 1;
+			for (int i = 0; i < rows.size(); i++) {
+				DictionaryRow row = rows.get(i);
+				TrieNode terminal = trie.insertPath(node, row.getQuery(), from);
+				//до назначения номеров записей в узле временно хранится номер внутри поддерева
+				if (terminal.getEntry() < 0) {
+					terminal.setEntry(terminals.size());
+					terminal.setRank(row.getRank());
+					if (terminals.size() == firstLines.length) { firstLines = Arrays.copyOf(firstLines, terminals.size() * 2); }
+					firstLines[terminals.size()] = lines[i];
+					terminals.add(terminal);
+					keys.add(row.getQuery());
+				}
+				else if (terminal.getRank() < row.getRank()) {
+					terminal.setRank(row.getRank());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package packageTrie;
+import java.util.Arrays;
+
+/**
+ * Таблица запросов: запрос и его ранк по номеру записи.
+ * Узлы Trie хранят только номера записей.
+ *
+ * Символы всех запросов лежат подряд в общем хранилище из блоков по {@link #BLOCK_SIZE} символов,
+ * запись - это начало запроса в хранилище и его длина. Объект String создается только в
+ * {@link #getQuery(int)}, то есть для подсказок, которые действительно возвращаются; сравнение
+ * запросов при построении top идет прямо по символам хранилища.
+ *
+ * Начала, длины и ранки записей тоже лежат кусками по {@link #CHUNK_SIZE} записей. Копия таблицы
+ * для новой версии делит с исходной все блоки и куски и копирует только массивы ссылок на них;
+ * кусок или последний блок копируется при первой записи в него. Так новая версия стоит
+ * пропорционально числу измененных записей, а не размеру словаря.
+ * @author roman khalkechev
+ */
+public class QueryTable {
+	/** Размер блока хранилища в символах; запрос целиком лежит в одном блоке. */
+	public static final int BLOCK_SIZE = 1 << 16;
+	private static final int BLOCK_BITS = 16;
+	//первый блок растет удвоением до BLOCK_SIZE, чтобы маленькая таблица не занимала целый блок
+	private static final int INITIAL_BLOCK_SIZE = 256;
+	/** Размер куска записей. */
+	public static final int CHUNK_SIZE = 1 << 10;
+	private static final int CHUNK_BITS = 10;
+	//первый кусок растет удвоением до CHUNK_SIZE
+	private static final int INITIAL_CHUNK_SIZE = 16;
+
+	private char[][] blocks = new char[4][];
+	private int blockCount;
+	//занято символов в последнем блоке
+	private int blockUsed;
+	//последний блок общий с другой таблицей: перед записью его надо скопировать
+	private boolean isLastBlockShared;
+	//начало запроса: номер блока << BLOCK_BITS | смещение в блоке; по кускам записей
+	private int[][] starts = new int[4][];
+	private char[][] lengths = new char[4][];
+	private int[][] ranks = new int[4][];
+	//кусок общий с другой таблицей: перед записью его надо скопировать
+	private boolean[] isChunkShared = new boolean[4];
+	private int chunkCount;
+	private int size;
+
+	/**
+	 * Копия таблицы для новой версии Trie: блоки символов и куски записей общие,
+	 * копируются только массивы ссылок на них.
+	 *
+	 * @return копия таблицы
+	 */
+	public QueryTable copy() {
+		QueryTable table = new QueryTable();
+		table.blocks = Arrays.copyOf(blocks, Math.max(4, blockCount));
+		table.blockCount = blockCount;
+		table.blockUsed = blockUsed;
+		table.starts = Arrays.copyOf(starts, Math.max(4, chunkCount));
+		table.lengths = Arrays.copyOf(lengths, Math.max(4, chunkCount));
+		table.ranks = Arrays.copyOf(ranks, Math.max(4, chunkCount));
+		table.isChunkShared = new boolean[table.starts.length];
+		table.chunkCount = chunkCount;
+		table.size = size;
+		//писать в общие блоки и куски не может ни одна из таблиц
+		Arrays.fill(table.isChunkShared, 0, chunkCount, true);
+		Arrays.fill(isChunkShared, 0, chunkCount, true);
+		table.isLastBlockShared = true;
+		isLastBlockShared = true;
+		return table;
+	}
+
+	/**
+	 * Добавление запроса в таблицу.
+	 *
+	 * @param query
+	 *             запрос
+	 * @param rank
+	 *            ранк
+	 *
+	 * @return номер записи
+	 * @throws IllegalArgumentException
+	 *             если запрос длиннее 65535 символов
+	 */
+	public int add(String query, int rank) {
+		int length = query.length();
+		if (length > Character.MAX_VALUE) { throw new IllegalArgumentException("Запрос длиннее " + (int) Character.MAX_VALUE + " символов"); }
+		int chunk = size >>> CHUNK_BITS;
+		int index = size & (CHUNK_SIZE - 1);
+		if (chunk == chunkCount) { addChunk(); }
+		else if (index == starts[chunk].length) { growChunk(chunk); }
+		else { ownChunk(chunk); }
+		if (blockCount == 0 || blockUsed + length > BLOCK_SIZE) {
+			if (blockCount == blocks.length) { blocks = Arrays.copyOf(blocks, blockCount * 2); }
+			blocks[blockCount] = new char[blockCount == 0 ? Math.max(INITIAL_BLOCK_SIZE, length) : BLOCK_SIZE];
+			blockCount++;
+			blockUsed = 0;
+			isLastBlockShared = false;
+		}
+		char[] block = blocks[blockCount - 1];
+		if (blockUsed + length > block.length) {
+			block = Arrays.copyOf(block, Math.min(BLOCK_SIZE, Math.max(block.length * 2, blockUsed + length)));
+		}
+		else if (isLastBlockShared) {
+			block = block.clone();
+		}
+		blocks[blockCount - 1] = block;
+		isLastBlockShared = false;
+		query.getChars(0, length, block, blockUsed);
+		starts[chunk][index] = (blockCount - 1) << BLOCK_BITS | blockUsed;
+		lengths[chunk][index] = (char) length;
+		blockUsed += length;
+		ranks[chunk][index] = rank;
+		return size++;
+	}
+
+	//новый кусок записей в конце
+	private void addChunk() {
+		if (chunkCount == starts.length) {
+			starts = Arrays.copyOf(starts, chunkCount * 2);
+			lengths = Arrays.copyOf(lengths, chunkCount * 2);
+			ranks = Arrays.copyOf(ranks, chunkCount * 2);
+			isChunkShared = Arrays.copyOf(isChunkShared, chunkCount * 2);
+		}
+		int capacity = chunkCount == 0 ? INITIAL_CHUNK_SIZE : CHUNK_SIZE;
+		starts[chunkCount] = new int[capacity];
+		lengths[chunkCount] = new char[capacity];
+		ranks[chunkCount] = new int[capacity];
+		isChunkShared[chunkCount] = false;
+		chunkCount++;
+	}
+
+	//удвоение заполненного первого куска; новые массивы уже ни с кем не общие
+	private void growChunk(int chunk) {
+		int capacity = Math.min(CHUNK_SIZE, starts[chunk].length * 2);
+		starts[chunk] = Arrays.copyOf(starts[chunk], capacity);
+		lengths[chunk] = Arrays.copyOf(lengths[chunk], capacity);
+		ranks[chunk] = Arrays.copyOf(ranks[chunk], capacity);
+		isChunkShared[chunk] = false;
+	}
+
+	//копия общего куска перед записью в него
+	private void ownChunk(int chunk) {
+		if (!isChunkShared[chunk]) { return; }
+		starts[chunk] = starts[chunk].clone();
+		lengths[chunk] = lengths[chunk].clone();
+		ranks[chunk] = ranks[chunk].clone();
+		isChunkShared[chunk] = false;
+	}
+
+	/**
+	 * Возвращает запрос по номеру записи. Строка создается при каждом вызове.
+	 *
+	 * @param entry
+	 *             номер записи
+	 *
+	 * @return запрос
+	 */
+	public String getQuery(int entry) {
+		int start = starts[entry >>> CHUNK_BITS][entry & (CHUNK_SIZE - 1)];
+		return new String(blocks[start >>> BLOCK_BITS], start & (BLOCK_SIZE - 1), getLength(entry));
+	}
+
+	/**
+	 * Возвращает длину запроса по номеру записи.
+	 *
+	 * @param entry
+	 *             номер записи
+	 *
+	 * @return длина
+	 */
+	public int getLength(int entry) {
+		return lengths[entry >>> CHUNK_BITS][entry & (CHUNK_SIZE - 1)];
+	}
+
+	/**
+	 * Возвращает ранк запроса по номеру записи.
+	 *
+	 * @param entry
+	 *             номер записи
+	 *
+	 * @return ранк
+	 */
+	public int getRank(int entry) {
+		return ranks[entry >>> CHUNK_BITS][entry & (CHUNK_SIZE - 1)];
+	}
+
+	/**
+	 * Назначение ранка записи.
+	 *
+	 * @param entry
+	 *             номер записи
+	 * @param rank
+	 *            ранк
+	 */
+	public void setRank(int entry, int rank) {
+		ownChunk(entry >>> CHUNK_BITS);
+		ranks[entry >>> CHUNK_BITS][entry & (CHUNK_SIZE - 1)] = rank;
+	}
+
+	/**
+	 * Возвращает количество записей.
+	 *
+	 * @return количество записей
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Размер таблицы в куче: блоки символов и куски записей.
+	 *
+	 * @return размер в байтах
+	 */
+	public long sizeInBytes() {
+		long size = 5 * 16 + 4L * blocks.length + (3 * 4 + 1) * (long) starts.length;
+		for (int i = 0; i < blockCount; i++) { size += 16 + 2L * blocks[i].length; }
+		for (int i = 0; i < chunkCount; i++) { size += 3 * 16 + (4 + 2 + 4) * (long) starts[i].length; }
+		return size;
+	}
+
+	/**
+	 * Порядок записей в top: по убыванию ранка, при равных ранках - по алфавиту.
+	 *
+	 * @return true, если первая запись должна стоять в top раньше второй
+	 */
+	public boolean better(int first, int second) {
+		int firstRank = getRank(first);
+		int secondRank = getRank(second);
+		if (firstRank != secondRank) { return firstRank > secondRank; }
+		return compare(first, second) < 0;
+	}
+
+	/**
+	 * Сравнение запросов двух записей по алфавиту, как String.compareTo, но без создания строк.
+	 *
+	 * @param first
+	 *             номер первой записи
+	 * @param second
+	 *              номер второй записи
+	 *
+	 * @return отрицательное число, ноль или положительное число
+	 */
+	public int compare(int first, int second) {
+		int firstStart = starts[first >>> CHUNK_BITS][first & (CHUNK_SIZE - 1)];
+		int secondStart = starts[second >>> CHUNK_BITS][second & (CHUNK_SIZE - 1)];
+		char[] firstBlock = blocks[firstStart >>> BLOCK_BITS];
+		char[] secondBlock = blocks[secondStart >>> BLOCK_BITS];
+		int i = firstStart & (BLOCK_SIZE - 1);
+		int j = secondStart & (BLOCK_SIZE - 1);
+		int firstLength = getLength(first);
+		int secondLength = getLength(second);
+		int limit = Math.min(firstLength, secondLength);
+		for (int k = 0; k < limit; k++) {
+			char c = firstBlock[i + k];
+			char d = secondBlock[j + k];
+			if (c != d) { return c - d; }
+		}
+		return firstLength - secondLength;
+	}
+}
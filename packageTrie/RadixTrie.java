@@ -0,0 +1,667 @@
+package packageTrie;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Trie со сжатыми путями (radix tree).
+ *
+ * Запросы - длинные фразы, и ниже нескольких первых символов почти все узлы обычного Trie
+ * имеют единственного ребенка. Здесь такие цепочки схлопываются в одно ребро: метка ребра -
+ * отрезок общего буфера символов, а узлы остаются только там, где путь ветвится или
+ * заканчивается запрос. При вставке хвост нового запроса дописывается в буфер один раз,
+ * а ребро, с которым ключ расходится посередине, делится на два без копирования символов.
+ * Ключи узлов не хранятся, поэтому построение линейно по суммарной длине запросов.
+ *
+ * Подсказки те же, что у {@link Trie}: префикс может заканчиваться посередине ребра,
+ * тогда подсказки берутся из top узла в конце ребра; поиск с опечатками считает строки
+ * таблицы расстояний по символам метки. Top и слияние близких узлов - как в Trie.
+ * @author roman khalkechev
+ */
+public class RadixTrie implements SuggestionIndex {
+	private static final int[] EMPTY_TOP = new int[0];
+
+	private final int topSize;
+	private final QueryTable queries = new QueryTable();
+	//метки всех ребер подряд
+	private char[] labels = new char[1024];
+	private int labelsLength;
+	private final RadixNode root = new RadixNode(0, 0);
+	private int nodeCount = 1;
+	//актуальны ли top во всех узлах
+	private boolean isTopBuilt = true;
+	private double typoPenalty = Trie.DEFAULT_TYPO_PENALTY;
+	private double loadLinesPerSecond;
+	//известные опечатки из второго поля словаря или null
+	private TypoIndex typos;
+
+	/**
+	 * Узел: метка входящего ребра labels[labelOffset .. labelOffset + labelLength - 1],
+	 * запрос, заканчивающийся в узле, top поддерева и дети по возрастанию первого символа метки.
+	 */
+	static final class RadixNode {
+		int labelOffset;
+		int labelLength;
+		int entry = -1;
+		int[] top = EMPTY_TOP;
+		char[] firsts;
+		RadixNode[] children;
+		int childCount;
+
+		RadixNode(int labelOffset, int labelLength) {
+			this.labelOffset = labelOffset;
+			this.labelLength = labelLength;
+		}
+	}
+
+	public RadixTrie() {
+		this(Trie.DEFAULT_TOP_SIZE);
+	}
+
+	/**
+	 * @param topSize
+	 *               сколько лучших запросов хранить в каждом узле
+	 */
+	public RadixTrie(int topSize) {
+		if (topSize < 1) { throw new IllegalArgumentException("topSize должен быть положительным"); }
+		this.topSize = topSize;
+	}
+
+	/**
+	 * Добавление запроса. Если запрос уже есть, остается наибольший ранк.
+	 *
+	 * @param rank
+	 *            популярность запроса
+	 * @param key
+	 *            запрос
+	 */
+	public void insert(int rank, String key) {
+		RadixNode[] path = new RadixNode[key.length() + 1];
+		int depth = 0;
+		path[depth++] = root;
+		RadixNode node = root;
+		int i = 0;
+		while (i < key.length()) {
+			RadixNode child = child(node, key.charAt(i));
+			if (child == null) {
+				//хвоста ключа в Trie нет - он становится меткой нового листа
+				child = new RadixNode(appendLabel(key, i, key.length()), key.length() - i);
+				addChild(node, child);
+				nodeCount++;
+				path[depth++] = child;
+				node = child;
+				break;
+			}
+			int common = 1;
+			int end = Math.min(child.labelLength, key.length() - i);
+			while (common < end && labels[child.labelOffset + common] == key.charAt(i + common)) { common++; }
+			//ключ расходится с меткой или заканчивается посередине ребра - ребро делится
+			if (common < child.labelLength) { child = split(node, child, common); }
+			path[depth++] = child;
+			node = child;
+			i += common;
+		}
+
+		if (node.entry < 0) {
+			node.entry = queries.add(key, rank);
+		}
+		else if (queries.getRank(node.entry) < rank) {
+			queries.setRank(node.entry, rank);
+		}
+		else {
+			return;
+		}
+		if (isTopBuilt) {
+			for (int j = depth - 1; j >= 0; j--) {
+				if (!raiseInTop(path[j], node.entry)) { break; }
+			}
+		}
+	}
+
+	/**
+	 * Удаление запроса. Опустевший лист удаляется, а узел без запроса с единственным
+	 * ребенком сливается с ним в одно ребро.
+	 *
+	 * @param key
+	 *            запрос
+	 */
+	public void delete(String key) {
+		RadixNode[] path = new RadixNode[key.length() + 1];
+		int depth = 0;
+		path[depth++] = root;
+		RadixNode node = root;
+		int i = 0;
+		while (i < key.length()) {
+			node = child(node, key.charAt(i));
+			if (node == null || node.labelLength > key.length() - i) { return; }
+			for (int j = 1; j < node.labelLength; j++) {
+				if (labels[node.labelOffset + j] != key.charAt(i + j)) { return; }
+			}
+			i += node.labelLength;
+			path[depth++] = node;
+		}
+		int entry = node.entry;
+		if (entry < 0) { return; }
+		node.entry = -1;
+
+		//alive - сколько узлов пути осталось в Trie
+		int alive = depth;
+		if (node != root && node.childCount == 0) {
+			RadixNode parent = path[depth - 2];
+			removeChild(parent, node);
+			nodeCount--;
+			alive--;
+			if (parent != root && parent.entry < 0 && parent.childCount == 1) {
+				mergeWithChild(path[depth - 3], parent);
+				alive--;
+			}
+		}
+		else if (node != root && node.childCount == 1) {
+			mergeWithChild(path[depth - 2], node);
+			alive--;
+		}
+		if (isTopBuilt) {
+			for (int j = alive - 1; j >= 0; j--) {
+				if (!contains(path[j].top, entry)) { break; }
+				mergeTop(path[j]);
+			}
+		}
+	}
+
+	/**
+	 * Создание Trie по данным из файла того же формата, что и для {@link Trie#createTrie(String)}.
+	 *
+	 * @param fileName
+	 *                имя файла
+	 */
+	public void createTrie(String fileName) throws IOException {
+		long start = System.nanoTime();
+		BufferedReader in = DictionaryRow.openReader(fileName);
+		String s;
+		int lines = 0;
+		List<DictionaryRow> typoRows = new ArrayList<DictionaryRow>();
+		//на время загрузки top не поддерживаются, а считаются один раз в конце
+		isTopBuilt = false;
+		try {
+			while ((s = in.readLine()) != null) {
+				DictionaryRow row = Trie.parseRow(s, lines + 1);
+				if (row != null) {
+					insert(row.getRank(), row.getQuery());
+					if (row.getCorrection() != null) { typoRows.add(row); }
+				}
+				lines++;
+			}
+		} finally {
+			in.close();
+		}
+		addTypos(typoRows);
+		buildTop(root);
+		isTopBuilt = true;
+		long nanos = System.nanoTime() - start;
+		loadLinesPerSecond = nanos > 0 ? lines * 1e9 / nanos : 0;
+	}
+
+	/**
+	 * Функция подсказок: точное совпадение, потом смена раскладки, потом поиск с опечатками.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix) {
+		return hint(prefix, Trie.DEFAULT_HINT_COUNT);
+	}
+
+	/**
+	 * Функция подсказок: k лучших подсказок по префиксу.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок
+	 */
+	public List<String> hint(String prefix, int k) {
+		if (k < 0) { throw new IllegalArgumentException("k должно быть неотрицательно"); }
+		ensureTopBuilt();
+		RadixNode node = searchNode(prefix, null);
+		for (KeyboardLayout layout : KeyboardLayout.registered()) {
+			if (node != null) { break; }
+			node = searchNode(prefix, layout);
+		}
+		if (node == null) { node = searchTypo(prefix); }
+		if (node == null) {
+			List<String> nearTop = near(prefix, prefix.length() <= 5 ? 1 : 2, k);
+			return nearTop == null ? Collections.<String>emptyList() : nearTop;
+		}
+		return topPage(node, k);
+	}
+
+	/**
+	 * Подсказки для префикса с опечатками: то же, что {@link Trie#near(String, int, int)}.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param max
+	 *           максимальное расстояние
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок или null, если близких узлов нет или префикс длиннее
+	 *         {@link Trie#MAX_NEAR_PREFIX_LENGTH}
+	 */
+	public List<String> near(String prefix, int max, int k) {
+		if (prefix.length() > Trie.MAX_NEAR_PREFIX_LENGTH) { return null; }
+		ensureTopBuilt();
+		List<NearCandidate> candidates = new ArrayList<NearCandidate>();
+		DamerauLevensteinRows rows = DamerauLevensteinRows.forThread(prefix, max);
+		if (rows.distance() <= max) { candidates.add(new NearCandidate(root, 0, rows.distance())); }
+		collectNear(root, rows, Math.min(rows.distance(), max + 1), candidates);
+		return mergeNear(candidates, k);
+	}
+
+	/**
+	 * Назначение штрафа за опечатку, как {@link Trie#setTypoPenalty(double)}.
+	 *
+	 * @param typoPenalty
+	 *                    штраф от 0 до 1
+	 */
+	public void setTypoPenalty(double typoPenalty) {
+		if (typoPenalty <= 0 || typoPenalty > 1) { throw new IllegalArgumentException("typoPenalty должен быть в (0, 1]"); }
+		this.typoPenalty = typoPenalty;
+	}
+
+	public QueryTable getQueries() {
+		return queries;
+	}
+
+	/**
+	 * Возвращает количество узлов вместе с корнем.
+	 *
+	 * @return количество узлов
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Скорость последней загрузки из файла.
+	 *
+	 * @return количество строк в секунду
+	 */
+	public double getLoadLinesPerSecond() {
+		return loadLinesPerSecond;
+	}
+
+	/**
+	 * Оценка занимаемой памяти в байтах: буфер меток, узлы с массивами детей и top
+	 * (по 16 байт на заголовок объекта и массива) и таблица запросов.
+	 *
+	 * @return размер в байтах
+	 */
+	public long sizeInBytes() {
+		long size = 16 + 2L * labels.length;
+		size += nodeSize(root);
+		return size + queries.sizeInBytes();
+	}
+
+	private long nodeSize(RadixNode node) {
+		long size = 16 + 4 * 4 + 3 * 4 + 16 + 4L * node.top.length;
+		if (node.children != null) {
+			size += 16 + 2L * node.firsts.length + 16 + 4L * node.children.length;
+			for (int i = 0; i < node.childCount; i++) { size += nodeSize(node.children[i]); }
+		}
+		return size;
+	}
+
+	/**
+	 * Узел, в поддереве которого лежат все ключи с заданным префиксом: если префикс
+	 * заканчивается посередине ребра, это узел в конце ребра.
+	 *
+	 * @param key
+	 *            префикс
+	 * @param layout
+	 *              раскладка, в которой набран префикс, или null
+	 *
+	 * @return узел или null, если таких ключей нет
+	 */
+	RadixNode searchNode(CharSequence key, KeyboardLayout layout) {
+		RadixNode node = root;
+		int i = 0;
+		while (i < key.length()) {
+			char c = layout == null ? key.charAt(i) : layout.translate(key.charAt(i));
+			if (c == 0) { return null; }
+			node = child(node, c);
+			if (node == null) { return null; }
+			int end = Math.min(node.labelLength, key.length() - i);
+			for (int j = 1; j < end; j++) {
+				c = layout == null ? key.charAt(i + j) : layout.translate(key.charAt(i + j));
+				if (c == 0 || labels[node.labelOffset + j] != c) { return null; }
+			}
+			i += end;
+		}
+		return node;
+	}
+
+	/**
+	 * Добавление пар "запрос с опечаткой - исправленный запрос" в индекс опечаток, как {@link Trie}.
+	 *
+	 * @param rows
+	 *            строки словаря; строки без исправления пропускаются
+	 */
+	void addTypos(List<DictionaryRow> rows) {
+		if (!rows.isEmpty()) { typos = TypoIndex.build(typos, rows); }
+	}
+
+	//узел исправленного префикса для известной опечатки, как Trie.searchTypo, или null
+	private RadixNode searchTypo(String prefix) {
+		if (typos == null) { return null; }
+		RadixNode best = null;
+		for (TypoIndex.Correction correction : typos.lookup(prefix)) {
+			//исправленный запрос должен быть в словаре: узел с ним, а не середина ребра перед ним
+			RadixNode query = searchNode(correction.query, null);
+			if (query == null || query.entry < 0 || queries.getLength(query.entry) != correction.query.length()) { continue; }
+			RadixNode node = searchNode(correction.prefix, null);
+			if (best == null || queries.better(node.top[0], best.top[0])) { best = node; }
+		}
+		return best;
+	}
+
+	//k лучших запросов поддерева: из top или обходом "лучший первым", если top не хватает
+	private List<String> topPage(RadixNode node, int k) {
+		if (k <= node.top.length || node.top.length < topSize) {
+			List<String> page = new ArrayList<String>(Math.min(k, node.top.length));
+			for (int i = 0; i < Math.min(k, node.top.length); i++) { page.add(queries.getQuery(node.top[i])); }
+			return page;
+		}
+		List<NearCandidate> subtree = new ArrayList<NearCandidate>(1);
+		subtree.add(new NearCandidate(node, 0, 0));
+		return mergeNear(subtree, k);
+	}
+
+	/**
+	 * Обход в глубину для near. Строки таблицы считаются по каждому символу метки; из узлов
+	 * посередине ребра в кандидаты попадает узел в конце ребра с наименьшим расстоянием:
+	 * поддерево у них одно и то же.
+	 */
+	private void collectNear(RadixNode node, DamerauLevensteinRows rows, int ancestorDistance, List<NearCandidate> candidates) {
+		for (int c = 0; c < node.childCount; c++) {
+			RadixNode child = node.children[c];
+			int bound = ancestorDistance;
+			int best = -1;
+			int pushed = 0;
+			boolean canDescend = true;
+			while (pushed < child.labelLength) {
+				rows.push(labels[child.labelOffset + pushed++]);
+				int distance = rows.distance();
+				if (distance < bound) {
+					best = distance;
+					bound = distance;
+				}
+				if (!rows.canDescend()) {
+					canDescend = false;
+					break;
+				}
+			}
+			if (best >= 0) { candidates.add(new NearCandidate(child, 0, best)); }
+			if (canDescend) { collectNear(child, rows, bound, candidates); }
+			for (; pushed > 0; pushed--) { rows.pop(); }
+		}
+	}
+
+	private List<String> mergeNear(List<NearCandidate> candidates, int k) {
+		if (candidates.isEmpty()) { return null; }
+
+		PriorityQueue<NearCandidate> heap = new PriorityQueue<NearCandidate>(candidates.size(), new Comparator<NearCandidate>() {
+			public int compare(NearCandidate first, NearCandidate second) {
+				if (first.score != second.score) { return first.score > second.score ? -1 : 1; }
+				return queries.compare(first.entry, second.entry);
+			}
+		});
+		for (NearCandidate candidate : candidates) {
+			if (candidate.setEntry(candidate.node.top.length == 0 ? -1 : candidate.node.top[0])) { heap.add(candidate); }
+		}
+
+		List<String> results = new ArrayList<String>(k);
+		int[] emitted = new int[k];
+		while (results.size() < k && !heap.isEmpty()) {
+			NearCandidate candidate = heap.poll();
+			if (candidate.node == null || candidate.index >= 0) {
+				if (!contains(emitted, results.size(), candidate.entry)) {
+					emitted[results.size()] = candidate.entry;
+					results.add(queries.getQuery(candidate.entry));
+				}
+				if (candidate.node == null) { continue; }
+				int[] top = candidate.node.top;
+				if (candidate.index + 1 < top.length) {
+					candidate.index++;
+					candidate.setEntry(top[candidate.index]);
+					heap.add(candidate);
+					continue;
+				}
+				//top исчерпан; если он был полным, в поддереве могут быть еще запросы
+				if (top.length < topSize) { continue; }
+			}
+			//раскрытие поддерева: собственный запрос узла и поддеревья детей
+			RadixNode node = candidate.node;
+			if (node.entry >= 0) {
+				NearCandidate own = new NearCandidate(null, -1, candidate.distance);
+				own.setEntry(node.entry);
+				heap.add(own);
+			}
+			for (int i = 0; i < node.childCount; i++) {
+				NearCandidate child = new NearCandidate(node.children[i], -1, candidate.distance);
+				if (child.setEntry(child.node.top.length == 0 ? -1 : child.node.top[0])) { heap.add(child); }
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Элемент слияния: очередной элемент top узла (index >= 0),
+	 * поддерево узла целиком (index == -1) или отдельный запрос (node == null).
+	 */
+	private final class NearCandidate {
+		final RadixNode node;
+		int index;
+		final int distance;
+		int entry;
+		double score;
+
+		NearCandidate(RadixNode node, int index, int distance) {
+			this.node = node;
+			this.index = index;
+			this.distance = distance;
+		}
+
+		boolean setEntry(int entry) {
+			if (entry < 0) { return false; }
+			this.entry = entry;
+			this.score = queries.getRank(entry) * Math.pow(typoPenalty, distance);
+			return true;
+		}
+	}
+
+	//бинарный поиск ребенка по первому символу метки
+	private static RadixNode child(RadixNode node, char c) {
+		int index = childIndex(node, c);
+		return index >= 0 ? node.children[index] : null;
+	}
+
+	private static int childIndex(RadixNode node, char c) {
+		int low = 0;
+		int high = node.childCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char first = node.firsts[middle];
+			if (first < c) { low = middle + 1; }
+			else if (first > c) { high = middle - 1; }
+			else { return middle; }
+		}
+		return -(low + 1);
+	}
+
+	private void addChild(RadixNode node, RadixNode child) {
+		char first = labels[child.labelOffset];
+		int position = -(childIndex(node, first) + 1);
+		if (node.children == null) {
+			node.firsts = new char[2];
+			node.children = new RadixNode[2];
+		}
+		else if (node.childCount == node.children.length) {
+			node.firsts = Arrays.copyOf(node.firsts, node.childCount * 2);
+			node.children = Arrays.copyOf(node.children, node.childCount * 2);
+		}
+		System.arraycopy(node.firsts, position, node.firsts, position + 1, node.childCount - position);
+		System.arraycopy(node.children, position, node.children, position + 1, node.childCount - position);
+		node.firsts[position] = first;
+		node.children[position] = child;
+		node.childCount++;
+	}
+
+	private void removeChild(RadixNode node, RadixNode child) {
+		int position = childIndex(node, labels[child.labelOffset]);
+		System.arraycopy(node.firsts, position + 1, node.firsts, position, node.childCount - position - 1);
+		System.arraycopy(node.children, position + 1, node.children, position, node.childCount - position - 1);
+		node.childCount--;
+		node.children[node.childCount] = null;
+		if (node.childCount == 0) {
+			node.firsts = null;
+			node.children = null;
+		}
+	}
+
+	//деление ребра к child после первых at символов метки; возвращает новый узел посередине
+	private RadixNode split(RadixNode parent, RadixNode child, int at) {
+		RadixNode middle = new RadixNode(child.labelOffset, at);
+		//поддерево у нового узла то же, что у child
+		middle.top = child.top;
+		parent.children[childIndex(parent, labels[child.labelOffset])] = middle;
+		child.labelOffset += at;
+		child.labelLength -= at;
+		addChild(middle, child);
+		nodeCount++;
+		return middle;
+	}
+
+	//узел без запроса с единственным ребенком заменяется ребенком с объединенной меткой
+	private void mergeWithChild(RadixNode parent, RadixNode node) {
+		RadixNode child = node.children[0];
+		if (node.labelOffset + node.labelLength == child.labelOffset) {
+			//метки и так лежат в буфере подряд
+			child.labelOffset = node.labelOffset;
+		}
+		else {
+			int offset = copyLabel(node.labelOffset, node.labelLength);
+			copyLabel(child.labelOffset, child.labelLength);
+			child.labelOffset = offset;
+		}
+		child.labelLength += node.labelLength;
+		parent.children[childIndex(parent, labels[child.labelOffset])] = child;
+		nodeCount--;
+	}
+
+	//дописывание символов key[from..to) в буфер меток; возвращает начало
+	private int appendLabel(String key, int from, int to) {
+		ensureLabelCapacity(to - from);
+		key.getChars(from, to, labels, labelsLength);
+		int offset = labelsLength;
+		labelsLength += to - from;
+		return offset;
+	}
+
+	//копия отрезка буфера меток в его конец; возвращает начало копии
+	private int copyLabel(int from, int length) {
+		ensureLabelCapacity(length);
+		System.arraycopy(labels, from, labels, labelsLength, length);
+		int offset = labelsLength;
+		labelsLength += length;
+		return offset;
+	}
+
+	private void ensureLabelCapacity(int length) {
+		if (labelsLength + length > labels.length) {
+			labels = Arrays.copyOf(labels, Math.max(labels.length * 2, labelsLength + length));
+		}
+	}
+
+	private void ensureTopBuilt() {
+		if (!isTopBuilt) {
+			buildTop(root);
+			isTopBuilt = true;
+		}
+	}
+
+	private void buildTop(RadixNode node) {
+		for (int i = 0; i < node.childCount; i++) { buildTop(node.children[i]); }
+		mergeTop(node);
+	}
+
+	//top узла по собственному запросу и top детей, как Trie.mergeTop
+	private void mergeTop(RadixNode node) {
+		int[] cursor = new int[node.childCount];
+		int[] top = new int[topSize];
+		int size = 0;
+		boolean isOwnTaken = node.entry < 0;
+		while (size < topSize) {
+			int bestEntry = isOwnTaken ? -1 : node.entry;
+			int bestChild = -1;
+			for (int i = 0; i < node.childCount; i++) {
+				int[] childTop = node.children[i].top;
+				if (cursor[i] < childTop.length) {
+					int entry = childTop[cursor[i]];
+					if (bestEntry < 0 || queries.better(entry, bestEntry)) {
+						bestEntry = entry;
+						bestChild = i;
+					}
+				}
+			}
+			if (bestEntry < 0) { break; }
+			if (bestChild < 0) { isOwnTaken = true; }
+			else { cursor[bestChild]++; }
+			top[size++] = bestEntry;
+		}
+		node.top = (size == topSize) ? top : Arrays.copyOf(top, size);
+	}
+
+	//вставка записи в top узла на свое место, как Trie.raiseInTop
+	private boolean raiseInTop(RadixNode node, int entry) {
+		int[] top = node.top;
+		int[] newTop = new int[Math.min(topSize, top.length + 1)];
+		int size = 0;
+		boolean isPlaced = false;
+		for (int i = 0; i < top.length && size < newTop.length; i++) {
+			if (top[i] == entry) { continue; }
+			if (!isPlaced && queries.better(entry, top[i])) {
+				newTop[size++] = entry;
+				isPlaced = true;
+				if (size == newTop.length) { break; }
+			}
+			newTop[size++] = top[i];
+		}
+		if (!isPlaced && size < newTop.length) {
+			newTop[size++] = entry;
+			isPlaced = true;
+		}
+		node.top = (size == newTop.length) ? newTop : Arrays.copyOf(newTop, size);
+		return isPlaced;
+	}
+
+	private static boolean contains(int[] top, int entry) {
+		return contains(top, top.length, entry);
+	}
+
+	private static boolean contains(int[] entries, int size, int entry) {
+		for (int i = 0; i < size; i++) {
+			if (entries[i] == entry) { return true; }
+		}
+		return false;
+	}
+}
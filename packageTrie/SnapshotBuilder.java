@@ -0,0 +1,769 @@
+package packageTrie;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+
+/**
+ * Построение снимка {@link TrieSnapshot} прямо из файла словаря, без Trie в памяти.
+ *
+ * Словарь может быть больше кучи. Строки читаются потоком и копятся пачками по
+ * maxRowsInMemory; каждая пачка сортируется по запросу и сбрасывается на диск. Отсортированные
+ * пачки сливаются (не больше {@link #MAX_FAN_IN} за раз, иначе в несколько проходов),
+ * повторы запроса схлопываются с наибольшим ранком, как при {@link Trie#insert(int, String)}.
+ * Пары известных опечаток (строки со вторым полем) сортируются и сливаются так же,
+ * в своих файлах.
+ *
+ * Узлы строятся одним проходом по отсортированным запросам: в памяти только путь от корня
+ * к текущему запросу с top каждого узла пути. Номер узла в обходе в ширину - это смещение
+ * его уровня плюс номер среди узлов того же уровня, а узлы одного уровня появляются в
+ * отсортированном проходе ровно в порядке обхода в ширину. Поэтому каждый узел сразу
+ * дописывается в файл своего уровня, а top - в файл уровня, когда поддерево пройдено.
+ * В конце файлы уровней склеиваются по разделам в снимок, побайтно совпадающий с
+ * {@link Trie#save(Path)} для того же словаря.
+ *
+ * Куча занята пачкой строк, буферами открытых файлов и путем, и не зависит от размера словаря.
+ * Так же, без загрузки Trie, к снимку применяются изменения словаря: {@link #update}.
+ *
+ * Аргументы main: файл словаря, файл снимка [строк в памяти].
+ * @author roman khalkechev
+ */
+public class SnapshotBuilder {
+	/** Наибольшее количество файлов, сливаемых за один проход. */
+	public static final int MAX_FAN_IN = 64;
+	//грубая оценка кучи на строку пачки: объект строки словаря и строки запроса
+	private static final int BYTES_PER_ROW = 256;
+	private static final int BUFFER_SIZE = 1 << 13;
+
+	private final int topSize;
+	private final int maxRowsInMemory;
+
+	public SnapshotBuilder() {
+		this(Trie.DEFAULT_TOP_SIZE, defaultRowsInMemory());
+	}
+
+	/**
+	 * @param topSize
+	 *               сколько лучших запросов хранить в каждом узле
+	 * @param maxRowsInMemory
+	 *                       сколько строк словаря сортировать в памяти за раз
+	 */
+	public SnapshotBuilder(int topSize, int maxRowsInMemory) {
+		if (topSize < 1) { throw new IllegalArgumentException("topSize должен быть положительным"); }
+		if (maxRowsInMemory < 1) { throw new IllegalArgumentException("maxRowsInMemory должен быть положительным"); }
+		this.topSize = topSize;
+		this.maxRowsInMemory = maxRowsInMemory;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Использование: SnapshotBuilder <файл словаря> <файл снимка> [строк в памяти]");
+			return;
+		}
+		int rows = args.length > 2 ? Integer.parseInt(args[2]) : defaultRowsInMemory();
+		long start = System.nanoTime();
+		new SnapshotBuilder(Trie.DEFAULT_TOP_SIZE, rows).build(args[0], Paths.get(args[1]));
+		System.out.println(String.format("Снимок %s: %.1f с, %.1f МБ", args[1], (System.nanoTime() - start) / 1e9,
+				Files.size(Paths.get(args[1])) / (1024.0 * 1024.0)));
+	}
+
+	/**
+	 * Размер пачки по умолчанию: строки пачки занимают около четверти наибольшей кучи.
+	 *
+	 * @return количество строк
+	 */
+	public static int defaultRowsInMemory() {
+		return (int) Math.max(1024, Math.min(Integer.MAX_VALUE - 8, Runtime.getRuntime().maxMemory() / 4 / BYTES_PER_ROW));
+	}
+
+	/**
+	 * Построение снимка. Временные файлы создаются рядом со снимком и удаляются в конце;
+	 * готовый снимок атомарно заменяет старый, как в {@link Trie#save(Path)}.
+	 *
+	 * @param fileName
+	 *                файл словаря
+	 * @param snapshot
+	 *                файл снимка
+	 */
+	public void build(String fileName, Path snapshot) throws IOException {
+		Path directory = Files.createTempDirectory(snapshot.toAbsolutePath().getParent(), "trie-build");
+		try {
+			List<Path> runs = new ArrayList<Path>();
+			List<Path> typoRuns = new ArrayList<Path>();
+			sortRuns(fileName, directory, runs, typoRuns);
+			while (runs.size() > MAX_FAN_IN) { runs = mergeRuns(runs, false, directory); }
+			while (typoRuns.size() > MAX_FAN_IN) { typoRuns = mergeRuns(typoRuns, true, directory); }
+			write(new MergedRows(runs, false), new MergedRows(typoRuns, true), directory, snapshot);
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Применение изменений словаря к снимку. Запросы старого снимка уже отсортированы,
+	 * поэтому они сливаются с отсортированными изменениями и идут прямо в проход построения:
+	 * ни словарь, ни Trie не загружаются, а куча занята только изменениями и парами опечаток,
+	 * к которым изменения применяются как в {@link Trie}. Новый снимок
+	 * побайтно совпадает со снимком, построенным из полного нового словаря; размер top
+	 * берется из старого снимка.
+	 *
+	 * @param snapshot
+	 *                файл снимка
+	 * @param delta
+	 *             изменения
+	 * @param target
+	 *              файл нового снимка (может совпадать со старым)
+	 */
+	public void update(Path snapshot, DictionaryDelta delta, Path target) throws IOException {
+		MappedTrie base = MappedTrie.open(snapshot);
+		SnapshotBuilder builder = base.getTopSize() == topSize ? this : new SnapshotBuilder(base.getTopSize(), maxRowsInMemory);
+		Path directory = Files.createTempDirectory(target.toAbsolutePath().getParent(), "trie-build");
+		try {
+			TypoIndex typos = TypoIndex.build(base.getTypos(), delta.typoRows());
+			builder.write(new UpdatedRows(base, delta.byQuery()), new IndexedTypos(typos), directory, target);
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	//проход построения по отсортированным запросам и склейка снимка
+	private void write(SortedRows rows, SortedRows typos, Path directory, Path snapshot) throws IOException {
+		Levels levels = new Levels(directory);
+		try {
+			try {
+				levels.addAll(rows);
+				levels.addTypos(typos);
+			} finally {
+				try {
+					rows.close();
+				} finally {
+					typos.close();
+				}
+			}
+		} finally {
+			levels.close();
+		}
+		levels.writeSnapshot(snapshot);
+	}
+
+	//чтение словаря пачками, каждая пачка сортируется и пишется в свой файл, ее пары опечаток - в свой
+	private void sortRuns(String fileName, Path directory, List<Path> runs, List<Path> typoRuns) throws IOException {
+		DictionaryRow[] batch = new DictionaryRow[Math.min(maxRowsInMemory, 1 << 16)];
+		int size = 0;
+		BufferedReader in = DictionaryRow.openReader(fileName);
+		try {
+			String s;
+			int lines = 0;
+			while ((s = in.readLine()) != null) {
+				DictionaryRow row = Trie.parseRow(s, ++lines);
+				if (row == null) { continue; }
+				if (size == batch.length) {
+					if (size == maxRowsInMemory) {
+						typoRuns.add(writeTypoRun(batch, size, directory));
+						runs.add(writeRun(batch, size, directory));
+						Arrays.fill(batch, null);
+						size = 0;
+					}
+					else {
+						batch = Arrays.copyOf(batch, Math.min(maxRowsInMemory, 2 * size));
+					}
+				}
+				batch[size++] = row;
+			}
+		} finally {
+			in.close();
+		}
+		if (size > 0 || runs.isEmpty()) {
+			typoRuns.add(writeTypoRun(batch, size, directory));
+			runs.add(writeRun(batch, size, directory));
+		}
+	}
+
+	private static Path writeRun(DictionaryRow[] batch, int size, Path directory) throws IOException {
+		Arrays.sort(batch, 0, size, new Comparator<DictionaryRow>() {
+			public int compare(DictionaryRow first, DictionaryRow second) {
+				return first.getQuery().compareTo(second.getQuery());
+			}
+		});
+		Path run = Files.createTempFile(directory, "run", ".bin");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16));
+		try {
+			for (int i = 0; i < size; ) {
+				//повторы запроса внутри пачки - с наибольшим ранком
+				String query = batch[i].getQuery();
+				int rank = batch[i].getRank();
+				for (i++; i < size && batch[i].getQuery().equals(query); i++) { rank = Math.max(rank, batch[i].getRank()); }
+				out.writeUTF(query);
+				out.writeInt(rank);
+			}
+		} finally {
+			out.close();
+		}
+		return run;
+	}
+
+	//пары опечаток пачки по возрастанию, без повторов; пара - запрос с опечаткой и исправление
+	private static Path writeTypoRun(DictionaryRow[] batch, int size, Path directory) throws IOException {
+		List<DictionaryRow> rows = new ArrayList<DictionaryRow>();
+		for (int i = 0; i < size; i++) {
+			String correction = batch[i].getCorrection();
+			if (correction != null && !correction.equals(batch[i].getOriginal())) { rows.add(batch[i]); }
+		}
+		Collections.sort(rows, new Comparator<DictionaryRow>() {
+			public int compare(DictionaryRow first, DictionaryRow second) {
+				int order = first.getOriginal().compareTo(second.getOriginal());
+				return order != 0 ? order : first.getCorrection().compareTo(second.getCorrection());
+			}
+		});
+		Path run = Files.createTempFile(directory, "typorun", ".bin");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16));
+		try {
+			for (int i = 0; i < rows.size(); i++) {
+				DictionaryRow row = rows.get(i);
+				if (i > 0 && row.getOriginal().equals(rows.get(i - 1).getOriginal())
+						&& row.getCorrection().equals(rows.get(i - 1).getCorrection())) { continue; }
+				out.writeUTF(row.getOriginal());
+				out.writeUTF(row.getCorrection());
+			}
+		} finally {
+			out.close();
+		}
+		return run;
+	}
+
+	//один проход слияния: группы по MAX_FAN_IN файлов сливаются в один
+	private static List<Path> mergeRuns(List<Path> runs, boolean isTypos, Path directory) throws IOException {
+		List<Path> merged = new ArrayList<Path>();
+		for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+			List<Path> group = runs.subList(from, Math.min(runs.size(), from + MAX_FAN_IN));
+			Path run = Files.createTempFile(directory, "run", ".bin");
+			MergedRows rows = new MergedRows(group, isTypos);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16));
+			try {
+				while (rows.next()) {
+					out.writeUTF(rows.query);
+					if (isTypos) { out.writeUTF(rows.correction); }
+					else { out.writeInt(rows.rank); }
+				}
+			} finally {
+				out.close();
+				rows.close();
+			}
+			for (Path path : group) { Files.delete(path); }
+			merged.add(run);
+		}
+		return merged;
+	}
+
+	/**
+	 * Запросы по возрастанию, каждый один раз, с ранком; или пары опечаток по возрастанию,
+	 * каждая один раз: запрос с опечаткой в query и исправление в correction.
+	 */
+	private abstract static class SortedRows implements Closeable {
+		String query;
+		String correction;
+		int rank;
+
+		abstract boolean next() throws IOException;
+	}
+
+	/**
+	 * Слияние отсортированных файлов: запросы по возрастанию, каждый один раз с наибольшим ранком,
+	 * или пары опечаток по возрастанию, каждая один раз.
+	 */
+	private static final class MergedRows extends SortedRows {
+		private final PriorityQueue<RunReader> heap;
+		private final List<RunReader> readers = new ArrayList<RunReader>();
+
+		MergedRows(List<Path> runs, boolean isTypos) throws IOException {
+			heap = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+				public int compare(RunReader first, RunReader second) {
+					int order = first.query.compareTo(second.query);
+					return order != 0 || first.correction == null ? order : first.correction.compareTo(second.correction);
+				}
+			});
+			try {
+				for (Path run : runs) {
+					RunReader reader = new RunReader(run, isTypos);
+					readers.add(reader);
+					if (reader.next()) { heap.add(reader); }
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		boolean next() throws IOException {
+			if (heap.isEmpty()) { return false; }
+			RunReader reader = heap.poll();
+			query = reader.query;
+			correction = reader.correction;
+			rank = reader.rank;
+			if (reader.next()) { heap.add(reader); }
+			while (!heap.isEmpty() && heap.peek().query.equals(query)
+					&& (correction == null || heap.peek().correction.equals(correction))) {
+				reader = heap.poll();
+				rank = Math.max(rank, reader.rank);
+				if (reader.next()) { heap.add(reader); }
+			}
+			return true;
+		}
+
+		public void close() throws IOException {
+			for (RunReader reader : readers) { reader.in.close(); }
+		}
+	}
+
+	/**
+	 * Запросы снимка вперемешку с изменениями: измененный запрос берется из изменений,
+	 * удаленный пропускается.
+	 */
+	private static final class UpdatedRows extends SortedRows {
+		private final MappedTrie base;
+		private final Iterator<Map.Entry<String, Integer>> changes;
+		private int entry;
+		private String baseQuery;
+		private Map.Entry<String, Integer> change;
+
+		UpdatedRows(MappedTrie base, SortedMap<String, Integer> changes) {
+			this.base = base;
+			this.changes = changes.entrySet().iterator();
+			baseQuery = base.getEntryCount() > 0 ? base.getQuery(0) : null;
+			change = this.changes.hasNext() ? this.changes.next() : null;
+		}
+
+		boolean next() {
+			while (baseQuery != null || change != null) {
+				int order = baseQuery == null ? 1 : change == null ? -1 : baseQuery.compareTo(change.getKey());
+				if (order < 0) {
+					query = baseQuery;
+					rank = base.getRank(entry);
+					nextBase();
+					return true;
+				}
+				if (order == 0) { nextBase(); }
+				Map.Entry<String, Integer> current = change;
+				change = changes.hasNext() ? changes.next() : null;
+				if (current.getValue() != null) {
+					query = current.getKey();
+					rank = current.getValue();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void nextBase() {
+			entry++;
+			baseQuery = entry < base.getEntryCount() ? base.getQuery(entry) : null;
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * Пары опечаток индекса по возрастанию.
+	 */
+	private static final class IndexedTypos extends SortedRows {
+		private final TypoIndex typos;
+		private int pair;
+
+		IndexedTypos(TypoIndex typos) {
+			this.typos = typos;
+		}
+
+		boolean next() {
+			if (typos == null || pair == typos.size()) { return false; }
+			query = typos.typo(pair);
+			correction = typos.correction(pair);
+			pair++;
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+
+	private static final class RunReader {
+		final DataInputStream in;
+		//файл пар опечаток: вместо ранка исправление
+		private final boolean isTypos;
+		String query;
+		String correction;
+		int rank;
+
+		RunReader(Path run, boolean isTypos) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+			this.isTypos = isTypos;
+		}
+
+		boolean next() throws IOException {
+			try {
+				query = in.readUTF();
+			} catch (EOFException e) {
+				return false;
+			}
+			if (isTypos) { correction = in.readUTF(); }
+			else { rank = in.readInt(); }
+			return true;
+		}
+	}
+
+	/**
+	 * Узлы и top по уровням. Для узла уровня d в файл уровня пишутся символ ребра, номер
+	 * родителя на уровне d - 1, номер первого ребенка на уровне d + 1 и номер записи запроса;
+	 * top пишется, когда поддерево узла пройдено.
+	 */
+	private final class Levels implements Closeable {
+		private final Path directory;
+		private final List<DataOutputStream> nodeFiles = new ArrayList<DataOutputStream>();
+		private final List<DataOutputStream> topFiles = new ArrayList<DataOutputStream>();
+		//запросы по порядку записей, для рангов и пула строк
+		private final DataOutputStream entryFile;
+		//пары опечаток по возрастанию
+		private final DataOutputStream typoFile;
+		//сколько узлов уже создано на каждом уровне
+		private int[] levelSizes = new int[16];
+		//путь: номер узла на своем уровне и его top (записи и ранги по убыванию)
+		private int[] pathIndex = new int[16];
+		private int[][] pathTop = new int[16][];
+		private int[][] pathTopRanks = new int[16][];
+		private int[] pathTopLength = new int[16];
+		private final int[] mergedTop = new int[topSize];
+		private final int[] mergedRanks = new int[topSize];
+		private String previous;
+		private int depth = -1;
+		private int entryCount;
+		private long topEntryCount;
+		private long poolSize;
+		private int typoCount;
+		private long typoLength;
+
+		Levels(Path directory) throws IOException {
+			this.directory = directory;
+			entryFile = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(directory.resolve("entries.bin")), 1 << 16));
+			typoFile = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(directory.resolve("typos.bin")), BUFFER_SIZE));
+		}
+
+		void addAll(SortedRows rows) throws IOException {
+			while (rows.next()) { add(rows.query, rows.rank); }
+			if (depth < 0) { openNode(0, (char) 0, -1); }
+			while (depth >= 0) { closeNode(); }
+		}
+
+		//пары приходят по возрастанию и без повторов
+		void addTypos(SortedRows typos) throws IOException {
+			while (typos.next()) {
+				typoFile.writeUTF(typos.query);
+				typoFile.writeUTF(typos.correction);
+				typoCount++;
+				typoLength += typos.query.length() + typos.correction.length();
+			}
+		}
+
+		//запросы приходят по возрастанию и без повторов
+		private void add(String query, int rank) throws IOException {
+			int entry = entryCount++;
+			entryFile.writeUTF(query);
+			entryFile.writeInt(rank);
+			poolSize += query.getBytes(StandardCharsets.UTF_8).length;
+
+			int common = 0;
+			if (previous != null) {
+				int end = Math.min(previous.length(), query.length());
+				while (common < end && previous.charAt(common) == query.charAt(common)) { common++; }
+			}
+			while (depth > common) { closeNode(); }
+			if (depth < 0) { openNode(0, (char) 0, query.isEmpty() ? entry : -1); }
+			for (int d = common + 1; d <= query.length(); d++) {
+				openNode(d, query.charAt(d - 1), d == query.length() ? entry : -1);
+			}
+			//собственный запрос - первый в top нового узла: в поддереве еще ничего нет
+			int d = query.length();
+			pathTop[d][0] = entry;
+			pathTopRanks[d][0] = rank;
+			pathTopLength[d] = 1;
+			previous = query;
+		}
+
+		private void openNode(int d, char label, int entry) throws IOException {
+			ensureDepth(d + 1);
+			int index = levelSizes[d]++;
+			DataOutputStream out = levelFile(nodeFiles, "nodes", d);
+			out.writeChar(label);
+			out.writeInt(d == 0 ? -1 : pathIndex[d - 1]);
+			//дети узла идут на следующем уровне сразу за уже созданными там узлами
+			out.writeInt(levelSizes[d + 1]);
+			out.writeInt(entry);
+			pathIndex[d] = index;
+			pathTopLength[d] = 0;
+			depth = d;
+		}
+
+		//поддерево узла на конце пути пройдено: его top пишется и вливается в top родителя
+		private void closeNode() throws IOException {
+			int d = depth;
+			int length = pathTopLength[d];
+			DataOutputStream out = levelFile(topFiles, "tops", d);
+			out.writeInt(length);
+			for (int i = 0; i < length; i++) { out.writeInt(pathTop[d][i]); }
+			topEntryCount += length;
+			if (d > 0) { mergeIntoParent(d); }
+			depth--;
+		}
+
+		private void mergeIntoParent(int d) {
+			int[] top = pathTop[d - 1];
+			int[] ranks = pathTopRanks[d - 1];
+			int length = pathTopLength[d - 1];
+			int[] childTop = pathTop[d];
+			int[] childRanks = pathTopRanks[d];
+			int childLength = pathTopLength[d];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			//порядок в top: по убыванию ранка, при равных ранках - по номеру записи, то есть по алфавиту
+			while (size < topSize && (i < length || j < childLength)) {
+				boolean isOwn = j == childLength || (i < length
+						&& (ranks[i] > childRanks[j] || (ranks[i] == childRanks[j] && top[i] < childTop[j])));
+				if (isOwn) {
+					mergedTop[size] = top[i];
+					mergedRanks[size++] = ranks[i++];
+				}
+				else {
+					mergedTop[size] = childTop[j];
+					mergedRanks[size++] = childRanks[j++];
+				}
+			}
+			System.arraycopy(mergedTop, 0, top, 0, size);
+			System.arraycopy(mergedRanks, 0, ranks, 0, size);
+			pathTopLength[d - 1] = size;
+		}
+
+		private void ensureDepth(int d) {
+			if (d >= levelSizes.length) {
+				int length = Math.max(levelSizes.length * 2, d + 1);
+				levelSizes = Arrays.copyOf(levelSizes, length);
+				pathIndex = Arrays.copyOf(pathIndex, length);
+				pathTop = Arrays.copyOf(pathTop, length);
+				pathTopRanks = Arrays.copyOf(pathTopRanks, length);
+				pathTopLength = Arrays.copyOf(pathTopLength, length);
+			}
+			if (pathTop[d] == null) {
+				pathTop[d] = new int[topSize];
+				pathTopRanks[d] = new int[topSize];
+			}
+			if (pathTop[d - 1] == null) {
+				pathTop[d - 1] = new int[topSize];
+				pathTopRanks[d - 1] = new int[topSize];
+			}
+		}
+
+		private DataOutputStream levelFile(List<DataOutputStream> files, String name, int d) throws IOException {
+			while (files.size() <= d) {
+				Path path = directory.resolve(name + files.size() + ".bin");
+				files.add(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE)));
+			}
+			return files.get(d);
+		}
+
+		public void close() throws IOException {
+			entryFile.close();
+			typoFile.close();
+			for (DataOutputStream out : nodeFiles) { out.close(); }
+			for (DataOutputStream out : topFiles) { out.close(); }
+		}
+
+		/**
+		 * Склейка файлов уровней в снимок того же формата, что пишет {@link TrieSnapshot#write}.
+		 */
+		void writeSnapshot(Path path) throws IOException {
+			int levels = nodeFiles.size();
+			long nodeCount = 0;
+			int[] levelOffsets = new int[levels + 1];
+			for (int d = 0; d < levels; d++) {
+				levelOffsets[d] = (int) nodeCount;
+				nodeCount += levelSizes[d];
+			}
+			levelOffsets[levels] = (int) nodeCount;
+			if (4 * (3 * nodeCount + topEntryCount + 2 * entryCount + 2L * typoCount) + 2 * (nodeCount + typoLength) + poolSize
+					> Integer.MAX_VALUE) {
+				throw new IOException("Снимок Trie больше 2 ГБ");
+			}
+
+			Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+			boolean isWritten = false;
+			OutputStream stream = Files.newOutputStream(temp);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+				out.writeInt(TrieSnapshot.MAGIC);
+				out.writeInt(TrieSnapshot.VERSION);
+				out.writeInt(topSize);
+				out.writeInt((int) nodeCount);
+				out.writeInt(entryCount);
+				out.writeInt((int) topEntryCount);
+				out.writeInt((int) poolSize);
+				out.writeInt(typoCount);
+				out.writeInt((int) typoLength);
+				//firstChild
+				for (int d = 0; d < levels; d++) {
+					DataInputStream in = openLevel("nodes", d);
+					try {
+						for (int i = 0; i < levelSizes[d]; i++) {
+							in.readChar();
+							in.readInt();
+							out.writeInt(levelOffsets[d + 1] + in.readInt());
+							in.readInt();
+						}
+					} finally {
+						in.close();
+					}
+				}
+				out.writeInt((int) nodeCount);
+				//parents и entries
+				for (int field = 0; field < 2; field++) {
+					for (int d = 0; d < levels; d++) {
+						DataInputStream in = openLevel("nodes", d);
+						try {
+							for (int i = 0; i < levelSizes[d]; i++) {
+								in.readChar();
+								int parent = in.readInt();
+								in.readInt();
+								int entry = in.readInt();
+								if (field == 0) { out.writeInt(d == 0 ? -1 : levelOffsets[d - 1] + parent); }
+								else { out.writeInt(entry); }
+							}
+						} finally {
+							in.close();
+						}
+					}
+				}
+				//topOffset и topEntries
+				int offset = 0;
+				for (int field = 0; field < 2; field++) {
+					for (int d = 0; d < levels; d++) {
+						DataInputStream in = openLevel("tops", d);
+						try {
+							for (int i = 0; i < levelSizes[d]; i++) {
+								int length = in.readInt();
+								if (field == 0) {
+									out.writeInt(offset);
+									offset += length;
+								}
+								for (int j = 0; j < length; j++) {
+									int entry = in.readInt();
+									if (field == 1) { out.writeInt(entry); }
+								}
+							}
+						} finally {
+							in.close();
+						}
+					}
+					if (field == 0) { out.writeInt(offset); }
+				}
+				//ranks, poolOffset и pool
+				for (int field = 0; field < 3; field++) {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve("entries.bin")), 1 << 16));
+					offset = 0;
+					try {
+						for (int e = 0; e < entryCount; e++) {
+							String query = in.readUTF();
+							int rank = in.readInt();
+							if (field == 0) { out.writeInt(rank); }
+							else if (field == 1) {
+								out.writeInt(offset);
+								offset += query.getBytes(StandardCharsets.UTF_8).length;
+							}
+							else { out.write(query.getBytes(StandardCharsets.UTF_8)); }
+						}
+					} finally {
+						in.close();
+					}
+					if (field == 1) {
+						out.writeInt(offset);
+						//границы пар опечаток, метки узлов и символы пар идут между poolOffset и pool
+						writeTypos(out, true);
+						for (int d = 0; d < levels; d++) {
+							DataInputStream nodes = openLevel("nodes", d);
+							try {
+								for (int i = 0; i < levelSizes[d]; i++) {
+									out.writeChar(nodes.readChar());
+									nodes.readInt();
+									nodes.readInt();
+									nodes.readInt();
+								}
+							} finally {
+								nodes.close();
+							}
+						}
+						writeTypos(out, false);
+						if ((nodeCount + typoLength) % 2 != 0) { out.writeChar(0); }
+					}
+				}
+				out.flush();
+				stream.close();
+				TrieSnapshot.publish(temp, path);
+				isWritten = true;
+			} finally {
+				if (!isWritten) {
+					stream.close();
+					Files.deleteIfExists(temp);
+				}
+			}
+		}
+
+		//раздел typoOffset (isOffsets) или typoChars из файла пар
+		private void writeTypos(DataOutputStream out, boolean isOffsets) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve("typos.bin")), 1 << 16));
+			int offset = 0;
+			try {
+				for (int i = 0; i < typoCount; i++) {
+					for (int part = 0; part < 2; part++) {
+						String text = in.readUTF();
+						if (isOffsets) { out.writeInt(offset); }
+						else { out.writeChars(text); }
+						offset += text.length();
+					}
+				}
+			} finally {
+				in.close();
+			}
+			if (isOffsets) { out.writeInt(offset); }
+		}
+
+		private DataInputStream openLevel(String name, int d) throws IOException {
+			return new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(name + d + ".bin")), 1 << 16));
+		}
+	}
+
+	private static void deleteDirectory(Path directory) throws IOException {
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try {
+			for (Path file : files) { Files.delete(file); }
+		} finally {
+			files.close();
+		}
+		Files.delete(directory);
+	}
+}
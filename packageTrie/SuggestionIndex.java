@@ -0,0 +1,107 @@
+package packageTrie;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Индекс подсказок: общие методы разных реализаций Trie.
+ *
+ * Все реализации дают одни и те же подсказки: top поддерева по убыванию ранка (при равных
+ * ранках - по алфавиту), смена раскладки и поиск с опечатками со слиянием по оценке
+ * "ранк, умноженный на штраф за каждую опечатку". Отличаются они устройством узлов,
+ * а значит памятью, скоростью загрузки и переходов по символам.
+ * @author roman khalkechev
+ */
+public interface SuggestionIndex {
+	/**
+	 * Реализация индекса, выбираемая при создании.
+	 */
+	enum Backend {
+		/** {@link Trie}: TreeMap ребер в каждом узле, версии для {@link ConcurrentTrie}. */
+		TREE_MAP {
+			public SuggestionIndex create() {
+				return new Trie();
+			}
+		},
+		/** {@link RadixTrie}: сжатые пути, метки ребер в общем буфере. */
+		RADIX {
+			public SuggestionIndex create() {
+				return new RadixTrie();
+			}
+		},
+		/** {@link DoubleArrayTrie}: переходы по массивам base/check. */
+		DOUBLE_ARRAY {
+			public SuggestionIndex create() {
+				return new DoubleArrayTrie();
+			}
+		};
+
+		/**
+		 * Пустой индекс этой реализации.
+		 *
+		 * @return индекс
+		 */
+		public abstract SuggestionIndex create();
+	}
+
+	/**
+	 * Добавление запроса. Если запрос уже есть, остается наибольший ранк.
+	 *
+	 * @param rank
+	 *            популярность запроса
+	 * @param key
+	 *            запрос
+	 */
+	void insert(int rank, String key);
+
+	/**
+	 * Удаление запроса.
+	 *
+	 * @param key
+	 *            запрос
+	 */
+	void delete(String key);
+
+	/**
+	 * Загрузка запросов из файла словаря.
+	 *
+	 * @param fileName
+	 *                имя файла
+	 */
+	void createTrie(String fileName) throws IOException;
+
+	/**
+	 * Подсказки по префиксу ({@link Trie#DEFAULT_HINT_COUNT} штук).
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return список подсказок
+	 */
+	List<String> hint(String prefix);
+
+	/**
+	 * k лучших подсказок по префиксу.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок
+	 */
+	List<String> hint(String prefix, int k);
+
+	/**
+	 * Подсказки для префикса с опечатками.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param max
+	 *           максимальное расстояние
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок или null, если близких узлов нет
+	 */
+	List<String> near(String prefix, int max, int k);
+}
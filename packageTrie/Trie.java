@@ -1,31 +1,93 @@
 package packageTrie;
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.HashMap;
-import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.PriorityQueue;
 
 
 /**
  * Trie
  * @author roman khalkechev
  */
-public class Trie {
+public class Trie implements SuggestionIndex {
+	//количество подсказок, которое хранится в top узла по умолчанию
+	public static final int DEFAULT_TOP_SIZE = 10;
+	//количество подсказок, которое возвращает hint(prefix)
+	public static final int DEFAULT_HINT_COUNT = 10;
+	//штраф за одну опечатку по умолчанию: подсказка с опечаткой должна быть в 10 раз популярнее
+	public static final double DEFAULT_TYPO_PENALTY = 0.1;
+	//префиксы длиннее этого не ищутся с опечатками: такой префикс не набирают руками, а перебор для него дорог
+	public static final int MAX_NEAR_PREFIX_LENGTH = 128;
+
 	private final TrieNode root;
+	//общая таблица запросов, на записи которой ссылаются top узлов
+	private final QueryTable queries;
+	//номер версии: узлы с другим номером принадлежат предыдущим версиям и перед изменением копируются
+	private final int version;
+	//актуальны ли top во всех узлах
+	private boolean isTopBuilt = true;
+	//количество подсказок, которое хранится в top каждого узла
+	private final int topSize;
+	//скорость последней загрузки из файла, строк в секунду
+	private double loadLinesPerSecond;
+	//во сколько раз снижается оценка подсказки за каждую опечатку
+	private double typoPenalty = DEFAULT_TYPO_PENALTY;
+	//индекс удалений для near или null
+	private DeletionIndex deletionIndex;
+	//известные опечатки из второго поля словаря или null
+	private TypoIndex typos;
+	//метрики или null, если выключены: тогда hint и near не тратят на них ничего, кроме проверки на null
+	private TrieMetrics metrics;
+
 	public Trie() {
+		this(DEFAULT_TOP_SIZE);
+	}
+
+	/**  
+	 * @param topSize
+	 *               сколько лучших запросов хранить в каждом узле; столько подсказок
+	 *               отдаются без обхода поддерева
+	 */
+	public Trie(int topSize) {
+		if (topSize < 1) { throw new IllegalArgumentException("topSize должен быть положительным"); }
+		this.topSize = topSize;
+		this.version = 0;
+		queries = new QueryTable();
 		root = new TrieNode();
 	}
 
 	/**  
-	 * Добавление нового узла в Trie.
+	 * Новая версия Trie на основе старой. Поддеревья общие; изменения в новой версии копируют
+	 * узлы на пути от корня, так что старая версия никогда не меняется и ее можно
+	 * продолжать читать из других потоков.
+	 *
+	 * @param base
+	 *             предыдущая версия с посчитанными top
+	 */
+	Trie(Trie base) {
+		base.ensureTopBuilt();
+		this.topSize = base.topSize;
+		this.version = base.version + 1;
+		this.typoPenalty = base.typoPenalty;
+		this.metrics = base.metrics;
+		this.typos = base.typos;
+		queries = base.queries.copy();
+		root = base.root.copy(version);
+	}
+
+	/**  
+	 * Добавление нового узла в Trie. Если запрос уже есть, остается наибольший ранк.
+	 * top узлов на пути к запросу исправляются сразу, за O(глубина * topSize).
 	 *
 	 * @param rank
 	 *            популярность запроса
@@ -33,34 +95,96 @@ public class Trie {
 	 *            запрос
 	 */
 	public void insert(int rank, String key) {
-		TrieNode currentNode = root;
-		TrieNode prevNode;
+		TrieNode[] path = ownPath(key);
+		TrieNode currentNode = path[key.length()];
+		//запрос хранится один раз; при повторной вставке остается наибольший ранк
+		if (currentNode.getEntry() < 0) {
+			currentNode.setEntry(queries.add(key, rank));
+			currentNode.setRank(rank);
+		}
+		else if (currentNode.getRank() < rank) {
+			queries.setRank(currentNode.getEntry(), rank);
+			currentNode.setRank(rank);
+		}
+		else {
+			return;
+		}
+		raiseInTop(path, currentNode.getEntry());
+		if (deletionIndex != null) { deletionIndex.add(key); }
+	}
 
-		for (char c : key.toCharArray()) {
-			TrieNode child = currentNode.traverse(c);
+	/**  
+	 * Вычисление top во всех узлах одним проходом снизу вверх.
+	 * Вызывается после загрузки, во время которой top не поддерживаются.
+	 */
+	public void buildTop() {
+		buildTop(root);
+		isTopBuilt = true;
+		if (metrics != null) { metrics.sourceChanged(); }
+	}
 
-			if (child == null) {
-				prevNode = currentNode;
-				currentNode = currentNode.addEdge(c);
-				if (prevNode != root) { currentNode.setKey(prevNode.getKey() + c); }
-				else { currentNode.setKey(String.valueOf(c)); }
+	void buildTop(TrieNode currentNode) {
+		Iterator<TrieNode> children = currentNode.getChildren();
+		if (children != null) {
+			while (children.hasNext()) {
+				TrieNode child = children.next();
+				//поддеревья предыдущих версий не менялись, их top уже посчитаны
+				if (child.version == version) { buildTop(child); }
 			}
-			else {
-			    /* В каждой вершине заполняем множество top десятью
-				 * самыми популярными запросами по поддереву.
-				 */
-				if (currentNode.top.keySet().size() < 10) {
-					currentNode.top.put(rank, key);
-				}
-				else {
-	  				if (currentNode.getMinRank() < rank) {
-					    currentNode.top.remove(currentNode.getMinRank());
-					    currentNode.top.put(rank, key);
-				    }
+		}
+		mergeTop(currentNode);
+	}
+
+	/**  
+	 * Пересчет top узла по его собственному запросу и уже посчитанным top детей:
+	 * слияние упорядоченных списков, пока не наберется topSize записей.
+	 *
+	 * @param currentNode
+	 *                    узел
+	 */
+	void mergeTop(TrieNode currentNode) {
+		int childrenCnt = currentNode.getChildrenCnt();
+		int[][] childTops = new int[childrenCnt][];
+		int[] cursor = new int[childrenCnt];
+		Iterator<TrieNode> children = currentNode.getChildren();
+		for (int i = 0; i < childrenCnt; i++) {
+			childTops[i] = children.next().getTop();
+		}
+
+		int[] top = new int[topSize];
+		int size = 0;
+		boolean isOwnTaken = currentNode.getEntry() < 0;
+		while (size < topSize) {
+			int bestEntry = isOwnTaken ? -1 : currentNode.getEntry();
+			int bestChild = -1;
+			for (int i = 0; i < childrenCnt; i++) {
+				if (cursor[i] < childTops[i].length) {
+					int entry = childTops[i][cursor[i]];
+					if (bestEntry < 0 || queries.better(entry, bestEntry)) {
+						bestEntry = entry;
+						bestChild = i;
+					}
 				}
-				currentNode = child;
 			}
+			if (bestEntry < 0) { break; }
+			if (bestChild < 0) { isOwnTaken = true; }
+			else { cursor[bestChild]++; }
+			top[size++] = bestEntry;
 		}
+		currentNode.top = (size == topSize) ? top : Arrays.copyOf(top, size);
+	}
+
+	void ensureTopBuilt() {
+		if (!isTopBuilt) { buildTop(); }
+	}
+
+	/**  
+	 * Возвращает таблицу запросов, на которую ссылаются узлы.
+	 *
+	 * @return таблица запросов
+	 */
+	public QueryTable getQueries() {
+		return queries;
 	}
 
 	/**  
@@ -73,40 +197,180 @@ public class Trie {
 	 */
 	public TrieNode searchNode(String key) {
 		TrieNode currentNode = root;
-		for (char c : key.toCharArray()) {
-			TrieNode child = currentNode.traverse(c);
-			if (child == null) {
-				return null;
-			}
-			else {
-				currentNode = child;
-			}
+		for (int i = 0; i < key.length() && currentNode != null; i++) {
+			currentNode = currentNode.traverse(key.charAt(i));
 		}
 		return currentNode;
 	}
 
 	/** 
-	 * Удаление узла из Trie с заданным ключем.
+	 * Поиск узла по ключу, набранному в неправильной раскладке: Trie обходится
+	 * сразу по переведенным символам, без промежуточной строки.
 	 *
 	 * @param key
 	 *            запрос
+	 * @param layout
+	 *              раскладка
+	 *
+	 * @return узел или null, если такого нет или в ключе есть символ без пары
 	 */
-	public void delete(String key) {
+	public TrieNode searchNode(CharSequence key, KeyboardLayout layout) {
 		TrieNode currentNode = root;
-		TrieNode prevNode = root;
-		char lastChar = key.toCharArray()[key.length() - 1];
+		for (int i = 0; i < key.length() && currentNode != null; i++) {
+			char c = layout.translate(key.charAt(i));
+			if (c == 0) { return null; }
+			currentNode = currentNode.traverse(c);
+		}
+		return currentNode;
+	}
 
-		for (char c : key.toCharArray()) {
-			TrieNode child = currentNode.traverse(c);
-			if (child == null) {
-				return;
-			}
-			else {
-				prevNode = currentNode;
-				currentNode = child;
+	/** 
+	 * Удаление запроса из Trie. Запросы, для которых он префикс, остаются; узлы,
+	 * в которых не осталось ни запроса, ни детей, удаляются. top предков исправляются.
+	 *
+	 * @param key
+	 *            запрос
+	 */
+	public void delete(String key) {
+		TrieNode node = searchNode(key);
+		if (node == null || node.getEntry() < 0) { return; }
+		TrieNode[] path = ownPath(key);
+		int entry = path[key.length()].getEntry();
+		path[key.length()].setEntry(-1);
+		path[key.length()].setRank(0);
+
+		//отрезаем опустевший хвост пути
+		int depth = key.length();
+		while (depth > 0 && path[depth].getEntry() < 0 && path[depth].getChildrenCnt() == 0) {
+			path[depth - 1].deleteEdge(key.charAt(depth - 1));
+			depth--;
+		}
+		lowerInTop(Arrays.copyOf(path, depth + 1), entry);
+	}
+
+	/** 
+	 * Назначение ранка запросу, который уже есть в Trie. top предков исправляются:
+	 * при росте ранка - вставкой в top, при падении - пересчетом по top детей
+	 * только в тех узлах, в top которых запрос был.
+	 *
+	 * @param key
+	 *            запрос
+	 * @param rank
+	 *            новый ранк
+	 *
+	 * @return false, если такого запроса нет
+	 */
+	public boolean updateRank(String key, int rank) {
+		TrieNode node = searchNode(key);
+		if (node == null || node.getEntry() < 0) { return false; }
+		if (node.getRank() == rank) { return true; }
+		TrieNode[] path = ownPath(key);
+		node = path[key.length()];
+		boolean isRaised = rank > node.getRank();
+		queries.setRank(node.getEntry(), rank);
+		node.setRank(rank);
+		if (isRaised) { raiseInTop(path, node.getEntry()); }
+		else { lowerInTop(path, node.getEntry()); }
+		return true;
+	}
+
+	/** 
+	 * Запрос стал популярнее (или появился): он вставляется в top узлов на пути снизу вверх.
+	 * Если запрос не попал в top узла, в top предков он тоже не попадет - там конкурентов не меньше.
+	 *
+	 * @param path
+	 *            узлы от корня до запроса
+	 * @param entry
+	 *             номер записи
+	 */
+	private void raiseInTop(TrieNode[] path, int entry) {
+		if (!isTopBuilt) { return; }
+		for (int i = path.length - 1; i >= 0; i--) {
+			if (!raiseInTop(path[i], entry)) { break; }
+		}
+	}
+
+	//вставка записи в top узла на свое место; массив top заменяется, а не меняется на месте
+	private boolean raiseInTop(TrieNode currentNode, int entry) {
+		int[] top = currentNode.getTop();
+		int[] newTop = new int[Math.min(topSize, top.length + 1)];
+		int size = 0;
+		boolean isPlaced = false;
+		for (int i = 0; i < top.length && size < newTop.length; i++) {
+			if (top[i] == entry) { continue; }
+			if (!isPlaced && queries.better(entry, top[i])) {
+				newTop[size++] = entry;
+				isPlaced = true;
+				if (size == newTop.length) { break; }
 			}
+			newTop[size++] = top[i];
 		}
-		prevNode.deleteEdge(lastChar);
+		if (!isPlaced && size < newTop.length) {
+			newTop[size++] = entry;
+			isPlaced = true;
+		}
+		currentNode.top = (size == newTop.length) ? newTop : Arrays.copyOf(newTop, size);
+		return isPlaced;
+	}
+
+	/** 
+	 * Запрос стал менее популярным или удален: top узлов на пути, в которых он был,
+	 * пересчитываются снизу вверх по top детей. Если запроса нет в top узла,
+	 * его нет и в top предков.
+	 *
+	 * @param path
+	 *            узлы от корня до запроса (или до его ближайшего оставшегося предка)
+	 * @param entry
+	 *             номер записи
+	 */
+	private void lowerInTop(TrieNode[] path, int entry) {
+		if (!isTopBuilt) { return; }
+		for (int i = path.length - 1; i >= 0; i--) {
+			if (!contains(path[i].getTop(), entry)) { break; }
+			mergeTop(path[i]);
+		}
+	}
+
+	private static boolean contains(int[] top, int entry) {
+		for (int topEntry : top) {
+			if (topEntry == entry) { return true; }
+		}
+		return false;
+	}
+
+	/** 
+	 * Узлы на пути от корня до ключа: недостающие создаются, узлы старых версий копируются.
+	 *
+	 * @param key
+	 *            запрос
+	 *
+	 * @return path[i] - узел с ключом key.substring(0, i)
+	 */
+	private TrieNode[] ownPath(String key) {
+		if (metrics != null) { metrics.sourceChanged(); }
+		TrieNode[] path = new TrieNode[key.length() + 1];
+		path[0] = root;
+		for (int i = 0; i < key.length(); i++) {
+			path[i + 1] = ownOrAddChild(path[i], key.charAt(i));
+		}
+		return path;
+	}
+
+	//ребенок, которым владеет текущая версия: узел старой версии копируется и подменяется в родителе
+	private TrieNode ownChild(TrieNode parent, char c, TrieNode child) {
+		if (child.version == version) { return child; }
+		TrieNode copy = child.copy(version);
+		parent.setEdge(c, copy);
+		return copy;
+	}
+
+	//ребенок текущей версии по символу; если его нет - создается
+	private TrieNode ownOrAddChild(TrieNode currentNode, char c) {
+		TrieNode child = currentNode.traverse(c);
+		if (child != null) { return ownChild(currentNode, c, child); }
+		child = currentNode.addEdge(c);
+		child.version = version;
+		return child;
 	}
 
 	/** 
@@ -129,28 +393,30 @@ public class Trie {
 			}
 		}
 		List<String> matches = new ArrayList<String>();
-		preorderTraverse(currentNode, matches);
+		preorderTraverse(currentNode, new StringBuilder(prefix), matches);
 		return matches;
 	}
 
 	/** 
-	 * Обход Trie начиная с заданного узла.
+	 * Обход Trie начиная с заданного узла. Узлы не хранят свои ключи: ключ собирается
+	 * по меткам ребер на пути обхода.
 	 *
 	 * @param currentNode
 	 *                    стартовый узел
-	 *
+	 * @param key
+	 *            ключ стартового узла; после обхода он такой же, как до
 	 * @param results
 	 *                список узлов, в который сохраняются узлы, которые обошли
 	 */
-	public void preorderTraverse(TrieNode currentNode, List<String> results) {
-		if (currentNode == null) { return; }
-		if (currentNode.getKey() != null) {
-			results.add(currentNode.getKey());
-		}
-		Iterator<TrieNode> children = currentNode.getChildren();
-		if (children != null) {
-			while (children.hasNext()) {
-				preorderTraverse(children.next(), results);
+	private void preorderTraverse(TrieNode currentNode, StringBuilder key, List<String> results) {
+		if (currentNode != root) { results.add(key.toString()); }
+		Iterator<Map.Entry<Character, TrieNode>> edges = currentNode.getEdges();
+		if (edges != null) {
+			while (edges.hasNext()) {
+				Map.Entry<Character, TrieNode> edge = edges.next();
+				key.append(edge.getKey().charValue());
+				preorderTraverse(edge.getValue(), key, results);
+				key.setLength(key.length() - 1);
 			}
 		}
 	}
@@ -165,64 +431,195 @@ public class Trie {
 	 *
 	 */
 	public List<String> hint(String prefix) {
-		//максимальное допустимое количество опечаток
-		int maxMisprint = 0;
-		//список подсказок
-		List<String> hintTop = new ArrayList<String>();
-		//была ли смена раскладки клавиатуры?
-		boolean isKeyboardChange = false;
-		TrieNode currentNode = root;
-		for (char c : prefix.toCharArray()) {
-			TrieNode child = currentNode.traverse(c);
-			//нет подсказок и раскладку еще не меняли? попробуем сменить раскладку клавиатуры и заново поискать
-			if (child == null && !isKeyboardChange) {
-				String myPrefix = this.keyboardChange(prefix);
-				isKeyboardChange = true;
-				if (myPrefix != null) {
-     				TrieNode myNode = root;
-	    			for (char ch : myPrefix.toCharArray()) {
-		    			TrieNode myChild = myNode.traverse(ch);
-			    		if (myChild == null) { break; }
-	    				else { myNode = myChild; }
-		    		}
-			    	if (myNode != null){
-				    	Iterator<String> myTopIterator = myNode.getTop();
-					    if (myTopIterator != null) {
-			                while ( myTopIterator.hasNext()) {
-			                    hintTop.add(myTopIterator.next());
-		                    }
-	                    }
-	                    return hintTop;
-				    }
-			    }
-			}
-			//смена раскладки не помогла - вероятно в префиксе опечатка
-			if ( child == null && isKeyboardChange) {
-				//ищем близкие префиксы и выводим самый популярный
-				//если префикс короткий (<= 5) - допускаем 1 опечатку
-				if (prefix.length() <= 5) {
-					maxMisprint = 1;
-				}
-				//если префикс длины > 5, то допускается 2 опечатки
-				if (prefix.length() > 5) {
-					maxMisprint = 2;
-				}
-				//возвращаем наиболее вероятные подсказки
-				return near(prefix, maxMisprint);
+		return hint(prefix, 0, DEFAULT_HINT_COUNT);
+	}
+
+	/** 
+	 * Функция подсказок. Возвращает k лучших подсказок по префиксу.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок
+	 *
+	 */
+	public List<String> hint(String prefix, int k) {
+		return hint(prefix, 0, k);
+	}
+
+	/** 
+	 * Функция подсказок. Возвращает страницу подсказок по префиксу: подсказки
+	 * с номерами от offset до offset + limit - 1 в порядке убывания популярности.
+	 * Страницы в пределах хранимого top берутся из узла, более дальние - обходом поддерева.
+	 *
+	 * @param prefix
+	 *              префикс
+	 * @param offset
+	 *              номер первой подсказки
+	 * @param limit
+	 *             количество подсказок
+	 *
+	 * @return список подсказок
+	 *
+	 */
+	public List<String> hint(String prefix, int offset, int limit) {
+		if (offset < 0 || limit < 0) { throw new IllegalArgumentException("offset и limit должны быть неотрицательны"); }
+		ensureTopBuilt();
+		TrieMetrics metrics = this.metrics;
+		long time = metrics == null ? 0 : System.nanoTime();
+		TrieNode currentNode = searchNode(prefix);
+		if (metrics != null) { time = metrics.stage(TrieMetrics.Stage.EXACT, time, currentNode != null); }
+		//нет подсказок? попробуем сменить раскладку клавиатуры и заново поискать
+		if (currentNode == null) {
+			for (KeyboardLayout layout : KeyboardLayout.registered()) {
+				currentNode = searchNode(prefix, layout);
+				if (currentNode != null) { break; }
 			}
-			else {
-				currentNode = child;
+			if (metrics != null) { time = metrics.stage(TrieMetrics.Stage.LAYOUT, time, currentNode != null); }
+		}
+		//известная опечатка из словаря: подсказки из узла исправленного префикса
+		if (currentNode == null && typos != null) {
+			currentNode = searchTypo(prefix);
+			if (metrics != null) { metrics.stage(TrieMetrics.Stage.TYPO, time, currentNode != null); }
+		}
+		//смена раскладки не помогла - вероятно в префиксе опечатка
+		if (currentNode == null) {
+			//ищем близкие префиксы и выводим самые популярные
+			//если префикс короткий (<= 5) - допускаем 1 опечатку, если длиннее - 2
+			int maxMisprint = prefix.length() <= 5 ? 1 : 2;
+			//возвращаем наиболее вероятные подсказки
+			List<String> nearTop = near(prefix, maxMisprint, offset + limit);
+			if (metrics != null && nearTop == null) { metrics.recordEmpty(); }
+			if (nearTop == null || offset >= nearTop.size()) { return Collections.emptyList(); }
+			return new ArrayList<String>(nearTop.subList(offset, Math.min(nearTop.size(), offset + limit)));
+		}
+		return topPage(currentNode, offset, limit);
+	}
+
+	/** 
+	 * Страница подсказок из поддерева узла. Если страница помещается в хранимый top
+	 * (или top содержит все запросы поддерева), это просто копия отрезка массива.
+	 * Иначе запросы перебираются в порядке убывания популярности обходом "лучший первым":
+	 * в очереди лежат поддеревья с ключом по их лучшему запросу и отдельные запросы,
+	 * и обход останавливается, как только выдано offset + limit запросов.
+	 *
+	 * @param currentNode
+	 *                    узел
+	 * @param offset
+	 *              номер первой подсказки
+	 * @param limit
+	 *             количество подсказок
+	 *
+	 * @return список подсказок
+	 */
+	List<String> topPage(TrieNode currentNode, int offset, int limit) {
+		int[] top = currentNode.getTop();
+		long end = (long) offset + limit;
+		if (end <= top.length || top.length < topSize) {
+			List<String> page = new ArrayList<String>();
+			for (int i = offset; i < Math.min(end, top.length); i++) {
+				page.add(queries.getQuery(top[i]));
 			}
+			return page;
 		}
 
-		if (currentNode == null) { return Collections.emptyList();}
-		Iterator<String> topIterator = currentNode.getTop();
-		if (topIterator != null) {
-			while ( topIterator.hasNext()) {
-				hintTop.add(topIterator.next());
+		List<String> page = new ArrayList<String>(limit);
+		PriorityQueue<HintCandidate> candidates = new PriorityQueue<HintCandidate>(16, new Comparator<HintCandidate>() {
+			public int compare(HintCandidate first, HintCandidate second) {
+				if (first.entry == second.entry) { return 0; }
+				return queries.better(first.entry, second.entry) ? -1 : 1;
+			}
+		});
+		candidates.add(new HintCandidate(currentNode.getBestEntry(), currentNode));
+		int count = 0;
+		while (!candidates.isEmpty() && count < end) {
+			HintCandidate candidate = candidates.poll();
+			if (candidate.node == null) {
+				if (count++ >= offset) { page.add(queries.getQuery(candidate.entry)); }
+				continue;
+			}
+			//раскрываем поддерево: его собственный запрос и дети
+			if (candidate.node.getEntry() >= 0) {
+				candidates.add(new HintCandidate(candidate.node.getEntry(), null));
+			}
+			Iterator<TrieNode> children = candidate.node.getChildren();
+			if (children != null) {
+				while (children.hasNext()) {
+					TrieNode child = children.next();
+					if (child.getBestEntry() >= 0) {
+						candidates.add(new HintCandidate(child.getBestEntry(), child));
+					}
+				}
 			}
 		}
-		return hintTop;
+		return page;
+	}
+
+	//элемент очереди обхода: поддерево узла node или отдельный запрос (node == null)
+	private static final class HintCandidate {
+		final int entry;
+		final TrieNode node;
+
+		HintCandidate(int entry, TrieNode node) {
+			this.entry = entry;
+			this.node = node;
+		}
+	}
+
+	/** 
+	 * Функция подсказок для пачки префиксов: то же, что hint(prefix) для каждого из них.
+	 * Префиксы сортируются, спуск по Trie для соседних префиксов с общим началом
+	 * продолжается с узла этого начала, а группы с разными первыми символами
+	 * обрабатываются параллельно в общем пуле fork-join.
+	 *
+	 * @param prefixes
+	 *                префиксы
+	 *
+	 * @return списки подсказок в порядке префиксов
+	 */
+	public List<List<String>> hintAll(List<String> prefixes) {
+		return hintAll(prefixes, DEFAULT_HINT_COUNT);
+	}
+
+	/** 
+	 * Функция подсказок для пачки префиксов: k лучших подсказок для каждого.
+	 *
+	 * @param prefixes
+	 *                префиксы
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return списки подсказок в порядке префиксов
+	 */
+	public List<List<String>> hintAll(List<String> prefixes, int k) {
+		if (k < 0) { throw new IllegalArgumentException("k должно быть неотрицательно"); }
+		//top достраиваются до раздачи по потокам
+		ensureTopBuilt();
+		return new HintBatch(this, prefixes, k).run(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Сессия подсказок по мере набора префикса с пустым начальным префиксом.
+	 * Сессия годится, пока Trie не меняется.
+	 *
+	 * @return сессия
+	 */
+	public HintSession newSession() {
+		return newSession(DEFAULT_HINT_COUNT);
+	}
+
+	/**
+	 * Сессия подсказок по мере набора префикса: k лучших подсказок на каждом шаге.
+	 *
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return сессия
+	 */
+	public HintSession newSession(int k) {
+		return new HintSession(this, k);
 	}
 
 	/** 
@@ -233,56 +630,185 @@ public class Trie {
 	 *
 	 */
 	public void createTrie(String fileName) throws IOException {
-		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		long start = System.nanoTime();
+		BufferedReader in = DictionaryRow.openReader(fileName);
 		String s;
-		int rank;
+		int lines = 0;
+		//строки с исправлением попадают в индекс опечаток после загрузки
+		List<DictionaryRow> typoRows = new ArrayList<DictionaryRow>();
+		//на время загрузки top не поддерживаются, а считаются один раз в конце
+		isTopBuilt = false;
 
-		while((s = in.readLine()) != null) {
-			//считываем ранк (популярность) запроса
-			rank = readRank(s);
-			//сохраняем верный вариант запроса (без опечаток который)
-			s = readString(s);
-			//добавляем запрос и его ранк (популярность)
-			this.insert(rank, s);
+		try {
+			while((s = in.readLine()) != null) {
+				//строка разбирается один раз: верный вариант запроса (без опечаток который) и его ранк
+				DictionaryRow row = parseRow(s, lines + 1);
+				if (row != null) {
+					//добавляем запрос и его ранк (популярность)
+					this.insert(row.getRank(), row.getQuery());
+					if (row.getCorrection() != null) { typoRows.add(row); }
+				}
+				lines++;
+			}
+		} finally {
+			in.close();
 		}
-		in.close();
+		//top всех узлов считаем один раз после загрузки
+		buildTop();
+		addTypos(typoRows);
+		setLoadStatistics(lines, System.nanoTime() - start);
 	}
 
 	/** 
-	 * Сохраняет ранк запроса из строки.
+	 * Создание Trie по данным из файла.
+	 * В параллельном режиме файл целиком декодируется из UTF-8, строки разбираются кусками
+	 * в пуле fork-join и раскладываются по первому символу запроса; поддеревья для каждого
+	 * первого символа строятся параллельно и подвешиваются к корню. Результат совпадает
+	 * с последовательной загрузкой, включая номера записей в таблице запросов.
+	 * Параллельная загрузка возможна только в пустое Trie, иначе файл загружается последовательно.
 	 *
-	 * @param inputString
-	 *                   строка
+	 * @param fileName
+	 *                имя файла
+	 * @param parallel
+	 *                загружать ли параллельно
 	 *
-	 * @return ранк запроса
 	 */
-	private int readRank(String inputString) {
-		String[] stringArray = inputString.split("\t");
-		int rank = Integer.parseInt(stringArray[2]);
-		return rank;
+	public void createTrie(String fileName, boolean parallel) throws IOException {
+		if (!parallel || root.getChildrenCnt() > 0 || root.getEntry() >= 0) {
+			createTrie(fileName);
+			return;
+		}
+		long start = System.nanoTime();
+		ParallelLoader loader = new ParallelLoader(this, ForkJoinPool.commonPool());
+		int lines = loader.load(fileName);
+		addTypos(loader.getTypoRows());
+		if (deletionIndex != null) { buildDeletionIndex(deletionIndex.getMaxDeletes(), deletionIndex.getDepth()); }
+		setLoadStatistics(lines, System.nanoTime() - start);
+	}
+
+	/** 
+	 * Скорость последней загрузки из файла.
+	 *
+	 * @return количество строк в секунду
+	 */
+	public double getLoadLinesPerSecond() {
+		return loadLinesPerSecond;
+	}
+
+	private void setLoadStatistics(int lines, long nanos) {
+		loadLinesPerSecond = nanos > 0 ? lines * 1e9 / nanos : 0;
+		if (metrics != null) { metrics.recordLoad(nanos); }
 	}
+
 	public TrieNode getRoot() {
 		return root;
 	}
 
 	/** 
-	 * Выбирает из строки вариант запроса без опечаток.
+	 * Включение метрик подсказок. Повторный вызов возвращает уже включенные метрики.
+	 *
+	 * @return метрики
+	 */
+	public TrieMetrics enableMetrics() {
+		if (metrics == null) { metrics = new TrieMetrics(this); }
+		return metrics;
+	}
+
+	/** 
+	 * Выключение метрик: hint и near перестают их записывать.
+	 */
+	public void disableMetrics() {
+		metrics = null;
+	}
+
+	/** 
+	 * Метрики подсказок.
+	 *
+	 * @return метрики или null, если они выключены
+	 */
+	public TrieMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** 
+	 * Возвращает количество запросов, которое хранится в top каждого узла.
 	 *
-	 * @param inputString
-	 *                   строка
+	 * @return размер top
+	 */
+	public int getTopSize() {
+		return topSize;
+	}
+
+	/** 
+	 * Сохранение Trie в бинарный снимок: массивы узлов, метки ребер, top и таблица строк.
 	 *
-     * @return запрос без опечаток
+	 * @param path
+	 *            файл снимка
 	 */
-	private String readString(String inputString) /*throws Exception*/ {
-		String[] stringArray = inputString.split("\t");
-		//if ( stringArray.length != 3 ) { throw new Exception("Wrong format"); }
-		String resultString;
-		//если второе поле пустое или содержит пробелы, считываем первое поле, иначе - считываем второе
-		if ( stringArray[1].isEmpty() || stringArray[1].trim().isEmpty() ) { resultString = stringArray[0]; }
-		else { resultString = stringArray[1]; }
-		return resultString;
+	public void save(Path path) throws IOException {
+		ensureTopBuilt();
+		TrieSnapshot.write(this, path);
 	}
-	
+
+	/** 
+	 * Открытие бинарного снимка, сохраненного {@link #save(Path)}. Снимок отображается
+	 * в память и не копируется в кучу; подсказки читаются прямо из отображенного буфера.
+	 *
+	 * @param path
+	 *            файл снимка
+	 *
+	 * @return Trie только для чтения
+	 */
+	public static MappedTrie open(Path path) throws IOException {
+		return MappedTrie.open(path);
+	}
+
+	/** 
+	 * Разбор строки словаря.
+	 *
+	 * @param line
+	 *            строка
+	 * @param lineNumber
+	 *                  номер строки в файле
+	 *
+	 * @return строка словаря или null для пустой строки
+	 */
+	static DictionaryRow parseRow(String line, int lineNumber) throws IOException {
+		try {
+			return DictionaryRow.parse(line);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Строка " + lineNumber + ": " + e.getMessage(), e);
+		}
+	}
+
+	/** 
+	 * Проходит путь по ключу, начиная с символа from, от заданного узла и создает недостающие узлы.
+	 *
+	 * @param currentNode
+	 *                    стартовый узел
+	 * @param key
+	 *            запрос
+	 * @param from
+	 *            номер первого символа
+	 *
+	 * @return узел, в котором заканчивается ключ
+	 */
+	TrieNode insertPath(TrieNode currentNode, String key, int from) {
+		for (int i = from; i < key.length(); i++) {
+			currentNode = ownOrAddChild(currentNode, key.charAt(i));
+		}
+		return currentNode;
+	}
+
+	/** 
+	 * Отмечает, что top во всех узлах посчитаны (после параллельной загрузки).
+	 */
+	void setTopBuilt() {
+		isTopBuilt = true;
+		//поддеревья подвешены к корню мимо ownPath: размеры в метриках устарели
+		if (metrics != null) { metrics.sourceChanged(); }
+	}
+
    	/** 
    	 * Возвращает наиболее вероятные подсказки для префикса, в котором вероятно сделана опечатка.
 	 *
@@ -294,85 +820,304 @@ public class Trie {
 	 * @return список подсказок
 	 */
 	public List<String> near(String prefix, int max) {
-	   /* Сперва создам список(очередь) всех узлов в Trie с префиксами длины prefix.length() и расстоянием до заданного prefix
-		* не более чем max.
-		* Для этого использую обход в ширину Trie до нужного места и функцию метрики.
+		return near(prefix, max, DEFAULT_HINT_COUNT);
+	}
+
+   	/** 
+   	 * Возвращает наиболее вероятные подсказки для префикса, в котором вероятно сделана опечатка.
+	 *
+	 * Близкими считаются все узлы, ключи которых отстоят от prefix не более чем на max.
+	 * Подсказки из их top сливаются через кучу: оценка подсказки - ее ранк, умноженный на
+	 * typoPenalty в степени расстояния узла до префикса. Повторы отбрасываются, а слияние
+	 * останавливается, как только набрано k подсказок: вынутая из кучи подсказка уже не
+	 * может оказаться хуже оставшихся. Если top узла исчерпан, а в поддереве есть еще запросы,
+	 * слияние продолжается обходом поддерева, как в {@link #hint(String, int, int)}.
+	 *
+	 * @param prefix
+	 *              заданный префикс
+	 * @param max
+	 *           максимальное расстояние
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок или null, если близких узлов нет или префикс длиннее
+	 *         {@link #MAX_NEAR_PREFIX_LENGTH}
+	 */
+	public List<String> near(String prefix, int max, int k) {
+	   /* Ищу узлы Trie, ключи которых отстоят от prefix не более чем на max, обходом в глубину.
+		* По пути несу строки таблицы расстояний: на каждом ребре считается одна новая строка,
+		* а ветка отсекается, как только минимум строки превысил max. Потомок близкого узла
+		* берется, только если он еще ближе к префиксу - иначе его подсказки уже есть в поддереве предка.
 		*/
-		DamerauLevensteinMetric metric = new DamerauLevensteinMetric();
-		int counter = prefix.length();
-		TrieNode currentNode = root;
-		Queue<TrieNode> queue = new LinkedList<TrieNode>();
-		queue.offer(currentNode);
-		TrieNode myNode = new TrieNode();
-
-		do {
-			currentNode = queue.poll();
-		    Iterator<TrieNode> children = currentNode.getChildren();
-		    if (children != null) {
-			    while (children.hasNext()) {
-			    	myNode = children.next();
-			       /* Вношу в очередь только те узлы Trie, ключи которых либо "близки" (в смысле метрики) от префикса,
-			    	* либо длина ключей которых меньше длины префикса минус max (допустимое число опечаток).
-			    	*/
-			    	if (myNode.getKey().length() <= counter - max || metric.getDistance(prefix, myNode.getKey(), max + 1) <= max) {
-			    		queue.offer(myNode);
-			    	}
-			    }
+		if (prefix.length() > MAX_NEAR_PREFIX_LENGTH) { return null; }
+		ensureTopBuilt();
+		TrieMetrics metrics = this.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		List<NearCandidate> candidates = new ArrayList<NearCandidate>();
+		if (deletionIndex != null && deletionIndex.covers(prefix.length(), max)) {
+			//близкие ключи берутся из индекса удалений, узлы - по ключу из этой версии
+			List<DeletionIndex.Match> matches = deletionIndex.lookup(prefix, max, metrics);
+			for (DeletionIndex.Match match : matches) {
+				TrieNode node = searchNode(match.key);
+				if (node != null) { candidates.add(new NearCandidate(node, 0, match.distance)); }
 			}
-		} while (!queue.isEmpty() && (queue.peek().getKey().length() < counter));
-
-		if (queue.isEmpty()) { return null;}
-		//выберем три самых популярных
-		int firstRank = 0;
-		int secondRank = 0;
-		int thirdRank = 0;
-		TrieNode node;
-		TrieNode firstNode = null;
-		TrieNode secondNode = null;
-		TrieNode thirdNode = null;
-		
-		Iterator<TrieNode> iterator = queue.iterator();
-		while (iterator.hasNext()) {
-			node = iterator.next();
-			if (firstRank < node.getMinRank()) {
-				thirdRank = secondRank;
-				secondRank = firstRank;
-				firstRank = node.getMinRank();
-
-				thirdNode = secondNode;
-				secondNode = firstNode;
-				firstNode = node;
+			if (metrics != null) { metrics.recordNearWork(matches.size()); }
+		}
+		else {
+			DamerauLevensteinRows rows = DamerauLevensteinRows.forThread(prefix, max);
+			//короткий префикс близок и к корню, но узлы ниже могут быть еще ближе
+			if (rows.distance() <= max) { candidates.add(new NearCandidate(root, 0, rows.distance())); }
+			collectNear(root, rows, Math.min(rows.distance(), max + 1), candidates);
+			//в обходе каждый посещенный узел - одна посчитанная строка расстояний; отдельных
+			//вызовов метрики нет, поэтому гистограмма расстояний здесь не пишется
+			if (metrics != null) { metrics.recordNearWork(rows.getPushCount()); }
+		}
+		List<String> nearTop = mergeNear(candidates, k);
+		if (metrics != null) { metrics.stage(TrieMetrics.Stage.NEAR, start, nearTop != null); }
+		return nearTop;
+	}
+
+	/** 
+	 * Слияние top близких узлов для near: узлы и их расстояния до префикса найдены заранее.
+	 *
+	 * @param nodes
+	 *             близкие узлы
+	 * @param distances
+	 *                 их расстояния до префикса
+	 * @param count
+	 *             количество узлов
+	 * @param k
+	 *         количество подсказок
+	 *
+	 * @return список подсказок или null, если узлов нет
+	 */
+	List<String> mergeNear(TrieNode[] nodes, int[] distances, int count, int k) {
+		List<NearCandidate> candidates = new ArrayList<NearCandidate>(count);
+		for (int i = 0; i < count; i++) {
+			candidates.add(new NearCandidate(nodes[i], 0, distances[i]));
+		}
+		return mergeNear(candidates, k);
+	}
+
+	private List<String> mergeNear(List<NearCandidate> candidates, int k) {
+		if (candidates.isEmpty()) { return null;}
+
+		//слияние top всех близких узлов
+		PriorityQueue<NearCandidate> heap = new PriorityQueue<NearCandidate>(Math.max(1, candidates.size()), new Comparator<NearCandidate>() {
+			public int compare(NearCandidate first, NearCandidate second) {
+				if (first.score != second.score) { return first.score > second.score ? -1 : 1; }
+				return queries.compare(first.entry, second.entry);
 			}
+		});
+		for (NearCandidate candidate : candidates) {
+			if (candidate.setEntry(candidate.node.getBestEntry())) { heap.add(candidate); }
 		}
 
-		//соберу лучшие подсказки из этих трех узлов в results: 5 подсказок из firstNode и по 3 из secondNode и thirdNode
-		List<String> results = new ArrayList<String>();
-		int count = 5;
-		if (firstNode != null) {
-			Iterator<String> firstIter = firstNode.getTop();
-			while (firstIter.hasNext() && count > 0) {
-				results.add(firstIter.next());
-				count--;
+		List<String> results = new ArrayList<String>(k);
+		int[] emitted = new int[k];
+		while (results.size() < k && !heap.isEmpty()) {
+			NearCandidate candidate = heap.poll();
+			if (candidate.node == null || candidate.index >= 0) {
+				//отдельный запрос или очередной элемент top
+				if (!contains(emitted, results.size(), candidate.entry)) {
+					emitted[results.size()] = candidate.entry;
+					results.add(queries.getQuery(candidate.entry));
+				}
+				if (candidate.node == null) { continue; }
+				int[] top = candidate.node.getTop();
+				if (candidate.index + 1 < top.length) {
+					candidate.index++;
+					candidate.setEntry(top[candidate.index]);
+					heap.add(candidate);
+					continue;
+				}
+				//top исчерпан; если он был полным, в поддереве могут быть еще запросы
+				if (top.length < topSize) { continue; }
 			}
+			expandNear(candidate, heap);
 		}
-		count = 3;
-		if (secondNode != null) {
-			Iterator<String> secondIter = secondNode.getTop();
-			while (secondIter.hasNext() && count > 0) {
-				results.add(secondIter.next());
-				count--;
+		return results;
+	}
+
+	//раскрытие поддерева в слиянии near: собственный запрос узла и поддеревья детей
+	private void expandNear(NearCandidate candidate, PriorityQueue<NearCandidate> heap) {
+		TrieNode node = candidate.node;
+		if (node.getEntry() >= 0) {
+			NearCandidate own = new NearCandidate(null, -1, candidate.distance);
+			own.setEntry(node.getEntry());
+			heap.add(own);
+		}
+		Iterator<TrieNode> children = node.getChildren();
+		if (children != null) {
+			while (children.hasNext()) {
+				NearCandidate child = new NearCandidate(children.next(), -1, candidate.distance);
+				if (child.setEntry(child.node.getBestEntry())) { heap.add(child); }
 			}
 		}
-		count = 3;
-		if (thirdNode != null) {
-			Iterator<String> thirdIter = thirdNode.getTop();
-			while (thirdIter.hasNext() && count > 0) {
-				results.add(thirdIter.next());
-				count--;
+	}
+
+	private static boolean contains(int[] entries, int size, int entry) {
+		for (int i = 0; i < size; i++) {
+			if (entries[i] == entry) { return true; }
+		}
+		return false;
+	}
+
+	/** 
+	 * Элемент слияния в near: очередной элемент top близкого узла (index >= 0),
+	 * поддерево узла целиком (index == -1) или отдельный запрос (node == null).
+	 */
+	private final class NearCandidate {
+		final TrieNode node;
+		int index;
+		final int distance;
+		int entry;
+		double score;
+
+		NearCandidate(TrieNode node, int index, int distance) {
+			this.node = node;
+			this.index = index;
+			this.distance = distance;
+		}
+
+		//текущий запрос элемента и его оценка; false, если запроса нет
+		boolean setEntry(int entry) {
+			if (entry < 0) { return false; }
+			this.entry = entry;
+			this.score = queries.getRank(entry) * Math.pow(typoPenalty, distance);
+			return true;
+		}
+	}
+
+	/** 
+	 * Построение индекса удалений для поиска с опечатками. После построения near ищет
+	 * близкие узлы через индекс, если префикс вместе с max удалений укладывается в depth,
+	 * и обходом в глубину - иначе. Индекс пополняется при вставке запросов, но не переходит
+	 * в новые версии Trie, которые создает {@link ConcurrentTrie}.
+	 *
+	 * @param maxDeletes
+	 *                  наибольшее количество опечаток, которое ищется через индекс
+	 * @param depth
+	 *             наибольшая длина индексируемого префикса
+	 */
+	public void buildDeletionIndex(int maxDeletes, int depth) {
+		deletionIndex = DeletionIndex.build(this, maxDeletes, depth);
+	}
+
+	/** 
+	 * Удаление индекса удалений: near снова ищет только обходом в глубину.
+	 */
+	public void dropDeletionIndex() {
+		deletionIndex = null;
+	}
+
+	DeletionIndex getDeletionIndex() {
+		return deletionIndex;
+	}
+
+	/** 
+	 * Добавление пар "запрос с опечаткой - исправленный запрос" в индекс опечаток.
+	 * Удаленные строки (из файла изменений) убирают свои пары.
+	 *
+	 * @param rows
+	 *            строки словаря с исправлением; строки без исправления пропускаются
+	 */
+	void addTypos(List<DictionaryRow> rows) {
+		if (!rows.isEmpty()) { typos = TypoIndex.build(typos, rows); }
+	}
+
+	/** 
+	 * Узел исправленного префикса для префикса с известной опечаткой: из подходящих пар,
+	 * исправленный запрос которых есть в Trie, берется та, в узле исправленного префикса
+	 * которой лучший запрос популярнее.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return узел или null
+	 */
+	TrieNode searchTypo(String prefix) {
+		if (typos == null) { return null; }
+		TrieNode best = null;
+		for (TypoIndex.Correction correction : typos.lookup(prefix)) {
+			//исправление, удаленное из Trie, не годится
+			TrieNode query = searchNode(correction.query);
+			if (query == null || query.getEntry() < 0) { continue; }
+			TrieNode node = searchNode(correction.prefix);
+			if (best == null || queries.better(node.getBestEntry(), best.getBestEntry())) { best = node; }
+		}
+		return best;
+	}
+
+	/** 
+	 * Исправления для префикса с известной опечаткой, в том числе уже удаленные из Trie.
+	 *
+	 * @param prefix
+	 *              префикс
+	 *
+	 * @return исправления
+	 */
+	List<TypoIndex.Correction> typoCorrections(String prefix) {
+		return typos == null ? Collections.<TypoIndex.Correction>emptyList() : typos.lookup(prefix);
+	}
+
+	/** 
+	 * Индекс известных опечаток для записи в снимок.
+	 *
+	 * @return индекс или null, если опечаток нет
+	 */
+	TypoIndex getTypos() {
+		return typos;
+	}
+
+	/** 
+	 * Количество известных опечаток, загруженных из второго поля словаря.
+	 *
+	 * @return количество пар "запрос с опечаткой - исправленный запрос"
+	 */
+	public int getTypoCount() {
+		return typos == null ? 0 : typos.size();
+	}
+
+	/** 
+	 * Назначение штрафа за опечатку: ранк подсказки из узла на расстоянии d
+	 * от префикса умножается на typoPenalty в степени d.
+	 *
+	 * @param typoPenalty
+	 *                    штраф от 0 до 1
+	 */
+	public void setTypoPenalty(double typoPenalty) {
+		if (typoPenalty <= 0 || typoPenalty > 1) { throw new IllegalArgumentException("typoPenalty должен быть в (0, 1]"); }
+		this.typoPenalty = typoPenalty;
+	}
+
+	/** 
+	 * Обход в глубину для {@link #near(String, int, int)}.
+	 *
+	 * @param currentNode
+	 *                    узел, строка которого - последняя в rows
+	 * @param rows
+	 *             строки таблицы расстояний по пути от корня
+	 * @param ancestorDistance
+	 *                         расстояние ближайшего подходящего предка (max + 1, если такого нет)
+	 * @param candidates
+	 *                   найденные узлы
+	 */
+	private void collectNear(TrieNode currentNode, DamerauLevensteinRows rows, int ancestorDistance, List<NearCandidate> candidates) {
+		Iterator<Map.Entry<Character, TrieNode>> edges = currentNode.getEdges();
+		if (edges == null) { return; }
+		while (edges.hasNext()) {
+			Map.Entry<Character, TrieNode> edge = edges.next();
+			rows.push(edge.getKey());
+			int distance = rows.distance();
+			if (distance < ancestorDistance) {
+				candidates.add(new NearCandidate(edge.getValue(), 0, distance));
+			}
+			if (rows.canDescend()) {
+				collectNear(edge.getValue(), rows, Math.min(distance, ancestorDistance), candidates);
 			}
+			rows.pop();
 		}
-		//верну список подсказок
-		return results;
 	}
 
 	/** 
@@ -384,57 +1129,7 @@ public class Trie {
      * @return строка в другой раскладке
 	 */
 	public String keyboardChange(String prefix) {
-		Map<Character, Character> dictionary = new HashMap<Character, Character>();
-		dictionary.put('q', 'й');
-		dictionary.put('w', 'ц');
-		dictionary.put('e', 'у');
-		dictionary.put('r', 'к');
-		dictionary.put('t', 'е');
-		dictionary.put('y', 'н');
-		dictionary.put('u', 'г');
-		dictionary.put('i', 'ш');
-		dictionary.put('o', 'щ');
-		dictionary.put('p', 'з');
-		dictionary.put('[', 'х');
-		dictionary.put(']', 'ъ');
-		dictionary.put('a', 'ф');
-		dictionary.put('s', 'ы');
-		dictionary.put('d', 'в');
-		dictionary.put('f', 'а');
-		dictionary.put('g', 'п');
-		dictionary.put('h', 'р');
-		dictionary.put('j', 'о');
-		dictionary.put('k', 'л');
-		dictionary.put('l', 'д');
-		dictionary.put(';', 'ж');
-		dictionary.put('\'', 'э');
-		dictionary.put('z', 'я');
-		dictionary.put('x', 'ч');
-		dictionary.put('c', 'с');
-		dictionary.put('v', 'м');
-		dictionary.put('b', 'и');
-		dictionary.put('n', 'т');
-		dictionary.put('m', 'ь');
-		dictionary.put(',', 'б');
-		dictionary.put('.', 'ю');
-		dictionary.put(' ', ' ');
-		dictionary.put('0', '0');
-		dictionary.put('1', '1');
-		dictionary.put('2', '2');
-		dictionary.put('3', '3');
-		dictionary.put('4', '4');
-		dictionary.put('5', '5');
-		dictionary.put('6', '6');
-		dictionary.put('7', '7');
-		dictionary.put('8', '8');
-		dictionary.put('9', '9');
-
-		StringBuilder prefixChange = new StringBuilder();
-		for (char c : prefix.toCharArray()) {
-			if(dictionary.get(c) == null) { return null; }
-			prefixChange.append(dictionary.get(c));
-		}
-		return prefixChange.toString();
+		return KeyboardLayout.EN_RU.translate(prefix);
 	}
 }
 
@@ -0,0 +1,301 @@
+package packageTrie;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Набор замеров производительности Trie на синтетическом словаре {@link DictionaryGenerator}.
+ *
+ * Каждый замер сначала прогревается, потом выполняется несколько итераций фиксированной
+ * длительности. Для каждого печатается среднее число операций в секунду с разбросом по
+ * итерациям и количество байт, выделенных в куче на одну операцию (по счетчику потока).
+ *
+ * Аргументы: [количество строк словаря] [регулярное выражение для имен замеров].
+ * @author roman khalkechev
+ */
+public class TrieBenchmark {
+	private static final long SEED = 42;
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURE_ITERATIONS = 5;
+	private static final long ITERATION_NANOS = 1000000000L;
+	private static final int SAMPLES = 4096;
+	private static final int MAX_PREFIX_LENGTH = 8;
+	private static final int BATCH_SIZE = 1000;
+
+	//сюда складываются результаты, чтобы JIT не выбросил вызовы
+	private static volatile int sink;
+
+	/**
+	 * Один замер: операция с номером i над заранее подготовленными данными.
+	 */
+	abstract static class Case {
+		final String name;
+		//сколько операций выполнять между проверками времени
+		final int batch;
+
+		Case(String name) {
+			this(name, 16);
+		}
+
+		Case(String name, int batch) {
+			this.name = name;
+			this.batch = batch;
+		}
+
+		abstract int run(int i) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		Pattern filter = Pattern.compile(args.length > 1 ? args[1] : ".*");
+
+		DictionaryGenerator generator = new DictionaryGenerator(SEED);
+		final Path dictionary = Files.createTempFile("trie-benchmark", ".txt");
+		dictionary.toFile().deleteOnExit();
+		generator.write(dictionary, rows);
+		final Trie trie = new Trie();
+		trie.createTrie(dictionary.toString());
+		List<String> queries = new ArrayList<String>();
+		for (int entry = 0; entry < trie.getQueries().size(); entry++) { queries.add(trie.getQueries().getQuery(entry)); }
+		Random random = new Random(SEED);
+
+		List<Case> cases = new ArrayList<Case>();
+		cases.add(new Case("createTrie", 1) {
+			int run(int i) throws IOException {
+				Trie loaded = new Trie();
+				loaded.createTrie(dictionary.toString());
+				return loaded.getRoot().getChildrenCnt();
+			}
+		});
+		cases.add(new Case("createTrie parallel", 1) {
+			int run(int i) throws IOException {
+				Trie loaded = new Trie();
+				loaded.createTrie(dictionary.toString(), true);
+				return loaded.getRoot().getChildrenCnt();
+			}
+		});
+		cases.add(new Case("createTrie radix", 1) {
+			int run(int i) throws IOException {
+				RadixTrie loaded = new RadixTrie();
+				loaded.createTrie(dictionary.toString());
+				return loaded.getNodeCount();
+			}
+		});
+		cases.add(new Case("createTrie double array", 1) {
+			int run(int i) throws IOException {
+				DoubleArrayTrie loaded = new DoubleArrayTrie();
+				loaded.createTrie(dictionary.toString());
+				return loaded.getNodeCount();
+			}
+		});
+
+		//точные префиксы запросов каждой длины
+		for (int length = 1; length <= MAX_PREFIX_LENGTH; length++) {
+			final String[] prefixes = new String[SAMPLES];
+			for (int i = 0; i < SAMPLES; i++) {
+				String query = queries.get(random.nextInt(queries.size()));
+				while (query.length() < length) { query = queries.get(random.nextInt(queries.size())); }
+				prefixes[i] = query.substring(0, length);
+			}
+			cases.add(new Case("hint exact length " + length) {
+				int run(int i) {
+					return trie.hint(prefixes[i % SAMPLES]).size();
+				}
+			});
+		}
+
+		//кириллические префиксы, набранные в латинской раскладке
+		final String[] layoutPrefixes = new String[SAMPLES];
+		for (int i = 0; i < SAMPLES; ) {
+			String query = queries.get(random.nextInt(queries.size()));
+			String qwerty = DictionaryGenerator.toQwerty(query.substring(0, Math.min(query.length(), 1 + random.nextInt(6))));
+			if (qwerty != null && trie.searchNode(qwerty) == null) { layoutPrefixes[i++] = qwerty; }
+		}
+		cases.add(new Case("hint keyboardChange") {
+			int run(int i) {
+				return trie.hint(layoutPrefixes[i % SAMPLES]).size();
+			}
+		});
+
+		//префиксы с опечаткой и пары "запрос - запрос с опечаткой" для метрики
+		final String[] typoPrefixes = new String[SAMPLES];
+		final String[] typoQueries = new String[SAMPLES];
+		final String[] originals = new String[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			String query = queries.get(random.nextInt(queries.size()));
+			originals[i] = query;
+			typoQueries[i] = generator.typo(query);
+			typoPrefixes[i] = typoQueries[i].substring(0, Math.min(typoQueries[i].length(), 3 + random.nextInt(5)));
+		}
+		for (int max = 1; max <= 2; max++) {
+			final int maxMisprint = max;
+			cases.add(new Case("near max " + max) {
+				int run(int i) {
+					List<String> hints = trie.near(typoPrefixes[i % SAMPLES], maxMisprint, Trie.DEFAULT_HINT_COUNT);
+					return hints == null ? 0 : hints.size();
+				}
+			});
+		}
+		final DamerauLevensteinMetric metric = new DamerauLevensteinMetric();
+		cases.add(new Case("getDistance") {
+			int run(int i) {
+				return metric.getDistance(originals[i % SAMPLES], typoQueries[i % SAMPLES], 2);
+			}
+		});
+		cases.add(new Case("getPrefixDistance") {
+			int run(int i) {
+				return metric.getPrefixDistance(originals[i % SAMPLES], typoPrefixes[i % SAMPLES], 2);
+			}
+		});
+		final BitParallelDamerauLevensteinMetric bitParallelMetric = new BitParallelDamerauLevensteinMetric();
+		cases.add(new Case("getDistance bit-parallel") {
+			int run(int i) {
+				return bitParallelMetric.getDistance(originals[i % SAMPLES], typoQueries[i % SAMPLES], 2);
+			}
+		});
+		cases.add(new Case("getPrefixDistance bit-parallel") {
+			int run(int i) {
+				return bitParallelMetric.getPrefixDistance(originals[i % SAMPLES], typoPrefixes[i % SAMPLES], 2);
+			}
+		});
+
+		//пачка префиксов из журнала набора: все префиксы запроса по нажатиям клавиш, вперемешку
+		final List<String> keystrokes = new ArrayList<String>();
+		while (keystrokes.size() < BATCH_SIZE) {
+			String query = queries.get(random.nextInt(queries.size()));
+			for (int length = 1; length <= query.length() && keystrokes.size() < BATCH_SIZE; length++) {
+				keystrokes.add(query.substring(0, length));
+			}
+		}
+		Collections.shuffle(keystrokes, random);
+		cases.add(new Case("hint loop " + BATCH_SIZE, 1) {
+			int run(int i) {
+				int found = 0;
+				for (String prefix : keystrokes) { found += trie.hint(prefix).size(); }
+				return found;
+			}
+		});
+		cases.add(new Case("hintAll " + BATCH_SIZE, 1) {
+			int run(int i) {
+				int found = 0;
+				for (List<String> hints : trie.hintAll(keystrokes)) { found += hints.size(); }
+				return found;
+			}
+		});
+
+		//поток префиксов с перекосом по Ципфу: популярные префиксы повторяются, часть - с опечаткой
+		final String[] zipfPrefixes = new String[SAMPLES * 16];
+		String[] distinct = new String[SAMPLES * 4];
+		for (int i = 0; i < distinct.length; i++) {
+			String query = queries.get(random.nextInt(queries.size()));
+			distinct[i] = query.substring(0, 1 + random.nextInt(query.length()));
+			if (random.nextInt(4) == 0) { distinct[i] = generator.typo(distinct[i]); }
+		}
+		for (int i = 0; i < zipfPrefixes.length; i++) {
+			zipfPrefixes[i] = distinct[(int) Math.pow(distinct.length, random.nextDouble()) - 1];
+		}
+		cases.add(new Case("hint zipf") {
+			int run(int i) {
+				return trie.hint(zipfPrefixes[i % zipfPrefixes.length]).size();
+			}
+		});
+		//те же подсказки на каждой реализации индекса: точные префиксы разной длины и поток по Ципфу
+		final String[] exactPrefixes = new String[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			String query = queries.get(random.nextInt(queries.size()));
+			exactPrefixes[i] = query.substring(0, 1 + random.nextInt(Math.min(query.length(), MAX_PREFIX_LENGTH)));
+		}
+		for (SuggestionIndex.Backend backend : SuggestionIndex.Backend.values()) {
+			final SuggestionIndex index = backend.create();
+			index.createTrie(dictionary.toString());
+			cases.add(new Case("hint exact " + backend) {
+				int run(int i) {
+					return index.hint(exactPrefixes[i % SAMPLES]).size();
+				}
+			});
+			cases.add(new Case("hint zipf " + backend) {
+				int run(int i) {
+					return index.hint(zipfPrefixes[i % zipfPrefixes.length]).size();
+				}
+			});
+		}
+		//то же на отдельном Trie с включенными метриками: цена записи метрик
+		final Trie measured = new Trie();
+		measured.createTrie(dictionary.toString());
+		measured.enableMetrics();
+		cases.add(new Case("hint zipf metrics") {
+			int run(int i) {
+				return measured.hint(zipfPrefixes[i % zipfPrefixes.length]).size();
+			}
+		});
+		final ConcurrentTrie concurrentTrie = new ConcurrentTrie(trie);
+		for (final HintCache.Policy policy : HintCache.Policy.values()) {
+			final HintCache cache = new HintCache(concurrentTrie, SAMPLES, policy);
+			cases.add(new Case("hint zipf cache " + policy) {
+				int run(int i) {
+					return cache.hint(zipfPrefixes[i % zipfPrefixes.length]).size();
+				}
+			});
+		}
+
+		System.out.println("Словарь: " + rows + " строк, " + queries.size() + " запросов");
+		System.out.println(String.format("%-32s %14s %10s %14s", "Замер", "оп/с", "± %", "байт/оп"));
+		for (Case benchmark : cases) {
+			if (filter.matcher(benchmark.name).matches()) { measure(benchmark); }
+		}
+	}
+
+	private static void measure(Case benchmark) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) { iteration(benchmark); }
+		double[] opsPerSecond = new double[MEASURE_ITERATIONS];
+		long operations = 0;
+		long allocated = 0;
+		for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+			long before = allocatedBytes();
+			long[] result = iteration(benchmark);
+			allocated += allocatedBytes() - before;
+			operations += result[0];
+			opsPerSecond[i] = result[0] * 1e9 / result[1];
+		}
+
+		double mean = 0;
+		for (double value : opsPerSecond) { mean += value / MEASURE_ITERATIONS; }
+		double variance = 0;
+		for (double value : opsPerSecond) { variance += (value - mean) * (value - mean) / MEASURE_ITERATIONS; }
+		String bytesPerOperation = allocatedBytes() < 0 ? "н/д" : String.format("%.1f", (double) allocated / operations);
+		System.out.println(String.format("%-32s %14.1f %10.1f %14s", benchmark.name, mean, 100 * Math.sqrt(variance) / mean, bytesPerOperation));
+	}
+
+	//{количество операций, время в наносекундах} за одну итерацию
+	private static long[] iteration(Case benchmark) throws IOException {
+		long start = System.nanoTime();
+		long operations = 0;
+		int result = 0;
+		long elapsed;
+		//время проверяется раз в несколько операций, чтобы не мерить сам nanoTime
+		do {
+			for (int i = 0; i < benchmark.batch; i++) {
+				result += benchmark.run((int) operations);
+				operations++;
+			}
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < ITERATION_NANOS);
+		sink += result;
+		return new long[] {operations, elapsed};
+	}
+
+	//выделено в куче текущим потоком или -1, если JVM этого не умеет
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
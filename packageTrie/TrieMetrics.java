@@ -0,0 +1,402 @@
+package packageTrie;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Метрики подсказок: на каком этапе hint нашел подсказки (точный спуск, смена раскладки,
+ * поиск с опечатками), гистограммы задержек каждого этапа, сколько узлов обошел и сколько
+ * расстояний посчитал поиск с опечатками, время загрузки и размеры Trie.
+ *
+ * Расстояния считаются отдельными вызовами метрики только при поиске через индекс удалений
+ * ({@link Trie#buildDeletionIndex}): там каждый найденный ключ проверяется расстоянием.
+ * Обход дерева со строками расстояний считает одну строку на посещенный узел, и его работа
+ * попадает только в гистограмму посещенных узлов.
+ *
+ * Метрики включаются {@link Trie#enableMetrics()}; пока они выключены, hint и near
+ * не вызывают даже System.nanoTime. Записи идут без блокировок из любого числа потоков.
+ * Прочитать метрики можно снимком {@link #snapshot()} или через JMX после {@link #register(String)}.
+ * Версии {@link ConcurrentTrie} пишут в одни и те же метрики.
+ * @author roman khalkechev
+ */
+public class TrieMetrics implements TrieMetricsMBean {
+	/** Этап поиска подсказок. */
+	public enum Stage {
+		/** Спуск по префиксу как есть. */
+		EXACT,
+		/** Спуск по префиксу в другой раскладке. */
+		LAYOUT,
+		/** Спуск по исправлению известной опечатки из словаря. */
+		TYPO,
+		/** Поиск с опечатками. */
+		NEAR
+	}
+
+	private final Map<Stage, AtomicLong> resolved = new EnumMap<Stage, AtomicLong>(Stage.class);
+	private final Map<Stage, Histogram> latency = new EnumMap<Stage, Histogram>(Stage.class);
+	//подсказок не нашлось ни на одном этапе
+	private final AtomicLong empty = new AtomicLong();
+	private final Histogram nearNodes = new Histogram();
+	private final Histogram nearDistanceCalls = new Histogram();
+	private final Histogram load = new Histogram();
+	private volatile long lastLoadNanos;
+	//Trie, размеры которого попадают в снимок: последняя версия
+	private volatile Trie source;
+	//счетчик изменений source на месте: вставок, удалений, пересчетов top
+	private volatile int changes;
+	//размеры source, посчитанные при первом чтении после смены или изменения source
+	private volatile SizeStats size;
+
+	TrieMetrics(Trie source) {
+		for (Stage stage : Stage.values()) {
+			resolved.put(stage, new AtomicLong());
+			latency.put(stage, new Histogram());
+		}
+		this.source = source;
+	}
+
+	/**
+	 * Запись этапа hint: время от start до текущего момента.
+	 *
+	 * @param stage
+	 *             этап
+	 * @param start
+	 *             System.nanoTime() в начале этапа
+	 * @param found
+	 *             нашлись ли подсказки на этом этапе
+	 *
+	 * @return текущее System.nanoTime() - начало следующего этапа
+	 */
+	long stage(Stage stage, long start, boolean found) {
+		long now = System.nanoTime();
+		latency.get(stage).record(now - start);
+		if (found) { resolved.get(stage).incrementAndGet(); }
+		return now;
+	}
+
+	void recordEmpty() {
+		empty.incrementAndGet();
+	}
+
+	void recordNearWork(long nodesVisited) {
+		nearNodes.record(nodesVisited);
+	}
+
+	void recordDistanceCalls(long calls) {
+		nearDistanceCalls.record(calls);
+	}
+
+	void recordLoad(long nanos) {
+		load.record(nanos);
+		lastLoadNanos = nanos;
+	}
+
+	void setSource(Trie source) {
+		this.source = source;
+	}
+
+	//source изменился на месте; пишет только поток, меняющий Trie
+	void sourceChanged() {
+		changes++;
+	}
+
+	//размеры текущей версии: обход всех узлов не чаще одного раза на версию
+	private SizeStats sizeStats() {
+		int changes = this.changes;
+		Trie source = this.source;
+		SizeStats size = this.size;
+		if (size == null || size.trie != source || size.changes != changes) {
+			size = new SizeStats(source, changes);
+			this.size = size;
+		}
+		return size;
+	}
+
+	/**
+	 * Снимок метрик. Размеры Trie считаются обходом всех узлов текущей версии
+	 * один раз на версию и до ее следующего изменения.
+	 *
+	 * @return снимок
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Регистрация в платформенном MBeanServer под именем packageTrie:type=TrieMetrics,name=...
+	 *
+	 * @param name
+	 *            имя экземпляра
+	 *
+	 * @return имя, под которым метрики зарегистрированы
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("packageTrie:type=TrieMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * Сброс счетчиков и гистограмм.
+	 */
+	public void reset() {
+		for (Stage stage : Stage.values()) {
+			resolved.get(stage).set(0);
+			latency.get(stage).reset();
+		}
+		empty.set(0);
+		nearNodes.reset();
+		nearDistanceCalls.reset();
+		load.reset();
+	}
+
+	public long getExactCount() {
+		return resolved.get(Stage.EXACT).get();
+	}
+
+	public long getLayoutCount() {
+		return resolved.get(Stage.LAYOUT).get();
+	}
+
+	public long getTypoCount() {
+		return resolved.get(Stage.TYPO).get();
+	}
+
+	public long getNearCount() {
+		return resolved.get(Stage.NEAR).get();
+	}
+
+	public long getEmptyCount() {
+		return empty.get();
+	}
+
+	public double getExactLatencyP50Micros() {
+		return latency.get(Stage.EXACT).getValueAtPercentile(50) / 1e3;
+	}
+
+	public double getExactLatencyP99Micros() {
+		return latency.get(Stage.EXACT).getValueAtPercentile(99) / 1e3;
+	}
+
+	public double getLayoutLatencyP50Micros() {
+		return latency.get(Stage.LAYOUT).getValueAtPercentile(50) / 1e3;
+	}
+
+	public double getLayoutLatencyP99Micros() {
+		return latency.get(Stage.LAYOUT).getValueAtPercentile(99) / 1e3;
+	}
+
+	public double getTypoLatencyP50Micros() {
+		return latency.get(Stage.TYPO).getValueAtPercentile(50) / 1e3;
+	}
+
+	public double getTypoLatencyP99Micros() {
+		return latency.get(Stage.TYPO).getValueAtPercentile(99) / 1e3;
+	}
+
+	public double getNearLatencyP50Micros() {
+		return latency.get(Stage.NEAR).getValueAtPercentile(50) / 1e3;
+	}
+
+	public double getNearLatencyP99Micros() {
+		return latency.get(Stage.NEAR).getValueAtPercentile(99) / 1e3;
+	}
+
+	public double getNearLatencyMaxMicros() {
+		return latency.get(Stage.NEAR).getMax() / 1e3;
+	}
+
+	public long getNearNodesVisitedP50() {
+		return nearNodes.getValueAtPercentile(50);
+	}
+
+	public long getNearNodesVisitedP99() {
+		return nearNodes.getValueAtPercentile(99);
+	}
+
+	public long getNearDistanceCallsP50() {
+		return nearDistanceCalls.getValueAtPercentile(50);
+	}
+
+	public long getNearDistanceCallsP99() {
+		return nearDistanceCalls.getValueAtPercentile(99);
+	}
+
+	public double getLastLoadMillis() {
+		return lastLoadNanos / 1e6;
+	}
+
+	public int getNodeCount() {
+		return sizeStats().nodeCount;
+	}
+
+	public long getEdgeCount() {
+		return sizeStats().edgeCount;
+	}
+
+	public int getMaxChildren() {
+		return (int) sizeStats().children.getMax();
+	}
+
+	public double getTopOccupancy() {
+		return sizeStats().topOccupancy;
+	}
+
+	/**
+	 * Снимок метрик: копии счетчиков и гистограмм на момент создания и размеры Trie.
+	 */
+	public static final class Snapshot {
+		private final Map<Stage, Long> resolved = new EnumMap<Stage, Long>(Stage.class);
+		private final Map<Stage, Histogram> latency = new EnumMap<Stage, Histogram>(Stage.class);
+		private final long empty;
+		private final Histogram nearNodes;
+		private final Histogram nearDistanceCalls;
+		private final Histogram load;
+		private final SizeStats size;
+
+		private Snapshot(TrieMetrics metrics) {
+			for (Stage stage : Stage.values()) {
+				resolved.put(stage, metrics.resolved.get(stage).get());
+				latency.put(stage, metrics.latency.get(stage).copy());
+			}
+			empty = metrics.empty.get();
+			nearNodes = metrics.nearNodes.copy();
+			nearDistanceCalls = metrics.nearDistanceCalls.copy();
+			load = metrics.load.copy();
+			size = metrics.sizeStats();
+		}
+
+		/**
+		 * Количество вызовов hint, нашедших подсказки на этапе stage.
+		 *
+		 * @param stage
+		 *             этап
+		 *
+		 * @return количество вызовов
+		 */
+		public long getCount(Stage stage) {
+			return resolved.get(stage);
+		}
+
+		/**
+		 * Задержки этапа в наносекундах, по всем вызовам, дошедшим до этого этапа.
+		 *
+		 * @param stage
+		 *             этап
+		 *
+		 * @return гистограмма задержек
+		 */
+		public Histogram getLatency(Stage stage) {
+			return latency.get(stage);
+		}
+
+		public long getEmptyCount() {
+			return empty;
+		}
+
+		public Histogram getNearNodesVisited() {
+			return nearNodes;
+		}
+
+		public Histogram getNearDistanceCalls() {
+			return nearDistanceCalls;
+		}
+
+		public Histogram getLoadLatency() {
+			return load;
+		}
+
+		public int getNodeCount() {
+			return size.nodeCount;
+		}
+
+		public long getEdgeCount() {
+			return size.edgeCount;
+		}
+
+		/**
+		 * Распределение количества детей по узлам, у которых они есть.
+		 *
+		 * @return гистограмма размеров таблиц ребер
+		 */
+		public Histogram getEdgeMapSizes() {
+			//размеры делят снимки одной версии, гистограмма отдается копией
+			return size.children.copy();
+		}
+
+		/**
+		 * Средняя заполненность top: длина top, деленная на размер top, по всем узлам.
+		 *
+		 * @return доля от 0 до 1
+		 */
+		public double getTopOccupancy() {
+			return size.topOccupancy;
+		}
+
+		/**
+		 * Доля узлов, у которых top заполнен целиком.
+		 *
+		 * @return доля от 0 до 1
+		 */
+		public double getFullTopShare() {
+			return size.nodeCount == 0 ? 0 : (double) size.fullTops / size.nodeCount;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			for (Stage stage : Stage.values()) {
+				report.append(String.format("%-8s найдено %d, нс: %s%n", stage, getCount(stage), getLatency(stage)));
+			}
+			report.append("без подсказок ").append(empty).append(String.format("%n"));
+			report.append("near узлов: ").append(nearNodes).append(String.format("%n"));
+			report.append("near расстояний: ").append(nearDistanceCalls).append(String.format("%n"));
+			report.append("загрузка, нс: ").append(load).append(String.format("%n"));
+			report.append(String.format("узлов %d, ребер %d, детей: %s%n", size.nodeCount, size.edgeCount, size.children));
+			report.append(String.format("заполненность top %.3f, полных top %.3f", getTopOccupancy(), getFullTopShare()));
+			return report.toString();
+		}
+	}
+
+	//размеры Trie одним обходом
+	private static final class SizeStats {
+		//версия и номер изменения, по которым посчитаны размеры
+		final Trie trie;
+		final int changes;
+		int nodeCount;
+		long edgeCount;
+		int fullTops;
+		double topOccupancy;
+		final Histogram children = new Histogram();
+
+		SizeStats(Trie trie, int changes) {
+			this.trie = trie;
+			this.changes = changes;
+			if (trie == null) { return; }
+			int topSize = trie.getTopSize();
+			double occupancy = 0;
+			Deque<TrieNode> stack = new ArrayDeque<TrieNode>();
+			stack.push(trie.getRoot());
+			while (!stack.isEmpty()) {
+				TrieNode node = stack.pop();
+				nodeCount++;
+				int top = node.getTop().length;
+				occupancy += Math.min(1.0, (double) top / topSize);
+				if (top >= topSize) { fullTops++; }
+				int childrenCount = node.getChildrenCnt();
+				if (childrenCount == 0) { continue; }
+				edgeCount += childrenCount;
+				children.record(childrenCount);
+				Iterator<TrieNode> iterator = node.getChildren();
+				while (iterator.hasNext()) { stack.push(iterator.next()); }
+			}
+			topOccupancy = nodeCount == 0 ? 0 : occupancy / nodeCount;
+		}
+	}
+}
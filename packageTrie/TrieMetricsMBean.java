@@ -0,0 +1,55 @@
+package packageTrie;
+
+/**
+ * Атрибуты {@link TrieMetrics} для JMX. Задержки - в микросекундах.
+ * @author roman khalkechev
+ */
+public interface TrieMetricsMBean {
+	long getExactCount();
+
+	long getLayoutCount();
+
+	long getTypoCount();
+
+	long getNearCount();
+
+	long getEmptyCount();
+
+	double getExactLatencyP50Micros();
+
+	double getExactLatencyP99Micros();
+
+	double getLayoutLatencyP50Micros();
+
+	double getLayoutLatencyP99Micros();
+
+	double getTypoLatencyP50Micros();
+
+	double getTypoLatencyP99Micros();
+
+	double getNearLatencyP50Micros();
+
+	double getNearLatencyP99Micros();
+
+	double getNearLatencyMaxMicros();
+
+	long getNearNodesVisitedP50();
+
+	long getNearNodesVisitedP99();
+
+	long getNearDistanceCallsP50();
+
+	long getNearDistanceCallsP99();
+
+	double getLastLoadMillis();
+
+	int getNodeCount();
+
+	long getEdgeCount();
+
+	int getMaxChildren();
+
+	double getTopOccupancy();
+
+	void reset();
+}
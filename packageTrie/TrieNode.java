@@ -1,5 +1,6 @@
 package packageTrie;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -8,13 +9,35 @@ import java.util.TreeMap;
  * @author roman khalkechev
  */
 public class TrieNode {
-	//ключ и его ранк (чем больше ранк - тем популярнее запрос)
-	private String key;
+	private static final int[] EMPTY_TOP = new int[0];
+
+	//ранк запроса (чем больше ранк - тем популярнее запрос); сам запрос - в таблице запросов Trie
 	private int rank;
+	//номер записи в таблице запросов, если запрос заканчивается в этом узле, иначе -1
+	private int entry = -1;
 	//список дочерних узлов
 	private SortedMap<Character, TrieNode> edges;
-	//top-10 запросов и их ранки - находящихся в поддереве с вершиной в данном узле
-	TreeMap<Integer, String> top = new TreeMap<Integer, String>();
+	//top-10 запросов в поддереве с вершиной в данном узле: номера записей, упорядоченные по убыванию ранка
+	int[] top = EMPTY_TOP;
+	//версия Trie, которой принадлежит узел
+	int version;
+
+	/**  
+	 * Копия узла для новой версии Trie. Дети и массив top общие с исходным узлом:
+	 * top при пересчете заменяется целиком, а не меняется на месте.
+	 *
+	 * @param version
+	 *               версия, которой будет принадлежать копия
+	 */
+	TrieNode copy(int version) {
+		TrieNode node = new TrieNode();
+		node.rank = rank;
+		node.entry = entry;
+		node.top = top;
+		node.version = version;
+		if (edges != null) { node.edges = new TreeMap<Character, TrieNode>(edges); }
+		return node;
+	}
 
 	/**  
 	 * Добавление дочернего узла.
@@ -31,6 +54,14 @@ public class TrieNode {
 		return childNode;
 	}
 
+	//подвешивание готового поддерева
+	void setEdge(char c, TrieNode childNode) {
+		if ( edges == null ) {
+			edges = new TreeMap<Character, TrieNode>(); 
+		}
+		edges.put(c, childNode);
+	}
+
 	/**  
 	 * Возвращает дочерний узел по ключу или null, если такого нет.
 	 *
@@ -57,29 +88,17 @@ public class TrieNode {
 	Iterator<TrieNode> getChildren() {
 		return (edges == null) ? null : edges.values().iterator();
 	}
-	//итератор top запросов
-	Iterator<String> getTop() {
-		top.descendingMap();
-		return (top == null) ? null : top.values().iterator();
+	//итератор ребер: метка и дочерний узел
+	Iterator<Map.Entry<Character, TrieNode>> getEdges() {
+		return (edges == null) ? null : edges.entrySet().iterator();
 	}
-
-	/**  
-	 * Назначение значения ключа узлу.
-	 *
-	 * @param key
-	 *           ключ
-	 */
-	public void setKey(String key) {
-		this.key = key;
+	//итератор меток ребер в том же порядке, что и getChildren()
+	Iterator<Character> getLabels() {
+		return (edges == null) ? null : edges.keySet().iterator();
 	}
-
-	/**  
-	 * Возвращает значение ключа данного узла.
-	 *
-	 * @return ключ
-	 */
-	String getKey() {
-		return key;
+	//top запросов: номера записей по убыванию ранка
+	int[] getTop() {
+		return top;
 	}
 
 	/**  
@@ -102,14 +121,32 @@ public class TrieNode {
 	}
 
 	/**  
-	 * Возвращает значение минимального ранка среди ранков
-	 * десяти самых популярных запросов в поддереве с вершиной в данном узле.
+	 * Назначение номера записи запроса, заканчивающегося в данном узле.
 	 *
-	 * @return ранк
+	 * @param entry
+	 *             номер записи в таблице запросов
+	 */
+	public void setEntry(int entry) {
+		this.entry = entry;
+	}
+
+	/**  
+	 * Возвращает номер записи запроса, заканчивающегося в данном узле, или -1.
+	 *
+	 * @return номер записи
+	 */
+	public int getEntry() {
+		return entry;
+	}
+
+	/**  
+	 * Возвращает номер записи самого популярного запроса
+	 * в поддереве с вершиной в данном узле или -1, если поддерево пустое.
+	 *
+	 * @return номер записи
 	 */	
-	public int getMinRank() {
-		if (top.isEmpty()) { return 0;}
-		else { return top.firstKey();}
+	public int getBestEntry() {
+		return top.length == 0 ? -1 : top[0];
 	}
 
 
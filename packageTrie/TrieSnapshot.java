@@ -0,0 +1,200 @@
+package packageTrie;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Запись Trie в бинарный снимок, который открывается через {@link MappedTrie}.
+ *
+ * Формат (все числа big-endian):
+ * <pre>
+ * заголовок: MAGIC, VERSION, topSize, nodeCount, entryCount, topEntryCount, poolSize, typoCount, typoLength
+ * firstChild[nodeCount + 1]   дети узла i - узлы firstChild[i] .. firstChild[i + 1] - 1
+ * parents[nodeCount]
+ * entries[nodeCount]          номер записи запроса, заканчивающегося в узле, или -1
+ * topOffset[nodeCount + 1]    top узла i - topEntries[topOffset[i] .. topOffset[i + 1] - 1]
+ * topEntries[topEntryCount]
+ * ranks[entryCount]
+ * poolOffset[entryCount + 1]  запрос записи e - байты pool[poolOffset[e] .. poolOffset[e + 1] - 1]
+ * typoOffset[2 * typoCount + 1]
+ *                             запрос с опечаткой пары i - typoChars[typoOffset[2i] .. typoOffset[2i + 1] - 1],
+ *                             исправление - typoChars[typoOffset[2i + 1] .. typoOffset[2i + 2] - 1]
+ * labels[nodeCount]           char, символ на ребре в узел
+ * typoChars[typoLength]       char; затем выравнивание до 4 байт
+ * pool[poolSize]              запросы в UTF-8
+ * </pre>
+ * Узлы пронумерованы в порядке обхода в ширину, метки детей отсортированы. Пары известных
+ * опечаток ({@link TypoIndex}) идут по возрастанию, в том числе пары удаленных исправлений.
+ * @author roman khalkechev
+ */
+class TrieSnapshot {
+	static final int MAGIC = 0x48415054;
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 9 * 4;
+
+	private TrieSnapshot() {
+	}
+
+	/**
+	 * Запись снимка. Файл пишется во временный и затем атомарно заменяет старый,
+	 * поэтому процессы, которые уже отобразили старый снимок в память, его дочитают.
+	 * Права на файл - как у старого снимка, см. {@link #publish(Path, Path)}.
+	 *
+	 * @param trie
+	 *            Trie с посчитанными top
+	 * @param path
+	 *            файл снимка
+	 */
+	static void write(Trie trie, Path path) throws IOException {
+		QueryTable queries = trie.getQueries();
+
+		//нумерация узлов обходом в ширину
+		List<TrieNode> nodes = new ArrayList<TrieNode>();
+		char[] labels = new char[16];
+		int[] parents = new int[16];
+		int[] firstChild = new int[16];
+		nodes.add(trie.getRoot());
+		parents[0] = -1;
+		for (int i = 0; i < nodes.size(); i++) {
+			if (i + 1 >= firstChild.length) { firstChild = Arrays.copyOf(firstChild, firstChild.length * 2); }
+			firstChild[i] = nodes.size();
+			Iterator<Character> edgeLabels = nodes.get(i).getLabels();
+			Iterator<TrieNode> children = nodes.get(i).getChildren();
+			if (children == null) { continue; }
+			while (children.hasNext()) {
+				if (nodes.size() == parents.length) {
+					parents = Arrays.copyOf(parents, parents.length * 2);
+					labels = Arrays.copyOf(labels, labels.length * 2);
+				}
+				parents[nodes.size()] = i;
+				labels[nodes.size()] = edgeLabels.next();
+				nodes.add(children.next());
+			}
+		}
+		int nodeCount = nodes.size();
+		firstChild[nodeCount] = nodeCount;
+
+		//записи, на которые ссылаются узлы, перенумеровываются подряд по алфавиту,
+		//чтобы при равных ранках порядок в top совпадал с порядком номеров
+		final QueryTable table = queries;
+		List<Integer> sorted = new ArrayList<Integer>();
+		for (TrieNode node : nodes) {
+			if (node.getEntry() >= 0) { sorted.add(node.getEntry()); }
+		}
+		Collections.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer first, Integer second) {
+				return table.compare(first, second);
+			}
+		});
+		int entryCount = sorted.size();
+		int[] remap = new int[queries.size()];
+		int[] entryOrder = new int[entryCount];
+		for (int e = 0; e < entryCount; e++) {
+			entryOrder[e] = sorted.get(e);
+			remap[entryOrder[e]] = e;
+		}
+		byte[][] encoded = new byte[entryCount][];
+		int poolSize = 0;
+		for (int e = 0; e < entryCount; e++) {
+			encoded[e] = queries.getQuery(entryOrder[e]).getBytes(StandardCharsets.UTF_8);
+			poolSize += encoded[e].length;
+		}
+		int topEntryCount = 0;
+		for (TrieNode node : nodes) {
+			topEntryCount += node.getTop().length;
+		}
+		TypoIndex typos = trie.getTypos();
+		int typoCount = typos == null ? 0 : typos.size();
+		int typoLength = typos == null ? 0 : typos.length();
+
+		Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+		boolean isWritten = false;
+		OutputStream stream = Files.newOutputStream(temp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(trie.getTopSize());
+			out.writeInt(nodeCount);
+			out.writeInt(entryCount);
+			out.writeInt(topEntryCount);
+			out.writeInt(poolSize);
+			out.writeInt(typoCount);
+			out.writeInt(typoLength);
+			for (int i = 0; i <= nodeCount; i++) { out.writeInt(firstChild[i]); }
+			for (int i = 0; i < nodeCount; i++) { out.writeInt(parents[i]); }
+			for (TrieNode node : nodes) { out.writeInt(node.getEntry() < 0 ? -1 : remap[node.getEntry()]); }
+			int offset = 0;
+			for (TrieNode node : nodes) {
+				out.writeInt(offset);
+				offset += node.getTop().length;
+			}
+			out.writeInt(offset);
+			for (TrieNode node : nodes) {
+				for (int entry : node.getTop()) { out.writeInt(remap[entry]); }
+			}
+			for (int e = 0; e < entryCount; e++) { out.writeInt(queries.getRank(entryOrder[e])); }
+			offset = 0;
+			for (int e = 0; e < entryCount; e++) {
+				out.writeInt(offset);
+				offset += encoded[e].length;
+			}
+			out.writeInt(offset);
+			for (int k = 0; k < 2 * typoCount; k++) { out.writeInt(typos.offset(k)); }
+			out.writeInt(typoLength);
+			for (int i = 0; i < nodeCount; i++) { out.writeChar(labels[i]); }
+			for (int i = 0; i < typoLength; i++) { out.writeChar(typos.charAt(i)); }
+			if ((nodeCount + typoLength) % 2 != 0) { out.writeChar(0); }
+			for (byte[] query : encoded) { out.write(query); }
+			out.flush();
+			stream.close();
+			publish(temp, path);
+			isWritten = true;
+		} finally {
+			if (!isWritten) {
+				stream.close();
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/**
+	 * Публикация записанного снимка: атомарная замена старого файла временным.
+	 * Временный файл создается с правами только для владельца, а снимок отображают и JVM
+	 * других пользователей, поэтому права берутся у заменяемого снимка, а для нового
+	 * файла - rw-r--r--. В файловых системах без прав POSIX права не меняются.
+	 *
+	 * @param temp
+	 *            записанный временный файл в том же каталоге
+	 * @param path
+	 *            файл снимка
+	 */
+	static void publish(Path temp, Path path) throws IOException {
+		if (Files.getFileAttributeView(temp, PosixFileAttributeView.class) != null) {
+			Set<PosixFilePermission> permissions;
+			try {
+				permissions = Files.getPosixFilePermissions(path);
+			} catch (NoSuchFileException e) {
+				permissions = PosixFilePermissions.fromString("rw-r--r--");
+			}
+			Files.setPosixFilePermissions(temp, permissions);
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -4,10 +4,15 @@ import java.io.*;
 
 public class TrieTry {
 	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Использование: TrieTry <файл словаря>");
+			return;
+		}
 		Trie trie = new Trie();
 		//Считаем из файла и построим наше правильное Trie - без опечаток
 		System.out.println("Создаем Trie из поисковых запросов.");
-		trie.createTrie("/Users/roman/Documents/Broccoli/Doc/GitHub/homework/HintAtPrefix/packageTrie/kz_top.txt");
+		trie.createTrie(args[0], true);
+		System.out.println("Скорость загрузки: " + (long) trie.getLoadLinesPerSecond() + " строк/с");
 
 		//потестим подсказки :)
 		Scanner scan = new Scanner(System.in);
@@ -0,0 +1,413 @@
+package packageTrie;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Индекс известных опечаток: второе поле словаря.
+ *
+ * Строка словаря "запрос с опечаткой - исправленный запрос" дает пару, и префикс запроса
+ * с опечаткой, набранный дальше места опечатки, отображается в соответствующий префикс
+ * исправленного запроса: длины префиксов отличаются на столько же, на сколько длины
+ * запросов. Так "мосвк" из пары "мосвка - москва" ведет в префикс "москв", и hint отвечает
+ * спуском по дереву вместо поиска близких узлов.
+ *
+ * Пары хранятся отсортированными подряд в одном массиве символов: запрос с опечаткой, за ним
+ * исправление. Префиксу соответствуют пары, запросы с опечаткой которых с него начинаются,
+ * и это отрезок отсортированного массива, найденный двоичным поиском. Индекс не зависит
+ * от устройства дерева и не меняется после построения, поэтому его делят версии Trie;
+ * изменения словаря строят новый индекс слиянием. Исправление, удаленное из словаря,
+ * отсеивается при поиске, а пара, строка которой удалена, убирается из индекса.
+ *
+ * Построенный индекс лежит в массивах в куче; индекс снимка {@link TrieSnapshot} читается
+ * прямо из отображенного в память буфера, с тем же двоичным поиском.
+ * @author roman khalkechev
+ */
+abstract class TypoIndex {
+	//сколько пар с общим префиксом просматривается при поиске
+	private static final int MAX_CANDIDATES = 32;
+
+	/**
+	 * Исправление, подходящее к префиксу с опечаткой.
+	 */
+	static final class Correction {
+		/** Исправленный запрос. */
+		final String query;
+		/** Исправленный префикс: начало исправленного запроса. */
+		final String prefix;
+
+		Correction(String query, String prefix) {
+			this.query = query;
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * Индекс в массивах кучи.
+	 */
+	private static final class ArrayIndex extends TypoIndex {
+		//пары по возрастанию, подряд: запрос с опечаткой, исправление
+		private final char[] chars;
+		//offsets[2 * i] - начало i-го запроса с опечаткой, offsets[2 * i + 1] - начало его исправления;
+		//offsets[2 * size] - конец последнего исправления
+		private final int[] offsets;
+
+		ArrayIndex(char[] chars, int[] offsets) {
+			this.chars = chars;
+			this.offsets = offsets;
+		}
+
+		int size() {
+			return offsets.length / 2;
+		}
+
+		int length() {
+			return chars.length;
+		}
+
+		int offset(int k) {
+			return offsets[k];
+		}
+
+		char charAt(int i) {
+			return chars[i];
+		}
+
+		long sizeInBytes() {
+			return 16 + 2 * 16 + 2L * chars.length + 4L * offsets.length;
+		}
+
+		String text(int from, int to) {
+			return new String(chars, from, to - from);
+		}
+
+		int copyTo(int from, int to, char[] target, int length, int[] targetOffsets, int size) {
+			if (from == to) { return length; }
+			int shift = length - offsets[2 * from];
+			System.arraycopy(chars, offsets[2 * from], target, length, offsets[2 * to] - offsets[2 * from]);
+			for (int j = 2 * from; j < 2 * to; j++) { targetOffsets[2 * size + j - 2 * from] = offsets[j] + shift; }
+			return offsets[2 * to] + shift;
+		}
+	}
+
+	/**
+	 * Индекс в разделах typoOffset и typoChars отображенного снимка: в кучу ничего не копируется.
+	 */
+	private static final class BufferIndex extends TypoIndex {
+		private final ByteBuffer buffer;
+		private final int offsetsBase;
+		private final int charsBase;
+		private final int size;
+
+		BufferIndex(ByteBuffer buffer, int offsetsBase, int charsBase, int size) {
+			this.buffer = buffer;
+			this.offsetsBase = offsetsBase;
+			this.charsBase = charsBase;
+			this.size = size;
+		}
+
+		int size() {
+			return size;
+		}
+
+		int length() {
+			return offset(2 * size);
+		}
+
+		int offset(int k) {
+			return buffer.getInt(offsetsBase + 4 * k);
+		}
+
+		char charAt(int i) {
+			return buffer.getChar(charsBase + 2 * i);
+		}
+
+		long sizeInBytes() {
+			return 16 + 3 * 4 + 8;
+		}
+	}
+
+	/**
+	 * Индекс поверх разделов снимка. Чтения абсолютные, поэтому искать можно из любого числа потоков.
+	 *
+	 * @param buffer
+	 *              буфер снимка
+	 * @param offsetsBase
+	 *                   начало раздела typoOffset: 2 * size + 1 чисел
+	 * @param charsBase
+	 *                 начало раздела typoChars
+	 * @param size
+	 *            количество пар
+	 *
+	 * @return индекс или null, если пар нет
+	 */
+	static TypoIndex map(ByteBuffer buffer, int offsetsBase, int charsBase, int size) {
+		return size == 0 ? null : new BufferIndex(buffer, offsetsBase, charsBase, size);
+	}
+
+	/**
+	 * Изменение пары индекса, взятое из строки словаря.
+	 */
+	private static final class Change {
+		final String typo;
+		final String correction;
+		final boolean isDeleted;
+
+		Change(DictionaryRow row) {
+			typo = row.getOriginal();
+			correction = row.getCorrection();
+			isDeleted = row.isDeleted();
+		}
+	}
+
+	/**
+	 * Построение индекса по строкам словаря и парам прежнего индекса. Строка с исправлением
+	 * добавляет пару, удаленная строка с исправлением ее убирает; из нескольких строк с одной
+	 * парой действует последняя. Сортируются только измененные пары, и они сливаются
+	 * с прежними: отрезки прежнего индекса между изменениями копируются целиком.
+	 *
+	 * @param previous
+	 *                прежний индекс или null
+	 * @param rows
+	 *            строки словаря с исправлением; строки без исправления пропускаются
+	 *
+	 * @return индекс или null, если пар нет; прежний индекс, если пары не изменились
+	 */
+	static TypoIndex build(TypoIndex previous, List<DictionaryRow> rows) {
+		List<Change> changes = new ArrayList<Change>();
+		int addedLength = 0;
+		for (DictionaryRow row : rows) {
+			if (row.getCorrection() == null || row.getCorrection().equals(row.getOriginal())) { continue; }
+			changes.add(new Change(row));
+			addedLength += row.getOriginal().length() + row.getCorrection().length();
+		}
+		if (changes.isEmpty()) { return previous; }
+		//сортировка устойчивая: строки с одной парой остаются в порядке словаря
+		Collections.sort(changes, new Comparator<Change>() {
+			public int compare(Change first, Change second) {
+				int order = first.typo.compareTo(second.typo);
+				return order != 0 ? order : first.correction.compareTo(second.correction);
+			}
+		});
+
+		int previousSize = previous == null ? 0 : previous.size();
+		int previousLength = previous == null ? 0 : previous.length();
+		char[] chars = new char[previousLength + addedLength];
+		int[] offsets = new int[2 * (previousSize + changes.size()) + 1];
+		int size = 0;
+		int length = 0;
+		//прежние пары до from уже перенесены
+		int from = 0;
+		boolean isChanged = false;
+		for (int i = 0; i < changes.size(); i++) {
+			Change change = changes.get(i);
+			//действует последняя строка с этой парой
+			if (i + 1 < changes.size() && change.typo.equals(changes.get(i + 1).typo)
+					&& change.correction.equals(changes.get(i + 1).correction)) { continue; }
+			int position = previous == null ? 0 : previous.lowerBound(from, change.typo, change.correction);
+			if (previous != null) { length = previous.copyTo(from, position, chars, length, offsets, size); }
+			size += position - from;
+			from = position;
+			boolean isPresent = previous != null && position < previousSize
+					&& previous.compare(position, change.typo, change.correction) == 0;
+			if (change.isDeleted) {
+				if (isPresent) {
+					from++;
+					isChanged = true;
+				}
+			}
+			else if (!isPresent) {
+				offsets[2 * size] = length;
+				change.typo.getChars(0, change.typo.length(), chars, length);
+				length += change.typo.length();
+				offsets[2 * size + 1] = length;
+				change.correction.getChars(0, change.correction.length(), chars, length);
+				length += change.correction.length();
+				size++;
+				isChanged = true;
+			}
+		}
+		if (!isChanged) { return previous; }
+		if (previous != null) { length = previous.copyTo(from, previousSize, chars, length, offsets, size); }
+		size += previousSize - from;
+		if (size == 0) { return null; }
+		offsets[2 * size] = length;
+		return new ArrayIndex(Arrays.copyOf(chars, length), Arrays.copyOf(offsets, 2 * size + 1));
+	}
+
+	/**
+	 * Исправления всех пар, подходящих к префиксу, независимо от того, есть ли они в словаре.
+	 * Из них дерево выбирает то, исправленный префикс которого ведет к самому популярному запросу.
+	 *
+	 * @param prefix
+	 *              префикс с опечаткой
+	 *
+	 * @return исправления
+	 */
+	List<Correction> lookup(String prefix) {
+		List<Correction> result = new ArrayList<Correction>();
+		int from = lowerBound(prefix);
+		int end = Math.min(size(), from + MAX_CANDIDATES);
+		for (int i = from; i < end && startsWith(i, prefix); i++) {
+			int length = correctedLength(i, prefix);
+			if (length < 0) { continue; }
+			String correction = correction(i);
+			result.add(new Correction(correction, correction.substring(0, length)));
+		}
+		return result;
+	}
+
+	/**
+	 * Возвращает количество пар.
+	 *
+	 * @return количество пар
+	 */
+	abstract int size();
+
+	/**
+	 * Количество символов во всех парах.
+	 *
+	 * @return количество символов
+	 */
+	abstract int length();
+
+	/**
+	 * Начало k-го запроса или исправления в последовательности символов: offset(2 * i) - запрос
+	 * с опечаткой i-й пары, offset(2 * i + 1) - ее исправление, offset(2 * size()) - конец.
+	 *
+	 * @param k
+	 *         номер границы
+	 *
+	 * @return номер символа
+	 */
+	abstract int offset(int k);
+
+	/**
+	 * Символ пар по номеру.
+	 *
+	 * @param i
+	 *         номер символа
+	 *
+	 * @return символ
+	 */
+	abstract char charAt(int i);
+
+	/**
+	 * Размер индекса в куче.
+	 *
+	 * @return размер в байтах
+	 */
+	abstract long sizeInBytes();
+
+	/**
+	 * Запрос с опечаткой i-й пары.
+	 *
+	 * @param i
+	 *         номер пары
+	 *
+	 * @return запрос с опечаткой
+	 */
+	String typo(int i) {
+		return text(offset(2 * i), offset(2 * i + 1));
+	}
+
+	/**
+	 * Исправление i-й пары.
+	 *
+	 * @param i
+	 *         номер пары
+	 *
+	 * @return исправленный запрос
+	 */
+	String correction(int i) {
+		return text(offset(2 * i + 1), offset(2 * i + 2));
+	}
+
+	//символы [from, to) строкой
+	String text(int from, int to) {
+		char[] text = new char[to - from];
+		for (int j = 0; j < text.length; j++) { text[j] = charAt(from + j); }
+		return new String(text);
+	}
+
+	//перенос пар [from, to) в строящийся индекс начиная с позиции length и пары size
+	int copyTo(int from, int to, char[] target, int length, int[] targetOffsets, int size) {
+		if (from == to) { return length; }
+		int shift = length - offset(2 * from);
+		for (int j = offset(2 * from); j < offset(2 * to); j++) { target[j + shift] = charAt(j); }
+		for (int j = 2 * from; j < 2 * to; j++) { targetOffsets[2 * size + j - 2 * from] = offset(j) + shift; }
+		return offset(2 * to) + shift;
+	}
+
+	//длина исправленного префикса или -1, если префикс не доходит до места опечатки
+	private int correctedLength(int i, String prefix) {
+		int typoFrom = offset(2 * i);
+		int correctionFrom = offset(2 * i + 1);
+		int typoLength = correctionFrom - typoFrom;
+		int correctionLength = offset(2 * i + 2) - correctionFrom;
+		int common = 0;
+		int limit = Math.min(typoLength, correctionLength);
+		while (common < limit && charAt(typoFrom + common) == charAt(correctionFrom + common)) { common++; }
+		//такой префикс - префикс исправления, он находится и без индекса
+		if (prefix.length() <= common) { return -1; }
+		int length = prefix.length() + correctionLength - typoLength;
+		return Math.max(Math.min(common + 1, correctionLength), Math.min(length, correctionLength));
+	}
+
+	//первый запрос с опечаткой, не меньший префикса
+	private int lowerBound(String prefix) {
+		int from = 0;
+		int to = size();
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (compare(middle, prefix) < 0) { from = middle + 1; }
+			else { to = middle; }
+		}
+		return from;
+	}
+
+	private int compare(int i, String s) {
+		return compare(offset(2 * i), offset(2 * i + 1), s);
+	}
+
+	//сравнение пары с парой (typo, correction) в порядке индекса
+	private int compare(int i, String typo, String correction) {
+		int correctionFrom = offset(2 * i + 1);
+		int order = compare(offset(2 * i), correctionFrom, typo);
+		return order != 0 ? order : compare(correctionFrom, offset(2 * i + 2), correction);
+	}
+
+	//сравнение символов [from, to) со строкой
+	private int compare(int from, int to, String s) {
+		int length = to - from;
+		int limit = Math.min(length, s.length());
+		for (int j = 0; j < limit; j++) {
+			char c = charAt(from + j);
+			if (c != s.charAt(j)) { return c - s.charAt(j); }
+		}
+		return length - s.length();
+	}
+
+	//первая пара, начиная с from, не меньшая пары (typo, correction)
+	private int lowerBound(int from, String typo, String correction) {
+		int to = size();
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (compare(middle, typo, correction) < 0) { from = middle + 1; }
+			else { to = middle; }
+		}
+		return from;
+	}
+
+	private boolean startsWith(int i, String prefix) {
+		int from = offset(2 * i);
+		if (offset(2 * i + 1) - from < prefix.length()) { return false; }
+		for (int j = 0; j < prefix.length(); j++) {
+			if (charAt(from + j) != prefix.charAt(j)) { return false; }
+		}
+		return true;
+	}
+}